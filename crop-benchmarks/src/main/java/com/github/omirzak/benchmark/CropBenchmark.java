@@ -0,0 +1,68 @@
+package com.github.omirzak.benchmark;
+
+import com.github.omirzak.dto.FaceCoordinate;
+import com.github.omirzak.dto.PhotoSizeDTO;
+import com.github.omirzak.util.AspectRatioUtil;
+import com.github.omirzak.util.CropRegionUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.awt.Rectangle;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The geometry of cropping, without touching pixels: aspect ratio reduction and the face and aspect-ratio crop
+ * regions. These run once per target, so they should stay in the nanosecond range.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CropBenchmark {
+    @Param({"1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14", "15", "16", "17"})
+    public int photoSizeId;
+
+    private PhotoSizeDTO photoSizeDTO;
+    private int imageWidth;
+    private int imageHeight;
+    private List<FaceCoordinate> faceCoordinates;
+    private Rectangle faceRegion;
+
+    @Setup
+    public void setUp() {
+        photoSizeDTO = PhotoSizes.byId(photoSizeId);
+        imageWidth = ImageCorpus.PHOTO.dimension().width();
+        imageHeight = ImageCorpus.PHOTO.dimension().height();
+        faceCoordinates = ImageCorpus.PHOTO.faceCoordinates();
+        faceRegion = CropRegionUtil.faceRegion(imageWidth, imageHeight, faceCoordinates);
+    }
+
+    @Benchmark
+    public double[] calculateAspectRatio() {
+        return AspectRatioUtil.calculateAspectRatio(photoSizeDTO.width(), photoSizeDTO.height());
+    }
+
+    @Benchmark
+    public Rectangle faceRegion() {
+        return CropRegionUtil.faceRegion(imageWidth, imageHeight, faceCoordinates);
+    }
+
+    @Benchmark
+    public void aspectRatioRegion(Blackhole blackhole) {
+        double[] aspectRatio = AspectRatioUtil.calculateAspectRatio(photoSizeDTO.width(), photoSizeDTO.height());
+        blackhole.consume(CropRegionUtil.aspectRatioRegion(faceRegion.width, faceRegion.height, aspectRatio[0], aspectRatio[1]));
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.omirzak.benchmark;
+
+import com.github.omirzak.dto.ImageDimension;
+import com.github.omirzak.image.DecodePlan;
+import com.github.omirzak.image.DecodePlanner;
+import com.github.omirzak.image.ImageDimensionProbe;
+import com.github.omirzak.image.SourceImage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding the source: header-only probing, a full decode as the lambda originally did it, and the planned
+ * face-region decode for the smallest and the largest target.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+    @Param({"PORTRAIT", "PHOTO", "LARGE"})
+    public ImageCorpus image;
+
+    private byte[] jpegBytes;
+    private DecodePlan smallTargetPlan;
+    private DecodePlan largeTargetPlan;
+
+    @Setup
+    public void setUp() {
+        jpegBytes = image.jpegBytes();
+        ImageDimension dimension = image.dimension();
+        smallTargetPlan = DecodePlanner.plan(dimension, image.faceCoordinates(), List.of(PhotoSizes.byId(13)));
+        largeTargetPlan = DecodePlanner.plan(dimension, image.faceCoordinates(), List.of(PhotoSizes.byId(8)));
+    }
+
+    @Benchmark
+    public ImageDimension probe() {
+        return ImageDimensionProbe.probe(jpegBytes);
+    }
+
+    @Benchmark
+    public BufferedImage fullDecode() throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(jpegBytes));
+    }
+
+    @Benchmark
+    public BufferedImage regionDecodeSmallTarget() {
+        return SourceImage.ofBytes(image.url(), jpegBytes).decodeRegion(smallTargetPlan);
+    }
+
+    @Benchmark
+    public BufferedImage regionDecodeLargeTarget() {
+        return SourceImage.ofBytes(image.url(), jpegBytes).decodeRegion(largeTargetPlan);
+    }
+}
@@ -0,0 +1,69 @@
+package com.github.omirzak.benchmark;
+
+import com.github.omirzak.config.DependencyFactory;
+import com.github.omirzak.dto.PhotoSizeDTO;
+import com.github.omirzak.image.BufferPool;
+import com.github.omirzak.image.DecodePlan;
+import com.github.omirzak.image.DecodePlanner;
+import com.github.omirzak.image.EncodedImage;
+import com.github.omirzak.image.ImageEncoder;
+import com.github.omirzak.image.SourceImage;
+import com.github.omirzak.service.ImageServiceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding an already rendered target. Targets with a byte budget include the quality search, so compare them by
+ * iterations as well as by time. With {@code buffers=unpooled} the pool retains nothing, so every encode allocates
+ * its output buffers; compare the two with the GC profiler's allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncodeBenchmark {
+    @Param({"1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14", "15", "16", "17"})
+    public int photoSizeId;
+
+    @Param({"pooled", "unpooled"})
+    public String buffers;
+
+    private PhotoSizeDTO photoSizeDTO;
+    private ImageEncoder imageEncoder;
+    private BufferedImage targetImage;
+
+    @Setup
+    public void setUp() {
+        ImageCorpus image = ImageCorpus.PHOTO;
+        photoSizeDTO = PhotoSizes.byId(photoSizeId);
+        imageEncoder = new ImageEncoder(new BufferPool("pooled".equals(buffers) ? 32L * 1024 * 1024 : 0));
+
+        DecodePlan plan = DecodePlanner.plan(image.dimension(), image.faceCoordinates(), List.of(photoSizeDTO));
+        BufferedImage faceRegion = SourceImage.ofBytes(image.url(), image.jpegBytes()).decodeRegion(plan);
+        targetImage = new ImageServiceImpl(imageEncoder, DependencyFactory.resampler("lanczos3"))
+                .cropToTarget(faceRegion, photoSizeDTO);
+    }
+
+    @Benchmark
+    public int encode() {
+        EncodedImage encodedImage = imageEncoder.encode(targetImage, photoSizeDTO.format(), photoSizeDTO.sizeInBytes());
+        int size = encodedImage.size();
+        encodedImage.release();
+        return size;
+    }
+}
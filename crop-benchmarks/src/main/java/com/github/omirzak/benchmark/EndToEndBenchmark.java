@@ -0,0 +1,166 @@
+package com.github.omirzak.benchmark;
+
+import com.github.omirzak.config.DependencyFactory;
+import com.github.omirzak.dto.FaceDetectionMode;
+import com.github.omirzak.dto.PhotoSizeDTO;
+import com.github.omirzak.image.BufferPool;
+import com.github.omirzak.image.DetectionImageEncoder;
+import com.github.omirzak.image.ImageEncoder;
+import com.github.omirzak.local.InMemoryS3Client;
+import com.github.omirzak.local.StubRekognitionClient;
+import com.github.omirzak.service.CpuPermits;
+import com.github.omirzak.service.CropService;
+import com.github.omirzak.service.FaceDetectionCache;
+import com.github.omirzak.service.ImageServiceImpl;
+import com.github.omirzak.service.RekognitionFaceDetector;
+import com.github.omirzak.service.RekognitionService;
+import com.github.omirzak.service.S3MultipartOutputStream;
+import com.github.omirzak.service.SourceCache;
+import com.github.omirzak.service.SourceLoader;
+import com.github.omirzak.service.StorageService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.rekognition.model.Attribute;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole {@link CropService} pipeline with S3 and Rekognition replaced by in-memory stand-ins. Presigning is
+ * real but purely local. The source is read from the same in-memory bucket through an {@code s3://} URL.
+ * <p>
+ * With {@code cache=cold} every invocation starts with a bucket holding only the source and with empty face and
+ * source caches, so everything is fetched, detected, decoded, rendered and uploaded. With {@code cache=warm} the
+ * bucket already holds every output, which measures the HEAD-and-presign path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class EndToEndBenchmark {
+    private static final String BUCKET_NAME = "benchmark-bucket";
+    private static final String SOURCE_PREFIX = "sources/";
+
+    @Param({"PORTRAIT", "PHOTO", "LARGE"})
+    public ImageCorpus image;
+
+    @Param({"cold", "warm"})
+    public String cache;
+
+    @Param({"13"})
+    public int photoSizeId;
+
+    private InMemoryS3Client s3Client;
+    private S3Presigner s3Presigner;
+    private ExecutorService renderExecutor;
+    private ExecutorService ioExecutor;
+    private CropService cropService;
+    private PhotoSizeDTO photoSizeDTO;
+    private Map<Integer, PhotoSizeDTO> allPhotoSizes;
+    private String sourceKey;
+    private String sourceUrl;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        s3Client = new InMemoryS3Client();
+        s3Presigner = S3Presigner.builder()
+                .region(Region.US_EAST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("benchmark", "benchmark")))
+                .build();
+        renderExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        ioExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+        cropService = createCropService();
+        photoSizeDTO = PhotoSizes.byId(photoSizeId);
+        allPhotoSizes = PhotoSizes.repository().getAllPhotoSizesById();
+        sourceKey = SOURCE_PREFIX + image.name().toLowerCase() + ".jpg";
+        sourceUrl = "s3://%s/%s".formatted(BUCKET_NAME, sourceKey);
+        putSource();
+
+        if (isWarm()) {
+            cropService.cropAll(sourceUrl, allPhotoSizes);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void resetBucket() {
+        if (!isWarm()) {
+            s3Client.clear();
+            putSource();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        renderExecutor.shutdownNow();
+        ioExecutor.shutdownNow();
+        s3Presigner.close();
+    }
+
+    @Benchmark
+    public String crop() {
+        return cropService.crop(sourceUrl, photoSizeDTO);
+    }
+
+    @Benchmark
+    public Map<Integer, String> cropAll() {
+        return cropService.cropAll(sourceUrl, allPhotoSizes);
+    }
+
+    private boolean isWarm() {
+        return "warm".equals(cache);
+    }
+
+    private void putSource() {
+        s3Client.putObject(b -> b.bucket(BUCKET_NAME).key(sourceKey).contentType("image/jpeg"),
+                RequestBody.fromBytes(image.jpegBytes()));
+    }
+
+    private CropService createCropService() {
+        // Zero-capacity memory tiers keep every cold invocation from reusing the previous detection or source
+        // bytes; the persistent face tier lives in the bucket, which is cleared before each invocation.
+        int faceCacheCapacity = isWarm() ? 16 : 0;
+        long sourceCacheBytes = isWarm() ? 64L * 1024 * 1024 : 0;
+        BufferPool bufferPool = new BufferPool(32L * 1024 * 1024);
+        CpuPermits cpuPermits = new CpuPermits(Runtime.getRuntime().availableProcessors());
+        FaceDetectionCache faceDetectionCache = new FaceDetectionCache(
+                s3Client, BUCKET_NAME, DependencyFactory.objectMapper(), faceCacheCapacity);
+        RekognitionService rekognitionService = new RekognitionService(
+                new RekognitionFaceDetector(
+                        new StubRekognitionClient(image.faceBoxes()), DependencyFactory.rekognitionLimiter(),
+                        new DetectionImageEncoder(new ImageEncoder(bufferPool), 1600, 5_000_000), Attribute.DEFAULT,
+                        cpuPermits),
+                DependencyFactory.localFaceDetector(), faceDetectionCache, ioExecutor, Duration.ofSeconds(3),
+                FaceDetectionMode.REKOGNITION);
+        StorageService storageService = new StorageService(
+                s3Client, s3Presigner, BUCKET_NAME, bufferPool, S3MultipartOutputStream.MIN_PART_BYTES);
+        SourceLoader sourceLoader = new SourceLoader(
+                s3Client, DependencyFactory.httpClient(), new SourceCache(sourceCacheBytes), Long.MAX_VALUE);
+        ImageServiceImpl imageService = new ImageServiceImpl(
+                new ImageEncoder(bufferPool), DependencyFactory.resampler("lanczos3"));
+        return new CropService(
+                sourceLoader, imageService, rekognitionService, storageService, renderExecutor, ioExecutor, bufferPool,
+                DependencyFactory.admissionControl(), cpuPermits);
+    }
+}
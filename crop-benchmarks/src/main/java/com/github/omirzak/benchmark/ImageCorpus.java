@@ -0,0 +1,116 @@
+package com.github.omirzak.benchmark;
+
+import com.github.omirzak.dto.FaceBox;
+import com.github.omirzak.dto.FaceCoordinate;
+import com.github.omirzak.dto.ImageDimension;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Synthetic source images shaped like real uploads: a gradient background with noise, so JPEG cannot compress it
+ * away, and a single face-like ellipse at a known position.
+ * <p>
+ * Images are generated once per JVM and encoded as JPEG, since that is what the lambda receives.
+ */
+public enum ImageCorpus {
+    PORTRAIT(1200, 1600, new FaceBox(0.35f, 0.20f, 0.30f, 0.25f)),
+    PHOTO(4000, 3000, new FaceBox(0.55f, 0.25f, 0.15f, 0.22f)),
+    LARGE(6000, 4000, new FaceBox(0.40f, 0.30f, 0.10f, 0.16f));
+
+    private static final long SEED = 42;
+    private static final Map<ImageCorpus, byte[]> ENCODED = new ConcurrentHashMap<>();
+
+    private final int width;
+    private final int height;
+    private final FaceBox faceBox;
+
+    ImageCorpus(int width, int height, FaceBox faceBox) {
+        this.width = width;
+        this.height = height;
+        this.faceBox = faceBox;
+    }
+
+    /**
+     * The image as a URL-like name, used as the source URL in end-to-end runs.
+     */
+    public String url() {
+        return "https://corpus.local/%s.jpg".formatted(name().toLowerCase());
+    }
+
+    public ImageDimension dimension() {
+        return new ImageDimension(width, height);
+    }
+
+    public List<FaceBox> faceBoxes() {
+        return List.of(faceBox);
+    }
+
+    public List<FaceCoordinate> faceCoordinates() {
+        return List.of(new FaceCoordinate(
+                (int) (faceBox.left() * width),
+                (int) (faceBox.top() * height),
+                (int) (faceBox.width() * width),
+                (int) (faceBox.height() * height)));
+    }
+
+    public byte[] jpegBytes() {
+        return ENCODED.computeIfAbsent(this, ImageCorpus::encode);
+    }
+
+    private static byte[] encode(ImageCorpus corpus) {
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            ImageIO.write(corpus.render(), "jpg", outputStream);
+            return outputStream.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private BufferedImage render() {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            graphics.setPaint(new GradientPaint(0, 0, new Color(40, 70, 120), width, height, new Color(210, 180, 140)));
+            graphics.fillRect(0, 0, width, height);
+
+            graphics.setColor(new Color(224, 172, 138));
+            graphics.fillOval((int) (faceBox.left() * width), (int) (faceBox.top() * height),
+                    (int) (faceBox.width() * width), (int) (faceBox.height() * height));
+        } finally {
+            graphics.dispose();
+        }
+
+        Random random = new Random(SEED);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(25) - 12;
+                int r = clamp(((row[x] >> 16) & 0xFF) + noise);
+                int g = clamp(((row[x] >> 8) & 0xFF) + noise);
+                int b = clamp((row[x] & 0xFF) + noise);
+                row[x] = (r << 16) | (g << 8) | b;
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
@@ -0,0 +1,26 @@
+package com.github.omirzak.benchmark;
+
+import com.github.omirzak.dto.PhotoSizeDTO;
+import com.github.omirzak.service.PhotoSizeRepository;
+
+/**
+ * Resolves the {@code photoSizeId} benchmark parameter against {@link PhotoSizeRepository}.
+ * <p>
+ * JMH parameters must be compile-time constants, so benchmarks list the ids by hand; {@link #byId} fails fast if a
+ * listed id no longer exists.
+ */
+final class PhotoSizes {
+    private static final PhotoSizeRepository REPOSITORY = new PhotoSizeRepository();
+
+    private PhotoSizes() {
+    }
+
+    static PhotoSizeDTO byId(int id) {
+        return REPOSITORY.findById(id)
+                .orElseThrow(() -> new IllegalArgumentException("Unknown photo size id: " + id));
+    }
+
+    static PhotoSizeRepository repository() {
+        return REPOSITORY;
+    }
+}
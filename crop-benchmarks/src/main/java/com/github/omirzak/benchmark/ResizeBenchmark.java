@@ -0,0 +1,63 @@
+package com.github.omirzak.benchmark;
+
+import com.github.omirzak.config.DependencyFactory;
+import com.github.omirzak.dto.PhotoSizeDTO;
+import com.github.omirzak.image.BufferPool;
+import com.github.omirzak.image.DecodePlan;
+import com.github.omirzak.image.DecodePlanner;
+import com.github.omirzak.image.ImageEncoder;
+import com.github.omirzak.image.SourceImage;
+import com.github.omirzak.service.ImageService;
+import com.github.omirzak.service.ImageServiceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aspect-ratio crop and resize of the decoded face region to each target, per resize strategy. The region is
+ * decoded with the same plan the pipeline would use for that single target.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResizeBenchmark {
+    @Param({"1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14", "15", "16", "17"})
+    public int photoSizeId;
+
+    @Param({"lanczos3", "mitchell", "graphics2d"})
+    public String strategy;
+
+    private PhotoSizeDTO photoSizeDTO;
+    private ImageService imageService;
+    private BufferedImage faceRegion;
+
+    @Setup
+    public void setUp() {
+        ImageCorpus image = ImageCorpus.PHOTO;
+        photoSizeDTO = PhotoSizes.byId(photoSizeId);
+        imageService = new ImageServiceImpl(new ImageEncoder(new BufferPool(0)), DependencyFactory.resampler(strategy));
+
+        DecodePlan plan = DecodePlanner.plan(image.dimension(), image.faceCoordinates(), List.of(photoSizeDTO));
+        faceRegion = SourceImage.ofBytes(image.url(), image.jpegBytes()).decodeRegion(plan);
+    }
+
+    @Benchmark
+    public BufferedImage cropToTarget() {
+        return imageService.cropToTarget(faceRegion, photoSizeDTO);
+    }
+}
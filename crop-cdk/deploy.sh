@@ -1,5 +1,13 @@
+# ./deploy.sh deploys the jar on the Java runtime with SnapStart, ./deploy.sh native the native executable on
+# provided.al2023, and ./deploy.sh appcds the jar with its AppCDS archive on the Java runtime
+RUNTIME=${1:-jvm}
+
 cd ../crop-lambda || exit 1
-mvn clean package
+if [ "$RUNTIME" = "jvm" ]; then
+  mvn clean package
+else
+  mvn -P"$RUNTIME" clean package
+fi
 
 cd ../crop-cdk || exit 1
-cdk deploy
+cdk deploy -c runtime="$RUNTIME"
@@ -9,14 +9,24 @@ import software.amazon.awscdk.StackProps;
 import software.amazon.awscdk.services.apigateway.*;
 import software.amazon.awscdk.services.iam.Effect;
 import software.amazon.awscdk.services.iam.PolicyStatement;
+import software.amazon.awscdk.services.lambda.Alias;
+import software.amazon.awscdk.services.lambda.Architecture;
+import software.amazon.awscdk.services.lambda.AliasProps;
 import software.amazon.awscdk.services.lambda.Code;
 import software.amazon.awscdk.services.lambda.Function;
 import software.amazon.awscdk.services.lambda.FunctionProps;
 import software.amazon.awscdk.services.lambda.Runtime;
+import software.amazon.awscdk.services.lambda.SnapStartConf;
+import software.amazon.awscdk.services.lambda.eventsources.SqsEventSource;
+import software.amazon.awscdk.services.lambda.eventsources.SqsEventSourceProps;
 import software.amazon.awscdk.services.s3.Bucket;
 import software.amazon.awscdk.services.s3.BucketProps;
+import software.amazon.awscdk.services.sqs.DeadLetterQueue;
+import software.amazon.awscdk.services.sqs.Queue;
+import software.amazon.awscdk.services.sqs.QueueProps;
 import software.constructs.Construct;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -33,24 +43,52 @@ public class CropCdkStack extends Stack {
                 .removalPolicy(RemovalPolicy.DESTROY)
                 .build());
 
-        Function cropFunction = new Function(this, "CropFunction", FunctionProps.builder()
-                .runtime(Runtime.JAVA_21)
+        // Deploy with -c runtime=native or -c runtime=appcds to run the package built by mvn -Pnative or
+        // mvn -Pappcds instead of the jar with SnapStart
+        Object runtime = this.getNode().tryGetContext("runtime");
+        Map<String, String> environment = new HashMap<>();
+        environment.put("BUCKET_NAME", bucket.getBucketName());
+        FunctionProps.Builder cropFunctionProps = FunctionProps.builder()
                 .handler("com.github.omirzak.CropLambda::handleRequest")
-                .code(Code.fromAsset("../crop-lambda/target/crop-lambda.jar"))
                 .timeout(Duration.seconds(29))
-                .memorySize(1024)
-                .environment(Map.of(
-                        "BUCKET_NAME", bucket.getBucketName()
-                ))
+                .memorySize(1024);
+        deploy(cropFunctionProps, runtime, environment, true);
+        Function cropFunction = new Function(this, "CropFunction", cropFunctionProps
+                .environment(environment)
                 .build());
+        allowCropping(cropFunction, bucket);
 
-        bucket.grantReadWrite(cropFunction);
-
-        cropFunction.addToRolePolicy(PolicyStatement.Builder.create()
-                .effect(Effect.ALLOW)
-                .actions(List.of("rekognition:DetectFaces"))
-                .resources(List.of("*"))
+        // Backfills render every photo size of a source per message, so they get more time and memory than a
+        // request, and a cap on concurrent invocations keeps them from taking the Rekognition quota from the API.
+        // Messages stay invisible for six function timeouts, so retries of a throttled batch do not overlap it.
+        Queue backfillDeadLetterQueue = new Queue(this, "BackfillDeadLetterQueue", QueueProps.builder()
+                .retentionPeriod(Duration.days(14))
+                .build());
+        Queue backfillQueue = new Queue(this, "BackfillQueue", QueueProps.builder()
+                .visibilityTimeout(Duration.minutes(30))
+                .deadLetterQueue(DeadLetterQueue.builder()
+                        .queue(backfillDeadLetterQueue)
+                        .maxReceiveCount(3)
+                        .build())
+                .build());
+        Map<String, String> backfillEnvironment = new HashMap<>();
+        backfillEnvironment.put("BUCKET_NAME", bucket.getBucketName());
+        backfillEnvironment.put("BACKFILL_CONCURRENCY", "4");
+        FunctionProps.Builder backfillFunctionProps = FunctionProps.builder()
+                .handler("com.github.omirzak.CropQueueLambda::handleRequest")
+                .timeout(Duration.minutes(5))
+                .memorySize(2048);
+        deploy(backfillFunctionProps, runtime, backfillEnvironment, false);
+        Function backfillFunction = new Function(this, "BackfillFunction", backfillFunctionProps
+                .environment(backfillEnvironment)
                 .build());
+        allowCropping(backfillFunction, bucket);
+        backfillFunction.addEventSource(new SqsEventSource(backfillQueue, SqsEventSourceProps.builder()
+                .batchSize(10)
+                .maxBatchingWindow(Duration.seconds(5))
+                .maxConcurrency(5)
+                .reportBatchItemFailures(true)
+                .build()));
 
         RestApi api = new RestApi(this, "MyApi", RestApiProps.builder()
                 .restApiName("My Service API")
@@ -66,11 +104,67 @@ public class CropCdkStack extends Stack {
                         .build())
                 .build());
 
-        LambdaIntegration cropIntegration = new LambdaIntegration(cropFunction);
-        api.getRoot().addResource("crop").addMethod("POST", cropIntegration);
+        // SnapStart only applies to published versions, so the API invokes an alias of the current version
+        Alias cropAlias = new Alias(this, "CropFunctionAlias", AliasProps.builder()
+                .aliasName("live")
+                .version(cropFunction.getCurrentVersion())
+                .build());
+
+        LambdaIntegration cropIntegration = new LambdaIntegration(cropAlias);
+        Resource cropResource = api.getRoot().addResource("crop");
+        cropResource.addMethod("POST", cropIntegration);
+        cropResource.addResource("batch").addMethod("POST", cropIntegration);
 
         new CfnOutput(this, "MyApiEndpoint", CfnOutputProps.builder()
                 .value(api.getUrl())
                 .build());
+        new CfnOutput(this, "BackfillQueueUrl", CfnOutputProps.builder()
+                .value(backfillQueue.getQueueUrl())
+                .build());
+    }
+
+    /**
+     * Deploys the package built for the runtime given as context: the native executable, the jar with its AppCDS
+     * archive or, by default, the jar with SnapStart. Interactive functions trade peak speed for faster cold starts.
+     */
+    private static void deploy(
+            FunctionProps.Builder functionProps,
+            Object runtime,
+            Map<String, String> environment,
+            boolean interactive
+    ) {
+        if ("native".equals(runtime)) {
+            // SnapStart is only available on the managed Java runtimes
+            functionProps
+                    .runtime(Runtime.PROVIDED_AL2023)
+                    .architecture(Architecture.X86_64)
+                    .code(Code.fromAsset("../crop-lambda/target/crop-lambda-native.zip"));
+        } else if ("appcds".equals(runtime)) {
+            // Stopping at C1 trades the peak speed of the resize loops for much less compilation on cold starts,
+            // which only pays off for requests
+            environment.put("JAVA_TOOL_OPTIONS", "-XX:SharedArchiveFile=/var/task/crop-lambda.jsa"
+                    + (interactive ? " -XX:+TieredCompilation -XX:TieredStopAtLevel=1" : ""));
+            environment.put("AWS_LAMBDA_EXEC_WRAPPER", "/var/task/appcds-wrapper");
+            functionProps
+                    .runtime(Runtime.JAVA_21)
+                    .code(Code.fromAsset("../crop-lambda/target/crop-lambda-appcds.zip"));
+        } else {
+            functionProps
+                    .runtime(Runtime.JAVA_21)
+                    .code(Code.fromAsset("../crop-lambda/target/crop-lambda.jar"));
+            if (interactive) {
+                functionProps.snapStart(SnapStartConf.ON_PUBLISHED_VERSIONS);
+            }
+        }
+    }
+
+    private static void allowCropping(Function function, Bucket bucket) {
+        bucket.grantReadWrite(function);
+
+        function.addToRolePolicy(PolicyStatement.Builder.create()
+                .effect(Effect.ALLOW)
+                .actions(List.of("rekognition:DetectFaces"))
+                .resources(List.of("*"))
+                .build());
     }
 }
@@ -6,6 +6,8 @@ import software.amazon.awscdk.assertions.Template;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class CropCdkTest {
 
@@ -23,4 +25,39 @@ public class CropCdkTest {
             put("MemorySize", 1024);
         }});
     }
+
+    @Test
+    public void testSnapStart() {
+        App app = new App();
+        CropCdkStack stack = new CropCdkStack(app, "test");
+
+        Template template = Template.fromStack(stack);
+
+        template.hasResourceProperties("AWS::Lambda::Function", new HashMap<String, Object>() {{
+            put("SnapStart", Map.of("ApplyOn", "PublishedVersions"));
+        }});
+        template.hasResourceProperties("AWS::Lambda::Alias", new HashMap<String, Object>() {{
+            put("Name", "live");
+        }});
+    }
+
+    @Test
+    public void testBackfillQueue() {
+        App app = new App();
+        CropCdkStack stack = new CropCdkStack(app, "test");
+
+        Template template = Template.fromStack(stack);
+
+        template.hasResourceProperties("AWS::Lambda::Function", new HashMap<String, Object>() {{
+            put("Handler", "com.github.omirzak.CropQueueLambda::handleRequest");
+            put("Timeout", 300);
+        }});
+        template.hasResourceProperties("AWS::Lambda::EventSourceMapping", new HashMap<String, Object>() {{
+            put("BatchSize", 10);
+            put("FunctionResponseTypes", List.of("ReportBatchItemFailures"));
+        }});
+        template.hasResourceProperties("AWS::SQS::Queue", new HashMap<String, Object>() {{
+            put("RedrivePolicy", Map.of("maxReceiveCount", 3));
+        }});
+    }
 }
@@ -7,33 +7,26 @@ import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.omirzak.config.DependencyFactory;
+import com.github.omirzak.config.LoggingConfig;
+import com.github.omirzak.config.PrimingResource;
+import com.github.omirzak.config.StartupTimings;
+import com.github.omirzak.dto.BatchCropRequest;
+import com.github.omirzak.dto.BatchCropResponse;
 import com.github.omirzak.dto.CropRequest;
 import com.github.omirzak.dto.CropResponse;
-import com.github.omirzak.dto.FaceCoordinate;
 import com.github.omirzak.dto.PhotoSizeDTO;
-import com.github.omirzak.service.ImageService;
+import com.github.omirzak.metrics.MetricsLogger;
+import com.github.omirzak.service.CropService;
+import com.github.omirzak.service.ImageRejectedException;
 import com.github.omirzak.service.PhotoSizeRepository;
-import com.github.omirzak.service.RekognitionService;
-import com.github.omirzak.util.AspectRatioUtil;
-import org.jetbrains.annotations.NotNull;
-import org.slf4j.LoggerFactory;
-import software.amazon.awssdk.core.sync.RequestBody;
-import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.JSONInput;
-import software.amazon.awssdk.services.s3.model.PutObjectRequest;
-import software.amazon.awssdk.services.s3.presigner.S3Presigner;
-import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
-import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
-
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.time.Duration;
-import java.util.List;
+import com.github.omirzak.service.ThrottledException;
+import com.github.omirzak.service.UnprocessableImageException;
+import software.amazon.awssdk.core.exception.SdkException;
+
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -45,54 +38,127 @@ import java.util.logging.Logger;
 public class CropLambda implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
     private static final Logger logger = Logger.getLogger(CropLambda.class.getName());
 
-    private final S3Client s3Client;
-    private final RekognitionService rekognitionService;
-    private final String bucketName =
-            Objects.requireNonNull(System.getenv("BUCKET_NAME"), "BUCKET_NAME is required");
-    private final S3Presigner s3Presigner;
     private final ObjectMapper objectMapper;
-    private final ImageService imageService;
+    private final CropService cropService;
     private final PhotoSizeRepository photoSizeRepository;
+    private final String metricsNamespace;
 
+    /**
+     * Metrics are published under METRICS_NAMESPACE (default CropLambda).
+     */
     public CropLambda() {
-        s3Client = DependencyFactory.s3Client();
-        rekognitionService = DependencyFactory.rekognitionService();
-        s3Presigner = DependencyFactory.s3Presigner();
-        objectMapper = DependencyFactory.objectMapper();
-        imageService = DependencyFactory.imageService();
-        photoSizeRepository = DependencyFactory.photoSizeRepository();
+        StartupTimings.time("logging", LoggingConfig::configure);
+        metricsNamespace = System.getenv().getOrDefault("METRICS_NAMESPACE", "CropLambda");
+        objectMapper = StartupTimings.time("objectMapper", DependencyFactory::objectMapper);
+        cropService = StartupTimings.time("cropService", DependencyFactory::cropService);
+        photoSizeRepository = StartupTimings.time("photoSizeRepository", DependencyFactory::photoSizeRepository);
+        PrimingResource.register();
+        StartupTimings.logBreakdown("init");
     }
 
+    /**
+     * Handles one request and writes its metrics as a single EMF record to stdout, whatever the outcome.
+     */
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
-        logger.info("received: " + input);
-        logger.info("BUCKET_NAME: " + bucketName);
+        long start = System.nanoTime();
+        boolean batch = isBatchRequest(input);
+        logger.fine(() -> "Received %s %s".formatted(input.getHttpMethod(), input.getPath()));
+        MetricsLogger metrics = new MetricsLogger(metricsNamespace)
+                .putDimension("Operation", batch ? "BatchCrop" : "Crop");
+        if (context != null) {
+            metrics.putProperty("requestId", context.getAwsRequestId());
+        }
+
+        APIGatewayProxyResponseEvent response;
         try {
-            CropRequest cropRequest = objectMapper.readValue(input.getBody(), CropRequest.class);
-            final String imageUrl = cropRequest.getImageUrl();
-            final Integer id = cropRequest.getId();
+            response = batch ? handleBatchRequest(input, metrics) : handleCropRequest(input, metrics);
+        } catch (JsonProcessingException e) {
+            logger.warning("Invalid request: " + e.getOriginalMessage());
+            response = createResponse(Map.of("message", String.valueOf(e.getOriginalMessage())), 400);
+        } catch (IllegalArgumentException e) {
+            logger.warning("Invalid request: " + e.getMessage());
+            response = createResponse(Map.of("message", String.valueOf(e.getMessage())), 400);
+        } catch (ImageRejectedException e) {
+            logger.warning("Rejected request: " + e.getMessage());
+            response = createResponse(Map.of("message", e.getMessage()), 413);
+        } catch (UnprocessableImageException e) {
+            logger.warning("Unprocessable request: " + e.getMessage());
+            response = createResponse(Map.of("message", e.getMessage()), 422);
+        } catch (ThrottledException e) {
+            logger.warning("Throttled request: " + e.getMessage());
+            response = createResponse(Map.of("message", e.getMessage()), 429);
+        } catch (SdkException e) {
+            logger.log(Level.WARNING, "AWS call failed: " + e.getMessage(), e);
+            response = createResponse(Map.of("message", "A downstream service is unavailable, retry later"), 503);
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Error processing request: " + e.getMessage(), e);
+            response = createResponse(Map.of("message", String.valueOf(e.getMessage())), 500);
+        }
 
-            Optional<PhotoSizeDTO> photoSizeDTOOptional = photoSizeRepository.findById(id);
+        long durationNanos = System.nanoTime() - start;
+        StartupTimings.recordFirstRequest(durationNanos);
+        int statusCode = response.getStatusCode();
+        metrics.putProperty("statusCode", statusCode)
+                .putMetric("Latency", durationNanos / 1_000_000.0, MetricsLogger.Unit.MILLISECONDS)
+                .putMetric("ClientErrors", statusCode >= 400 && statusCode < 500 ? 1 : 0, MetricsLogger.Unit.COUNT)
+                .putMetric("Faults", statusCode >= 500 ? 1 : 0, MetricsLogger.Unit.COUNT)
+                .flush(System.out);
+        return response;
+    }
 
-            if (photoSizeDTOOptional.isEmpty()) {
-                return new APIGatewayProxyResponseEvent()
-                        .withBody("Photo size not found")
-                        .withStatusCode(404);
-            }
+    private APIGatewayProxyResponseEvent handleCropRequest(
+            APIGatewayProxyRequestEvent input,
+            MetricsLogger metrics
+    ) throws JsonProcessingException {
+        CropRequest cropRequest = objectMapper.readValue(input.getBody(), CropRequest.class);
+        final String imageUrl = cropRequest.getImageUrl();
+        final Integer id = cropRequest.getId();
 
-            List<FaceCoordinate> faceCoordinate = rekognitionService.detectFaces(imageUrl);
-            PhotoSizeDTO photoSizeDTO = photoSizeDTOOptional.get();
+        Optional<PhotoSizeDTO> photoSizeDTOOptional = photoSizeRepository.findById(id);
 
-            BufferedImage originalImage = imageService.getImageFromUrl(imageUrl);
-            BufferedImage resultImage = imageService.cropImage(originalImage, photoSizeDTO, faceCoordinate);
+        if (photoSizeDTOOptional.isEmpty()) {
+            return new APIGatewayProxyResponseEvent()
+                    .withBody("Photo size not found")
+                    .withStatusCode(404);
+        }
 
-            String presignedUrl = uploadAndGetPresignedUrl(resultImage, photoSizeDTO);
+        String presignedUrl = cropService.crop(
+                imageUrl, photoSizeDTOOptional.get(), cropRequest.getFaceDetector(), metrics);
 
-            return createResponse(new CropResponse(presignedUrl), 200);
-        } catch (Exception e) {
-            logger.severe("Error processing request: " + e.getMessage());
-            return createResponse(Map.of("message", e.getMessage()), 500);
+        return createResponse(new CropResponse(presignedUrl), 200);
+    }
+
+    private APIGatewayProxyResponseEvent handleBatchRequest(
+            APIGatewayProxyRequestEvent input,
+            MetricsLogger metrics
+    ) throws JsonProcessingException {
+        BatchCropRequest batchCropRequest = objectMapper.readValue(input.getBody(), BatchCropRequest.class);
+
+        Map<Integer, PhotoSizeDTO> photoSizes;
+        if (batchCropRequest.isAll()) {
+            photoSizes = photoSizeRepository.getAllPhotoSizesById();
+        } else {
+            photoSizes = new LinkedHashMap<>();
+            for (Integer id : batchCropRequest.getIds()) {
+                Optional<PhotoSizeDTO> photoSizeDTOOptional = photoSizeRepository.findById(id);
+                if (photoSizeDTOOptional.isEmpty()) {
+                    return createResponse(Map.of("message", "Photo size not found: " + id), 404);
+                }
+                photoSizes.put(id, photoSizeDTOOptional.get());
+            }
         }
+
+        Map<Integer, String> presignedUrls = cropService.cropAll(
+                batchCropRequest.getImageUrl(), photoSizes, batchCropRequest.getFaceDetector(), metrics);
+        metrics.putMetric("Targets", photoSizes.size(), MetricsLogger.Unit.COUNT);
+
+        return createResponse(new BatchCropResponse(presignedUrls), 200);
+    }
+
+    private static boolean isBatchRequest(APIGatewayProxyRequestEvent input) {
+        String path = input.getPath();
+        return path != null && path.endsWith("/batch");
     }
 
     private APIGatewayProxyResponseEvent createResponse(Object body, int statusCode) {
@@ -111,41 +177,4 @@ public class CropLambda implements RequestHandler<APIGatewayProxyRequestEvent, A
             throw new RuntimeException(e);
         }
     }
-
-    private String uploadAndGetPresignedUrl(BufferedImage image, PhotoSizeDTO photoSizeDTO) throws IOException {
-        byte[] imageBytes = convertImageToBytes(image, photoSizeDTO.format());
-        String key = "cropped/%s_%d.%s".formatted(photoSizeDTO.constructFileName(), System.currentTimeMillis(), photoSizeDTO.format());
-
-        String contentType = switch (photoSizeDTO.format().toLowerCase()) {
-            case "jpg", "jpeg" -> "image/jpeg";
-            case "png" -> "image/png";
-            case "webp" -> "image/webp";
-            default -> "application/octet-stream";
-        };
-
-        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
-                .bucket(bucketName)
-                .key(key)
-                .contentType(contentType)
-                .build();
-
-        s3Client.putObject(putObjectRequest, RequestBody.fromBytes(imageBytes));
-
-        logger.info("Image uploaded to S3 with key: " + key);
-
-        GetObjectPresignRequest getObjectPresignRequest = GetObjectPresignRequest.builder()
-                .signatureDuration(Duration.ofMinutes(60))
-                .getObjectRequest(b -> b.bucket(bucketName).key(key))
-                .build();
-
-        PresignedGetObjectRequest presignedRequest = s3Presigner.presignGetObject(getObjectPresignRequest);
-
-        return presignedRequest.url().toString();
-    }
-
-    private byte[] convertImageToBytes(BufferedImage image, String format) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ImageIO.write(image, format, baos);
-        return baos.toByteArray();
-    }
 }
@@ -0,0 +1,32 @@
+package com.github.omirzak;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.github.omirzak.config.DependencyFactory;
+import com.github.omirzak.config.LoggingConfig;
+import com.github.omirzak.service.BackfillWorker;
+
+import java.util.UUID;
+
+/**
+ * Lambda function entry point for catalog backfills, triggered by SQS. The event source must report batch item
+ * failures, or a single failed message would return the whole batch to the queue.
+ *
+ * @see BackfillWorker
+ */
+public class CropQueueLambda implements RequestHandler<SQSEvent, SQSBatchResponse> {
+    private final BackfillWorker backfillWorker;
+
+    public CropQueueLambda() {
+        LoggingConfig.configure();
+        backfillWorker = DependencyFactory.backfillWorker();
+    }
+
+    @Override
+    public SQSBatchResponse handleRequest(SQSEvent input, Context context) {
+        String batchId = context != null ? context.getAwsRequestId() : UUID.randomUUID().toString();
+        return backfillWorker.process(batchId, input.getRecords());
+    }
+}
@@ -0,0 +1,175 @@
+package com.github.omirzak;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.github.omirzak.config.DependencyFactory;
+import com.github.omirzak.dto.FaceBox;
+import com.github.omirzak.local.InMemoryS3Client;
+import com.github.omirzak.local.StubRekognitionClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+/**
+ * Standalone entry point for running the cropper outside Lambda, for example in a container. Serves the same
+ * {@code POST /crop} and {@code POST /crop/batch} contract as the function, by handing each request to
+ * {@link CropLambda#handleRequest} as API Gateway would, plus {@code GET /health}.
+ * <p>
+ * Every request runs on its own virtual thread; decoding, resizing and encoding are bounded per core by the
+ * {@link com.github.omirzak.service.CpuPermits} of the crop service, so the number of open connections does not
+ * oversubscribe the CPU.
+ * <p>
+ * Listens on PORT (default 8080). S3 and Rekognition are reached at S3_ENDPOINT and REKOGNITION_ENDPOINT when set,
+ * and with STAND_INS=true are replaced by the in-memory stand-ins, where sources are read over HTTP(S), crops are
+ * kept in memory and every image has one face in the middle. The stand-in crops are presigned with static
+ * credentials against this server, which serves them under {@code GET /objects/<bucket>/<key>} without checking
+ * the signature.
+ */
+public class CropServer {
+    private static final Logger logger = Logger.getLogger(CropServer.class.getName());
+
+    private static final FaceBox STAND_IN_FACE = new FaceBox(0.4f, 0.3f, 0.2f, 0.3f);
+    private static final String OBJECTS_PATH = "/objects/";
+
+    private final CropLambda cropLambda;
+
+    public CropServer(CropLambda cropLambda) {
+        this.cropLambda = cropLambda;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = Integer.parseInt(System.getenv().getOrDefault("PORT", "8080"));
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        if (Boolean.parseBoolean(System.getenv().getOrDefault("STAND_INS", "false"))) {
+            InMemoryS3Client s3Client = new InMemoryS3Client();
+            DependencyFactory.useClients(s3Client, new StubRekognitionClient(List.of(STAND_IN_FACE)));
+            DependencyFactory.usePresigner(standInPresigner(port));
+            server.createContext(OBJECTS_PATH, exchange -> handleObject(exchange, s3Client));
+        }
+
+        CropServer cropServer = new CropServer(new CropLambda());
+        server.createContext("/crop", cropServer::handleCrop);
+        server.createContext("/health", cropServer::handleHealth);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        logger.info("Listening on port " + port);
+    }
+
+    private void handleCrop(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            if (!path.equals("/crop") && !path.equals("/crop/batch")) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            if (!exchange.getRequestMethod().equals("POST")) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            String body;
+            try (InputStream inputStream = exchange.getRequestBody()) {
+                body = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            Map<String, String> headers = new HashMap<>();
+            exchange.getRequestHeaders().forEach((name, values) -> headers.put(name, String.join(",", values)));
+            APIGatewayProxyRequestEvent event = new APIGatewayProxyRequestEvent()
+                    .withHttpMethod("POST")
+                    .withPath(path)
+                    .withHeaders(headers)
+                    .withBody(body);
+
+            writeResponse(exchange, cropLambda.handleRequest(event, null));
+        }
+    }
+
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            exchange.sendResponseHeaders(exchange.getRequestMethod().equals("GET") ? 200 : 405, -1);
+        }
+    }
+
+    /**
+     * Presigns URLs of this server's {@code /objects/} path, with static credentials since none are needed to read
+     * the stand-in objects.
+     */
+    private static S3Presigner standInPresigner(int port) {
+        return S3Presigner.builder()
+                .region(Region.US_EAST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("stand-in", "stand-in")))
+                .endpointOverride(URI.create("http://localhost:%d%s".formatted(port, OBJECTS_PATH)))
+                .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build())
+                .build();
+    }
+
+    /**
+     * Serves a stand-in object addressed as {@code /objects/<bucket>/<key>}, ignoring the presigned query string.
+     */
+    private static void handleObject(HttpExchange exchange, InMemoryS3Client s3Client) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            String[] location = exchange.getRequestURI().getPath().substring(OBJECTS_PATH.length()).split("/", 2);
+            if (location.length < 2) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            ResponseBytes<GetObjectResponse> object;
+            try {
+                object = s3Client.getObject(b -> b.bucket(location[0]).key(location[1]), ResponseTransformer.toBytes());
+            } catch (NoSuchKeyException e) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            byte[] body = object.asByteArrayUnsafe();
+            if (object.response().contentType() != null) {
+                exchange.getResponseHeaders().set("Content-Type", object.response().contentType());
+            }
+            exchange.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        }
+    }
+
+    private static void writeResponse(HttpExchange exchange, APIGatewayProxyResponseEvent response)
+            throws IOException {
+        if (response.getHeaders() != null) {
+            response.getHeaders().forEach(exchange.getResponseHeaders()::set);
+        }
+        byte[] body = response.getBody() == null
+                ? new byte[0]
+                : response.getBody().getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(response.getStatusCode(), body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        }
+    }
+}
@@ -3,15 +3,48 @@ package com.github.omirzak.config;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.omirzak.CropLambda;
+import com.github.omirzak.dto.FaceDetectionMode;
+import com.github.omirzak.image.BufferPool;
+import com.github.omirzak.image.DetectionImageEncoder;
+import com.github.omirzak.image.Graphics2DResampler;
+import com.github.omirzak.image.ImageEncoder;
+import com.github.omirzak.image.Resampler;
+import com.github.omirzak.image.SeparableResampler;
+import com.github.omirzak.service.AdmissionControl;
+import com.github.omirzak.service.BackfillWorker;
+import com.github.omirzak.service.ConcurrencyLimiter;
+import com.github.omirzak.service.CpuPermits;
+import com.github.omirzak.service.CropService;
+import com.github.omirzak.service.FaceDetectionCache;
 import com.github.omirzak.service.ImageService;
 import com.github.omirzak.service.ImageServiceImpl;
+import com.github.omirzak.service.LocalFaceDetector;
+import com.github.omirzak.service.MemoryBudget;
 import com.github.omirzak.service.PhotoSizeRepository;
+import com.github.omirzak.service.RekognitionFaceDetector;
 import com.github.omirzak.service.RekognitionService;
+import com.github.omirzak.service.SourceCache;
+import com.github.omirzak.service.SourceLoader;
+import com.github.omirzak.service.StorageService;
+import org.jetbrains.annotations.Nullable;
+import software.amazon.awssdk.awscore.retry.AwsRetryStrategy;
 import software.amazon.awssdk.http.apache.ApacheHttpClient;
 import software.amazon.awssdk.services.rekognition.RekognitionClient;
+import software.amazon.awssdk.services.rekognition.RekognitionClientBuilder;
+import software.amazon.awssdk.services.rekognition.model.Attribute;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.S3Configuration;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * The module containing all dependencies required by the {@link CropLambda}.
  */
@@ -23,50 +56,181 @@ public class DependencyFactory {
     private static ImageService imageService;
     private static ObjectMapper objectMapper;
     private static PhotoSizeRepository photoSizeRepository;
+    private static StorageService storageService;
+    private static CropService cropService;
+    private static ExecutorService renderExecutor;
+    private static ExecutorService ioExecutor;
+    private static FaceDetectionCache faceDetectionCache;
+    private static SourceLoader sourceLoader;
+    private static SourceCache sourceCache;
+    private static HttpClient httpClient;
+    private static BufferPool bufferPool;
+    private static AdmissionControl admissionControl;
+    private static ConcurrencyLimiter rekognitionLimiter;
+    private static CpuPermits cpuPermits;
+    private static BackfillWorker backfillWorker;
+    private static ExecutorService backfillExecutor;
 
     private DependencyFactory() {
     }
 
+    /**
+     * Replaces the AWS clients with the given ones, for runs without AWS such as the AppCDS training run. Must be
+     * called before anything that uses them is built.
+     */
+    public static void useClients(S3Client s3Client, RekognitionClient rekognitionClient) {
+        DependencyFactory.s3Client = s3Client;
+        DependencyFactory.rekognitionClient = rekognitionClient;
+    }
+
+    /**
+     * Replaces the presigner with the given one, such as one with static credentials for runs without AWS. Must be
+     * called before anything that uses it is built.
+     */
+    public static void usePresigner(S3Presigner s3Presigner) {
+        DependencyFactory.s3Presigner = s3Presigner;
+    }
+
+    /**
+     * Talks to S3_ENDPOINT instead of S3 when set, for example a local S3-compatible server, which is addressed
+     * with path-style URLs since such servers rarely resolve bucket subdomains.
+     */
     public static S3Client s3Client() {
         if (s3Client == null) {
-            s3Client = S3Client.builder()
-                    .httpClientBuilder(ApacheHttpClient.builder())
-                    .build();
+            S3ClientBuilder builder = S3Client.builder()
+                    .httpClientBuilder(ApacheHttpClient.builder());
+            URI endpoint = endpoint("S3_ENDPOINT");
+            if (endpoint != null) {
+                builder.endpointOverride(endpoint).forcePathStyle(true);
+            }
+            s3Client = builder.build();
         }
         return s3Client;
     }
 
+    /**
+     * Talks to REKOGNITION_ENDPOINT instead of Rekognition when set. Retries are left to the
+     * {@link RekognitionFaceDetector}, so that its concurrency limiter sees every throttle.
+     */
     private static RekognitionClient rekognitionClient() {
         if (rekognitionClient == null) {
-            rekognitionClient = RekognitionClient.builder()
+            RekognitionClientBuilder builder = RekognitionClient.builder()
                     .httpClientBuilder(ApacheHttpClient.builder())
-                    .build();
+                    .overrideConfiguration(c -> c.retryStrategy(AwsRetryStrategy.doNotRetry()));
+            URI endpoint = endpoint("REKOGNITION_ENDPOINT");
+            if (endpoint != null) {
+                builder.endpointOverride(endpoint);
+            }
+            rekognitionClient = builder.build();
         }
         return rekognitionClient;
     }
 
+    /**
+     * Presigns URLs of S3_ENDPOINT when set, like {@link #s3Client()}.
+     */
     public static S3Presigner s3Presigner() {
         if (s3Presigner == null) {
-            s3Presigner = S3Presigner.builder()
-                    .build();
+            S3Presigner.Builder builder = S3Presigner.builder();
+            URI endpoint = endpoint("S3_ENDPOINT");
+            if (endpoint != null) {
+                builder.endpointOverride(endpoint)
+                        .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build());
+            }
+            s3Presigner = builder.build();
         }
         return s3Presigner;
     }
 
+    @Nullable
+    private static URI endpoint(String name) {
+        String endpoint = System.getenv(name);
+        return endpoint == null || endpoint.isBlank() ? null : URI.create(endpoint);
+    }
+
+    /**
+     * Detects faces with the FACE_DETECTOR mode (default auto) unless a request selects one: rekognition, local, or
+     * auto, which falls back to the local detector when Rekognition does not answer within
+     * REKOGNITION_FALLBACK_MS (default 3000) or fails. The local detector analyzes the source at
+     * LOCAL_DETECTOR_SIZE (default 256) pixels on the longest side. Rekognition is asked for the
+     * REKOGNITION_ATTRIBUTES: default (the default), which includes the bounding boxes, or all.
+     */
     public static RekognitionService rekognitionService() {
         if (rekognitionService == null) {
-            rekognitionService = new RekognitionService(rekognitionClient(), imageService());
+            FaceDetectionMode defaultMode = FaceDetectionMode.parse(System.getenv().getOrDefault("FACE_DETECTOR", "auto"));
+            long fallbackMillis = Long.parseLong(System.getenv().getOrDefault("REKOGNITION_FALLBACK_MS", "3000"));
+            Attribute attributes = rekognitionAttributes(System.getenv().getOrDefault("REKOGNITION_ATTRIBUTES", "default"));
+            RekognitionFaceDetector rekognitionFaceDetector = new RekognitionFaceDetector(
+                    rekognitionClient(), rekognitionLimiter(), detectionImageEncoder(), attributes, cpuPermits());
+            rekognitionService = new RekognitionService(rekognitionFaceDetector, localFaceDetector(),
+                    faceDetectionCache(), ioExecutor(), Duration.ofMillis(fallbackMillis), defaultMode);
         }
         return rekognitionService;
     }
 
+    private static Attribute rekognitionAttributes(String attributes) {
+        return switch (attributes.toLowerCase()) {
+            case "default" -> Attribute.DEFAULT;
+            case "all" -> Attribute.ALL;
+            default -> throw new IllegalArgumentException("Unknown REKOGNITION_ATTRIBUTES: " + attributes);
+        };
+    }
+
+    /**
+     * Sends images to Rekognition with at most REKOGNITION_MAX_SIDE (default 1600) pixels on the longest side and
+     * at most REKOGNITION_MAX_IMAGE_BYTES (default 5000000, the Rekognition limit for inline images).
+     */
+    public static DetectionImageEncoder detectionImageEncoder() {
+        int maxSide = Integer.parseInt(System.getenv().getOrDefault("REKOGNITION_MAX_SIDE", "1600"));
+        int maxBytes = Integer.parseInt(System.getenv().getOrDefault("REKOGNITION_MAX_IMAGE_BYTES", "5000000"));
+        return new DetectionImageEncoder(new ImageEncoder(bufferPool()), maxSide, maxBytes);
+    }
+
+    public static LocalFaceDetector localFaceDetector() {
+        int analysisSize = Integer.parseInt(System.getenv().getOrDefault("LOCAL_DETECTOR_SIZE", "256"));
+        return new LocalFaceDetector(analysisSize, cpuPermits());
+    }
+
+    /**
+     * Starts at 4 concurrent detections and adapts between 1 and REKOGNITION_MAX_CONCURRENCY (default 16). Callers
+     * wait up to REKOGNITION_MAX_WAIT_MS (default 5000) for a slot.
+     */
+    public static ConcurrencyLimiter rekognitionLimiter() {
+        if (rekognitionLimiter == null) {
+            int maxConcurrency = Integer.parseInt(System.getenv().getOrDefault("REKOGNITION_MAX_CONCURRENCY", "16"));
+            long maxWaitMillis = Long.parseLong(System.getenv().getOrDefault("REKOGNITION_MAX_WAIT_MS", "5000"));
+            rekognitionLimiter = new ConcurrencyLimiter("Rekognition", Math.min(4, maxConcurrency), 1, maxConcurrency,
+                    Duration.ofMillis(maxWaitMillis));
+        }
+        return rekognitionLimiter;
+    }
+
     public static ImageService imageService() {
         if (imageService == null) {
-            imageService = new ImageServiceImpl();
+            imageService = new ImageServiceImpl(new ImageEncoder(bufferPool()), resampler());
         }
         return imageService;
     }
 
+    /**
+     * Selects the resize strategy from RESIZE_STRATEGY: lanczos3 (default), mitchell or graphics2d. Every resize
+     * runs under one {@link CpuPermits} permit, so it runs on the calling thread only and requests get their
+     * parallelism from rendering several outputs at once instead. graphics2d cannot resize in strips, so regions
+     * above MAX_DECODED_MEGAPIXELS are decoded whole with it.
+     */
+    public static Resampler resampler() {
+        return resampler(System.getenv().getOrDefault("RESIZE_STRATEGY", "lanczos3"));
+    }
+
+    public static Resampler resampler(String strategy) {
+        return switch (strategy.toLowerCase()) {
+            case "lanczos3" -> new SeparableResampler(SeparableResampler.Kernel.LANCZOS3, 1);
+            case "mitchell" -> new SeparableResampler(SeparableResampler.Kernel.MITCHELL, 1);
+            case "graphics2d" -> new Graphics2DResampler();
+            default -> throw new IllegalArgumentException("Unknown RESIZE_STRATEGY: " + strategy);
+        };
+    }
+
     public static ObjectMapper objectMapper() {
         if (objectMapper == null) {
             objectMapper = new ObjectMapper();
@@ -82,4 +246,169 @@ public class DependencyFactory {
         }
         return photoSizeRepository;
     }
+
+    /**
+     * Streams large outputs to S3 in parts of UPLOAD_PART_MB (default 8, at least 5).
+     */
+    public static StorageService storageService() {
+        if (storageService == null) {
+            int partSizeMb = Integer.parseInt(System.getenv().getOrDefault("UPLOAD_PART_MB", "8"));
+            storageService = new StorageService(s3Client(), s3Presigner(), bucketName(), bufferPool(),
+                    partSizeMb * 1024 * 1024);
+        }
+        return storageService;
+    }
+
+    public static FaceDetectionCache faceDetectionCache() {
+        if (faceDetectionCache == null) {
+            int capacity = Integer.parseInt(System.getenv().getOrDefault("FACE_CACHE_CAPACITY", "256"));
+            faceDetectionCache = new FaceDetectionCache(s3Client(), bucketName(), objectMapper(), capacity);
+        }
+        return faceDetectionCache;
+    }
+
+    /**
+     * Keeps up to BUFFER_POOL_MB (default 32) of idle encode buffers for reuse across requests.
+     */
+    public static BufferPool bufferPool() {
+        if (bufferPool == null) {
+            long capacityMb = Long.parseLong(System.getenv().getOrDefault("BUFFER_POOL_MB", "32"));
+            bufferPool = new BufferPool(capacityMb * 1024 * 1024);
+        }
+        return bufferPool;
+    }
+
+    /**
+     * Rejects sources larger than MAX_SOURCE_MB (default 50) before downloading them.
+     */
+    public static SourceLoader sourceLoader() {
+        if (sourceLoader == null) {
+            long maxSourceMb = Long.parseLong(System.getenv().getOrDefault("MAX_SOURCE_MB", "50"));
+            sourceLoader = new SourceLoader(s3Client(), httpClient(), sourceCache(), maxSourceMb * 1024 * 1024);
+        }
+        return sourceLoader;
+    }
+
+    /**
+     * Keeps up to SOURCE_CACHE_MB (default 64) of recently fetched sources for conditional revalidation.
+     */
+    public static SourceCache sourceCache() {
+        if (sourceCache == null) {
+            long capacityMb = Long.parseLong(System.getenv().getOrDefault("SOURCE_CACHE_MB", "64"));
+            sourceCache = new SourceCache(capacityMb * 1024 * 1024);
+        }
+        return sourceCache;
+    }
+
+    /**
+     * Shared client for HTTP sources, reusing connections across requests and invocations.
+     */
+    public static HttpClient httpClient() {
+        if (httpClient == null) {
+            httpClient = HttpClient.newBuilder()
+                    .connectTimeout(Duration.ofSeconds(3))
+                    .followRedirects(HttpClient.Redirect.NORMAL)
+                    .build();
+        }
+        return httpClient;
+    }
+
+    public static CropService cropService() {
+        if (cropService == null) {
+            cropService = new CropService(sourceLoader(), imageService(), rekognitionService(), storageService(),
+                    renderExecutor(), ioExecutor(), bufferPool(), admissionControl(), cpuPermits());
+        }
+        return cropService;
+    }
+
+    /**
+     * Publishes the metrics of every message under METRICS_NAMESPACE (default CropLambda), like the API does.
+     */
+    public static BackfillWorker backfillWorker() {
+        if (backfillWorker == null) {
+            CropService cropService = cropService();
+            backfillWorker = new BackfillWorker(objectMapper(), photoSizeRepository(), cropService::storeAll,
+                    storageService(), backfillExecutor(),
+                    System.getenv().getOrDefault("METRICS_NAMESPACE", "CropLambda"));
+        }
+        return backfillWorker;
+    }
+
+    /**
+     * Backfill messages, BACKFILL_CONCURRENCY (default 4) at a time. The threads mostly wait for the I/O and render
+     * executors, so this bounds the sources in flight rather than the CPU use.
+     */
+    public static ExecutorService backfillExecutor() {
+        if (backfillExecutor == null) {
+            int concurrency = Integer.parseInt(System.getenv().getOrDefault("BACKFILL_CONCURRENCY", "4"));
+            AtomicInteger threadCount = new AtomicInteger();
+            backfillExecutor = Executors.newFixedThreadPool(concurrency, runnable -> {
+                Thread thread = new Thread(runnable, "crop-backfill-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return backfillExecutor;
+    }
+
+    /**
+     * Runs at most CPU_PERMITS (default one per available core) decodes, resizes and encodes at once.
+     */
+    public static CpuPermits cpuPermits() {
+        if (cpuPermits == null) {
+            int permits = Integer.parseInt(System.getenv().getOrDefault(
+                    "CPU_PERMITS", String.valueOf(Runtime.getRuntime().availableProcessors())));
+            cpuPermits = new CpuPermits(permits);
+        }
+        return cpuPermits;
+    }
+
+    /**
+     * Rejects sources above MAX_SOURCE_MEGAPIXELS (default 150), decodes at most MAX_DECODED_MEGAPIXELS (default
+     * 40) per request, and bounds the rasters of all in-flight requests to MEMORY_BUDGET_MB, by default 60% of
+     * the maximum heap.
+     */
+    public static AdmissionControl admissionControl() {
+        if (admissionControl == null) {
+            long maxSourceMegapixels = Long.parseLong(System.getenv().getOrDefault("MAX_SOURCE_MEGAPIXELS", "150"));
+            long maxDecodedMegapixels = Long.parseLong(System.getenv().getOrDefault("MAX_DECODED_MEGAPIXELS", "40"));
+            String memoryBudgetMb = System.getenv("MEMORY_BUDGET_MB");
+            long memoryBudgetBytes = memoryBudgetMb != null
+                    ? Long.parseLong(memoryBudgetMb) * 1024 * 1024
+                    : Runtime.getRuntime().maxMemory() * 6 / 10;
+            admissionControl = new AdmissionControl(maxSourceMegapixels * 1_000_000,
+                    maxDecodedMegapixels * 1_000_000, new MemoryBudget(memoryBudgetBytes));
+        }
+        return admissionControl;
+    }
+
+    /**
+     * CPU-bound crop, resize and encode work, one thread per available core.
+     */
+    public static ExecutorService renderExecutor() {
+        if (renderExecutor == null) {
+            AtomicInteger threadCount = new AtomicInteger();
+            renderExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+                Thread thread = new Thread(runnable, "crop-render-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return renderExecutor;
+    }
+
+    /**
+     * Blocking S3 and Rekognition calls, one virtual thread per call, so they can overlap without an async
+     * HTTP client.
+     */
+    public static ExecutorService ioExecutor() {
+        if (ioExecutor == null) {
+            ioExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        }
+        return ioExecutor;
+    }
+
+    private static String bucketName() {
+        return Objects.requireNonNull(System.getenv("BUCKET_NAME"), "BUCKET_NAME is required");
+    }
 }
@@ -0,0 +1,42 @@
+package com.github.omirzak.config;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.logging.Formatter;
+import java.util.logging.LogRecord;
+
+/**
+ * Formats each record as one line of JSON with the fields CloudWatch Logs Insights picks up: timestamp, level,
+ * logger, thread, message and, for failures, the stack trace.
+ */
+public class JsonLogFormatter extends Formatter {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    @Override
+    public String format(LogRecord record) {
+        StringWriter writer = new StringWriter(256);
+        try (JsonGenerator json = JSON_FACTORY.createGenerator(writer)) {
+            json.writeStartObject();
+            json.writeStringField("timestamp", Instant.ofEpochMilli(record.getMillis()).toString());
+            json.writeStringField("level", record.getLevel().getName());
+            json.writeStringField("logger", record.getLoggerName());
+            json.writeStringField("thread", Thread.currentThread().getName());
+            json.writeStringField("message", formatMessage(record));
+            if (record.getThrown() != null) {
+                StringWriter stackTrace = new StringWriter();
+                record.getThrown().printStackTrace(new PrintWriter(stackTrace));
+                json.writeStringField("stackTrace", stackTrace.toString());
+            }
+            json.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return writer.append(System.lineSeparator()).toString();
+    }
+}
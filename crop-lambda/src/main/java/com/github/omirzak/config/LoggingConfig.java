@@ -0,0 +1,35 @@
+package com.github.omirzak.config;
+
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Configures {@code java.util.logging} for the function: one JSON line per record on stderr, at the level set by
+ * LOG_LEVEL (default INFO). Stdout is left to the {@link com.github.omirzak.metrics.MetricsLogger} records.
+ */
+public final class LoggingConfig {
+    private static volatile boolean configured;
+
+    private LoggingConfig() {
+    }
+
+    public static synchronized void configure() {
+        if (configured) {
+            return;
+        }
+        Level level = Level.parse(System.getenv().getOrDefault("LOG_LEVEL", "INFO").toUpperCase());
+
+        Logger root = Logger.getLogger("");
+        for (Handler handler : root.getHandlers()) {
+            root.removeHandler(handler);
+        }
+        ConsoleHandler handler = new ConsoleHandler();
+        handler.setFormatter(new JsonLogFormatter());
+        handler.setLevel(level);
+        root.addHandler(handler);
+        root.setLevel(level);
+        configured = true;
+    }
+}
@@ -0,0 +1,169 @@
+package com.github.omirzak.config;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.omirzak.dto.BatchCropRequest;
+import com.github.omirzak.dto.BatchCropResponse;
+import com.github.omirzak.dto.CropRequest;
+import com.github.omirzak.dto.CropResponse;
+import com.github.omirzak.dto.FaceCoordinate;
+import com.github.omirzak.dto.PhotoSizeDTO;
+import com.github.omirzak.image.DecodePlan;
+import com.github.omirzak.image.DecodePlanner;
+import com.github.omirzak.image.SourceImage;
+import com.github.omirzak.service.ImageService;
+import org.crac.Context;
+import org.crac.Core;
+import org.crac.Resource;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Primes the function before a SnapStart snapshot is taken, so restored instances do not pay for class loading,
+ * client construction, ImageIO plugin scanning, Java2D initialization or interpreted image code on their first
+ * request.
+ * <p>
+ * Before the checkpoint every client is built and a small synthetic image is decoded, cropped, resized and
+ * encoded for each source format. Pooled HTTP connections do not survive a snapshot, so after restore a cheap S3
+ * request opens a fresh one. Without a CRaC-capable runtime the hooks are never called and nothing is primed.
+ */
+public class PrimingResource implements Resource {
+    private static final Logger logger = Logger.getLogger(PrimingResource.class.getName());
+
+    private static final List<String> SOURCE_FORMATS = List.of("jpg", "png", "gif");
+    private static final int PRIMING_ITERATIONS = 5;
+    private static final int PRIMING_WIDTH = 320;
+    private static final int PRIMING_HEIGHT = 240;
+    private static final String CONNECTION_CHECK_KEY = "priming/connection-check";
+
+    /**
+     * The global CRaC context only holds resources weakly, so the registered instance is kept here.
+     */
+    private static PrimingResource registered;
+
+    private PrimingResource() {
+    }
+
+    public static synchronized void register() {
+        if (registered == null) {
+            registered = new PrimingResource();
+            Core.getGlobalContext().register(registered);
+        }
+    }
+
+    @Override
+    public void beforeCheckpoint(Context<? extends Resource> context) {
+        StartupTimings.time("clients", () -> {
+            DependencyFactory.cropService();
+            DependencyFactory.s3Presigner();
+            DependencyFactory.photoSizeRepository();
+        });
+        StartupTimings.time("imageio", () -> {
+            ImageIO.scanForPlugins();
+            GraphicsEnvironment.getLocalGraphicsEnvironment();
+        });
+        for (String format : SOURCE_FORMATS) {
+            StartupTimings.time("pipeline-" + format, () -> primePipeline(format));
+        }
+        StartupTimings.time("jackson", PrimingResource::primeJackson);
+        StartupTimings.time("s3", PrimingResource::openConnection);
+        StartupTimings.logBreakdown("checkpoint");
+    }
+
+    @Override
+    public void afterRestore(Context<? extends Resource> context) {
+        StartupTimings.time("s3", PrimingResource::openConnection);
+        StartupTimings.logBreakdown("restore");
+    }
+
+    private static void primePipeline(String sourceFormat) {
+        ImageService imageService = DependencyFactory.imageService();
+        byte[] sourceBytes = syntheticImage(sourceFormat);
+        List<FaceCoordinate> faceCoordinates = List.of(new FaceCoordinate(120, 60, 80, 100));
+        List<PhotoSizeDTO> targets = List.of(
+                primingSize(96, 96, null, "jpg"),
+                primingSize(160, 90, 4 * 1024, "jpg"),
+                primingSize(64, 64, null, "png"));
+
+        for (int i = 0; i < PRIMING_ITERATIONS; i++) {
+            SourceImage sourceImage = SourceImage.ofBytes("priming." + sourceFormat, sourceBytes);
+            sourceImage.contentHash();
+            DecodePlan plan = DecodePlanner.plan(sourceImage.dimension(), faceCoordinates, targets);
+            BufferedImage faceRegion = sourceImage.decodeRegion(plan);
+            for (PhotoSizeDTO target : targets) {
+                imageService.renderSignature(target);
+                imageService.encodeImage(imageService.cropToTarget(faceRegion, target), target).release();
+            }
+        }
+    }
+
+    private static byte[] syntheticImage(String format) {
+        BufferedImage image = new BufferedImage(PRIMING_WIDTH, PRIMING_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setPaint(new GradientPaint(0, 0, Color.DARK_GRAY, PRIMING_WIDTH, PRIMING_HEIGHT, Color.ORANGE));
+            graphics.fillRect(0, 0, PRIMING_WIDTH, PRIMING_HEIGHT);
+            graphics.setColor(Color.PINK);
+            graphics.fillOval(120, 60, 80, 100);
+        } finally {
+            graphics.dispose();
+        }
+
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            if (!ImageIO.write(image, format, outputStream)) {
+                throw new IllegalStateException("No ImageIO writer for " + format);
+            }
+            return outputStream.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static PhotoSizeDTO primingSize(int width, int height, Integer sizeInBytes, String format) {
+        return new PhotoSizeDTO.Builder()
+                .type("Priming")
+                .platform("Priming")
+                .width(width)
+                .height(height)
+                .sizeInBytes(sizeInBytes)
+                .format(format)
+                .build();
+    }
+
+    private static void primeJackson() {
+        ObjectMapper objectMapper = DependencyFactory.objectMapper();
+        try {
+            objectMapper.readValue("{\"imageUrl\":\"https://example.com/priming.jpg\",\"id\":1}", CropRequest.class);
+            objectMapper.readValue("{\"imageUrl\":\"https://example.com/priming.jpg\",\"ids\":[1,2]}", BatchCropRequest.class);
+            objectMapper.writeValueAsString(new CropResponse("https://example.com/priming.jpg"));
+            objectMapper.writeValueAsString(new BatchCropResponse(Map.of(1, "https://example.com/priming.jpg")));
+            objectMapper.writeValueAsString(Map.of("message", "priming"));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Sends a HEAD for a key that does not exist, which loads the S3 request path and leaves a pooled connection.
+     * Failures are only logged: priming must never prevent a snapshot or a restore.
+     */
+    private static void openConnection() {
+        try {
+            DependencyFactory.storageService().exists(CONNECTION_CHECK_KEY);
+        } catch (RuntimeException e) {
+            logger.warning("Failed to open an S3 connection while priming: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.omirzak.config;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Collects how long each startup phase took and logs them as one breakdown line, so cold starts, SnapStart
+ * checkpoints and restores can be compared from the logs alone.
+ */
+public final class StartupTimings {
+    private static final Logger logger = Logger.getLogger(StartupTimings.class.getName());
+
+    private static final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+    private static final AtomicBoolean firstRequestLogged = new AtomicBoolean();
+
+    private StartupTimings() {
+    }
+
+    public static <T> T time(String phase, Supplier<T> supplier) {
+        long start = System.nanoTime();
+        try {
+            return supplier.get();
+        } finally {
+            record(phase, System.nanoTime() - start);
+        }
+    }
+
+    public static void time(String phase, Runnable runnable) {
+        time(phase, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * Logs the phases recorded since the previous breakdown together with the JVM uptime, then starts over.
+     *
+     * @param stage What the phases belong to, such as init, checkpoint or restore
+     */
+    public static void logBreakdown(String stage) {
+        StringJoiner phases = new StringJoiner(", ");
+        long totalNanos = 0;
+        synchronized (phaseNanos) {
+            for (Map.Entry<String, Long> entry : phaseNanos.entrySet()) {
+                phases.add("%s=%d ms".formatted(entry.getKey(), entry.getValue() / 1_000_000));
+                totalNanos += entry.getValue();
+            }
+            phaseNanos.clear();
+        }
+        logger.info("Startup %s took %d ms (JVM uptime %d ms): %s".formatted(
+                stage, totalNanos / 1_000_000, ManagementFactory.getRuntimeMXBean().getUptime(), phases));
+    }
+
+    /**
+     * Logs the duration of the first request served by this runtime. Later calls do nothing.
+     */
+    public static void recordFirstRequest(long durationNanos) {
+        if (firstRequestLogged.compareAndSet(false, true)) {
+            logger.info("First request took %d ms".formatted(durationNanos / 1_000_000));
+        }
+    }
+
+    private static void record(String phase, long nanos) {
+        synchronized (phaseNanos) {
+            phaseNanos.merge(phase, nanos, Long::sum);
+        }
+    }
+}
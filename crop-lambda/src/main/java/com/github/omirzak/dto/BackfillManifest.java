@@ -0,0 +1,11 @@
+package com.github.omirzak.dto;
+
+import java.util.List;
+
+/**
+ * The results of one batch of backfill messages, written to the bucket once the batch is processed.
+ *
+ * @param completedAt When the batch was processed, as an ISO-8601 instant
+ */
+public record BackfillManifest(String batchId, String completedAt, List<BackfillResult> results) {
+}
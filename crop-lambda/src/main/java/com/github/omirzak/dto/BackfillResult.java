@@ -0,0 +1,34 @@
+package com.github.omirzak.dto;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+
+/**
+ * The outcome of one backfill message, as recorded in the {@link BackfillManifest}.
+ *
+ * @param messageId  The SQS message ID
+ * @param imageUrl   The source image URL, or {@code null} when the message could not be read
+ * @param outputKeys The keys of the outputs in the bucket by photo size ID, empty unless it succeeded
+ * @param error      Why it did not succeed, or {@code null}
+ */
+public record BackfillResult(
+        String messageId,
+        @Nullable String imageUrl,
+        Status status,
+        Map<Integer, String> outputKeys,
+        @Nullable String error
+) {
+    public enum Status {
+        SUCCEEDED,
+        /**
+         * The message can never succeed, such as an invalid message or a source that is too large, so it is not
+         * retried.
+         */
+        REJECTED,
+        /**
+         * The message failed in a way that may pass, such as throttling, and is returned to the queue.
+         */
+        FAILED
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.omirzak.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.github.omirzak.util.ImageUrlUtil;
+
+import java.util.List;
+
+public class BatchCropRequest {
+    private String imageUrl;
+    private List<Integer> ids;
+    private boolean all;
+    private FaceDetectionMode faceDetector;
+
+    public BatchCropRequest() {
+    }
+
+    @JsonCreator
+    public BatchCropRequest(
+            @JsonProperty(value = "imageUrl", required = true) String imageUrl,
+            @JsonProperty(value = "ids") List<Integer> ids,
+            @JsonProperty(value = "all") Boolean all,
+            @JsonProperty(value = "faceDetector") FaceDetectionMode faceDetector
+    ) {
+        if (imageUrl == null || imageUrl.trim().isEmpty()) {
+            throw new IllegalArgumentException("imageUrl cannot be null or empty");
+        }
+        if (!ImageUrlUtil.isSupported(imageUrl)) {
+            throw new IllegalArgumentException("imageUrl must be an http(s) URL or an s3://bucket/key URI");
+        }
+        boolean allSizes = Boolean.TRUE.equals(all);
+        boolean hasIds = ids != null && !ids.isEmpty();
+        if (allSizes == hasIds) {
+            throw new IllegalArgumentException("exactly one of ids or all must be provided");
+        }
+        if (hasIds && ids.contains(null)) {
+            throw new IllegalArgumentException("ids cannot contain null");
+        }
+        this.imageUrl = imageUrl;
+        this.ids = hasIds ? List.copyOf(ids) : null;
+        this.all = allSizes;
+        this.faceDetector = faceDetector;
+    }
+
+    public String getImageUrl() {
+        return imageUrl;
+    }
+
+    public void setImageUrl(String imageUrl) {
+        this.imageUrl = imageUrl;
+    }
+
+    public List<Integer> getIds() {
+        return ids;
+    }
+
+    public void setIds(List<Integer> ids) {
+        this.ids = ids;
+    }
+
+    public boolean isAll() {
+        return all;
+    }
+
+    public void setAll(boolean all) {
+        this.all = all;
+    }
+
+    /**
+     * @return The face detector the request selected, or {@code null} for the default one
+     */
+    public FaceDetectionMode getFaceDetector() {
+        return faceDetector;
+    }
+
+    public void setFaceDetector(FaceDetectionMode faceDetector) {
+        this.faceDetector = faceDetector;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchCropRequest{" +
+                "imageUrl='" + imageUrl + '\'' +
+                ", ids=" + ids +
+                ", all=" + all +
+                ", faceDetector=" + faceDetector +
+                '}';
+    }
+}
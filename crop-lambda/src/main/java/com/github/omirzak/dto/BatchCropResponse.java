@@ -0,0 +1,29 @@
+package com.github.omirzak.dto;
+
+import java.util.Map;
+
+public class BatchCropResponse {
+    private Map<Integer, String> imageUrls;
+
+    public BatchCropResponse() {
+    }
+
+    public BatchCropResponse(Map<Integer, String> imageUrls) {
+        this.imageUrls = imageUrls;
+    }
+
+    public Map<Integer, String> getImageUrls() {
+        return imageUrls;
+    }
+
+    public void setImageUrls(Map<Integer, String> imageUrls) {
+        this.imageUrls = imageUrls;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchCropResponse{" +
+                "imageUrls=" + imageUrls +
+                '}';
+    }
+}
@@ -2,10 +2,12 @@ package com.github.omirzak.dto;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.github.omirzak.util.ImageUrlUtil;
 
 public class CropRequest {
     private String imageUrl;
     private Integer id;
+    private FaceDetectionMode faceDetector;
 
     public CropRequest() {
     }
@@ -17,16 +19,21 @@ public class CropRequest {
     @JsonCreator
     public CropRequest(
             @JsonProperty(value = "imageUrl", required = true) String imageUrl,
-            @JsonProperty(value = "id", required = true) Integer id
+            @JsonProperty(value = "id", required = true) Integer id,
+            @JsonProperty(value = "faceDetector") FaceDetectionMode faceDetector
     ) {
         if (imageUrl == null || imageUrl.trim().isEmpty()) {
             throw new IllegalArgumentException("imageUrl cannot be null or empty");
         }
+        if (!ImageUrlUtil.isSupported(imageUrl)) {
+            throw new IllegalArgumentException("imageUrl must be an http(s) URL or an s3://bucket/key URI");
+        }
         if (id == null) {
             throw new IllegalArgumentException("id cannot be null");
         }
         this.imageUrl = imageUrl;
         this.id = id;
+        this.faceDetector = faceDetector;
     }
 
     public String getImageUrl() {
@@ -45,11 +52,23 @@ public class CropRequest {
         this.id = id;
     }
 
+    /**
+     * @return The face detector the request selected, or {@code null} for the default one
+     */
+    public FaceDetectionMode getFaceDetector() {
+        return faceDetector;
+    }
+
+    public void setFaceDetector(FaceDetectionMode faceDetector) {
+        this.faceDetector = faceDetector;
+    }
+
     @Override
     public String toString() {
         return "CropRequest{" +
                 "imageUrl='" + imageUrl + '\'' +
                 ", id=" + id +
+                ", faceDetector=" + faceDetector +
                 '}';
     }
 }
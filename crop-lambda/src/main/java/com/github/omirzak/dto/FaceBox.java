@@ -0,0 +1,7 @@
+package com.github.omirzak.dto;
+
+/**
+ * Face bounding box in coordinates normalized to the image size, each value in the range [0, 1].
+ */
+public record FaceBox(float left, float top, float width, float height) {
+}
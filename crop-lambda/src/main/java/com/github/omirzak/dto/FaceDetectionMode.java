@@ -0,0 +1,35 @@
+package com.github.omirzak.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+import java.util.Locale;
+
+/**
+ * Selects the face detector a crop uses.
+ */
+public enum FaceDetectionMode {
+    /**
+     * Amazon Rekognition only.
+     */
+    REKOGNITION,
+    /**
+     * The in-process detector only, which needs no network calls.
+     */
+    LOCAL,
+    /**
+     * Rekognition, falling back to the in-process detector when Rekognition is slow, throttled or unavailable.
+     */
+    AUTO;
+
+    /**
+     * Parses a mode name case-insensitively, as used in requests and the FACE_DETECTOR variable.
+     */
+    @JsonCreator
+    public static FaceDetectionMode parse(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("faceDetector must be one of rekognition, local or auto");
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.github.omirzak.image;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of byte arrays in power-of-two size classes, for encoded images and other buffers that are filled and
+ * handed off once per request.
+ * <p>
+ * Arrays between {@link #MIN_CLASS_BYTES} and {@link #MAX_CLASS_BYTES} are taken from and returned to their size
+ * class; larger requests are allocated exactly and never pooled. The idle arrays across all classes are bounded
+ * by the capacity, so a pool with no capacity never retains anything.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class BufferPool {
+    static final int MIN_CLASS_BYTES = 64 * 1024;
+    static final int MAX_CLASS_BYTES = 64 * 1024 * 1024;
+
+    private static final int MIN_CLASS_SHIFT = Integer.numberOfTrailingZeros(MIN_CLASS_BYTES);
+    private static final int CLASS_COUNT = Integer.numberOfTrailingZeros(MAX_CLASS_BYTES) - MIN_CLASS_SHIFT + 1;
+
+    private final long capacityBytes;
+    private final ArrayDeque<byte[]>[] idle;
+    private long idleBytes;
+
+    private final AtomicLong acquisitions = new AtomicLong();
+    private final AtomicLong reuses = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    public BufferPool(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+        this.idle = new ArrayDeque[CLASS_COUNT];
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            idle[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Returns an array of at least the given length. Its contents are undefined.
+     */
+    public byte[] acquire(int minLength) {
+        acquisitions.incrementAndGet();
+        int sizeClass = sizeClass(minLength);
+        if (sizeClass < 0) {
+            allocatedBytes.addAndGet(minLength);
+            return new byte[minLength];
+        }
+
+        synchronized (this) {
+            byte[] buffer = idle[sizeClass].pollLast();
+            if (buffer != null) {
+                idleBytes -= buffer.length;
+                reuses.incrementAndGet();
+                return buffer;
+            }
+        }
+        int length = MIN_CLASS_BYTES << sizeClass;
+        allocatedBytes.addAndGet(length);
+        return new byte[length];
+    }
+
+    /**
+     * Returns an array obtained from {@link #acquire(int)}. The caller must not use it afterwards.
+     */
+    public void release(byte[] buffer) {
+        int sizeClass = sizeClass(buffer.length);
+        if (sizeClass < 0 || buffer.length != MIN_CLASS_BYTES << sizeClass) {
+            return;
+        }
+        synchronized (this) {
+            if (idleBytes + buffer.length <= capacityBytes) {
+                idle[sizeClass].addLast(buffer);
+                idleBytes += buffer.length;
+            }
+        }
+    }
+
+    public Stats stats() {
+        synchronized (this) {
+            return new Stats(acquisitions.get(), reuses.get(), allocatedBytes.get(), idleBytes);
+        }
+    }
+
+    /**
+     * @return The index of the smallest class holding the given length, or -1 if it is too large to pool
+     */
+    private static int sizeClass(int length) {
+        if (length > MAX_CLASS_BYTES) {
+            return -1;
+        }
+        if (length <= MIN_CLASS_BYTES) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(length - 1) - MIN_CLASS_SHIFT;
+    }
+
+    /**
+     * @param acquisitions   The number of arrays handed out
+     * @param reuses         How many of those came from the pool instead of being allocated
+     * @param allocatedBytes The total size of the arrays allocated
+     * @param idleBytes      The total size of the arrays currently held by the pool
+     */
+    public record Stats(long acquisitions, long reuses, long allocatedBytes, long idleBytes) {
+    }
+}
@@ -0,0 +1,46 @@
+package com.github.omirzak.image;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * Seekable {@link javax.imageio.stream.ImageInputStream} reading a byte array in place.
+ * <p>
+ * Wrapping a {@code ByteArrayInputStream} in a {@code MemoryCacheImageInputStream}, or letting
+ * {@code ImageIO.createImageInputStream} pick a cache, copies the whole source into the cache as it is read.
+ */
+public class ByteArrayImageInputStream extends ImageInputStreamImpl {
+    private final byte[] data;
+    private final int length;
+
+    public ByteArrayImageInputStream(byte[] data) {
+        this(data, data.length);
+    }
+
+    public ByteArrayImageInputStream(byte[] data, int length) {
+        this.data = data;
+        this.length = length;
+    }
+
+    @Override
+    public int read() {
+        bitOffset = 0;
+        return streamPos < length ? data[(int) streamPos++] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        bitOffset = 0;
+        if (streamPos >= length) {
+            return -1;
+        }
+        int count = (int) Math.min(len, length - streamPos);
+        System.arraycopy(data, (int) streamPos, b, off, count);
+        streamPos += count;
+        return count;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+}
@@ -0,0 +1,26 @@
+package com.github.omirzak.image;
+
+import java.awt.Rectangle;
+
+/**
+ * Describes which part of the source to decode and at what resolution.
+ *
+ * @param sourceRegion The region to decode, in source image coordinates
+ * @param subsampling  Decode every n-th pixel in both directions
+ */
+public record DecodePlan(Rectangle sourceRegion, int subsampling) {
+    public int decodedWidth() {
+        return (sourceRegion.width + subsampling - 1) / subsampling;
+    }
+
+    public int decodedHeight() {
+        return (sourceRegion.height + subsampling - 1) / subsampling;
+    }
+
+    /**
+     * @return The number of pixels in the decoded raster
+     */
+    public long decodedPixels() {
+        return (long) decodedWidth() * decodedHeight();
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.omirzak.image;
+
+import com.github.omirzak.dto.FaceCoordinate;
+import com.github.omirzak.dto.ImageDimension;
+import com.github.omirzak.dto.PhotoSizeDTO;
+import com.github.omirzak.util.AspectRatioUtil;
+import com.github.omirzak.util.CropRegionUtil;
+
+import java.awt.Rectangle;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Plans the cheapest decode that still serves every target once faces and target sizes are known.
+ * <p>
+ * Only the region centered on the faces is decoded, since everything outside it is cropped away anyway.
+ * The subsampling is the coarsest one that keeps every target's aspect-ratio crop at least
+ * {@link #MIN_OVERSAMPLING} times larger than the target size. Subsampling drops pixels without filtering,
+ * so this headroom leaves the final resize enough samples to low-pass filter and avoid aliasing.
+ */
+public final class DecodePlanner {
+    static final int MIN_OVERSAMPLING = 2;
+
+    private DecodePlanner() {
+    }
+
+    /**
+     * Plans the decode for a set of targets rendered from the same faces.
+     *
+     * @param dimension       The source image dimensions
+     * @param faceCoordinates The faces in absolute source coordinates
+     * @param targets         The target sizes that will be rendered from the decoded region
+     * @return The region and subsampling to decode
+     */
+    public static DecodePlan plan(ImageDimension dimension, List<FaceCoordinate> faceCoordinates, Collection<PhotoSizeDTO> targets) {
+        Rectangle faceRegion = CropRegionUtil.faceRegion(dimension.width(), dimension.height(), faceCoordinates);
+
+        int subsampling = Integer.MAX_VALUE;
+        for (PhotoSizeDTO target : targets) {
+            double[] aspectRatio = AspectRatioUtil.calculateAspectRatio(target.width(), target.height());
+            Rectangle targetRegion = CropRegionUtil.aspectRatioRegion(
+                    faceRegion.width, faceRegion.height, aspectRatio[0], aspectRatio[1]);
+            int horizontal = targetRegion.width / (target.width() * MIN_OVERSAMPLING);
+            int vertical = targetRegion.height / (target.height() * MIN_OVERSAMPLING);
+            subsampling = Math.min(subsampling, Math.min(horizontal, vertical));
+        }
+
+        return new DecodePlan(faceRegion, Math.max(1, subsampling));
+    }
+}
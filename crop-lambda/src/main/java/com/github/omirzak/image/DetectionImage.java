@@ -0,0 +1,28 @@
+package com.github.omirzak.image;
+
+import com.github.omirzak.dto.FaceBox;
+
+/**
+ * An encoded image sent to face detection in place of the source.
+ * <p>
+ * Subsampled decodes round their size up, so the image may cover slightly more than the source; the coverage is
+ * the extent of the image in source widths and heights, used to map normalized boxes back onto the source.
+ *
+ * @param bytes          The encoded JPEG or PNG
+ * @param width          The image width in pixels
+ * @param height         The image height in pixels
+ * @param widthCoverage  The width of the image in source widths, at least 1
+ * @param heightCoverage The height of the image in source heights, at least 1
+ */
+public record DetectionImage(byte[] bytes, int width, int height, double widthCoverage, double heightCoverage) {
+    /**
+     * Maps a box normalized to this image onto the source.
+     */
+    public FaceBox toSource(FaceBox faceBox) {
+        return new FaceBox(
+                (float) Math.min(1, faceBox.left() * widthCoverage),
+                (float) Math.min(1, faceBox.top() * heightCoverage),
+                (float) Math.min(1, faceBox.width() * widthCoverage),
+                (float) Math.min(1, faceBox.height() * heightCoverage));
+    }
+}
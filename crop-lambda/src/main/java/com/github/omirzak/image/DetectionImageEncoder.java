@@ -0,0 +1,66 @@
+package com.github.omirzak.image;
+
+import com.github.omirzak.dto.ImageDimension;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * Prepares the image sent to face detection. Detection services accept JPEG and PNG up to a byte limit, and find
+ * faces just as well at a fraction of the resolution of a typical photo, while every extra byte slows down both the
+ * upload and the detection.
+ * <p>
+ * JPEG and PNG sources within the limits are sent as they are. Anything else is decoded with subsampling, so its
+ * longest side fits {@code maxSide}, and encoded as JPEG at the default quality, or at the highest quality that
+ * fits {@code maxBytes} when that is too large.
+ */
+public class DetectionImageEncoder {
+    private final ImageEncoder imageEncoder;
+    private final int maxSide;
+    private final int maxBytes;
+
+    public DetectionImageEncoder(ImageEncoder imageEncoder, int maxSide, int maxBytes) {
+        this.imageEncoder = imageEncoder;
+        this.maxSide = maxSide;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Whether an image of the given size can be detected on without downscaling it.
+     */
+    private boolean fits(ImageDimension dimension) {
+        return Math.max(dimension.width(), dimension.height()) <= maxSide;
+    }
+
+    public DetectionImage encode(SourceImage sourceImage) {
+        ImageDimension dimension = sourceImage.dimension();
+        byte[] bytes = sourceImage.bytes();
+        if (fits(dimension) && bytes.length <= maxBytes && isJpegOrPng(bytes)) {
+            return new DetectionImage(bytes, dimension.width(), dimension.height(), 1, 1);
+        }
+
+        int longestSide = Math.max(dimension.width(), dimension.height());
+        int subsampling = Math.max(1, (longestSide + maxSide - 1) / maxSide);
+        DecodePlan plan = new DecodePlan(new Rectangle(0, 0, dimension.width(), dimension.height()), subsampling);
+        BufferedImage image = sourceImage.decodeRegion(plan);
+
+        EncodedImage encodedImage = imageEncoder.encode(image, "jpeg", null);
+        if (encodedImage.size() > maxBytes) {
+            encodedImage.release();
+            encodedImage = imageEncoder.encode(image, "jpeg", maxBytes);
+        }
+        try {
+            return new DetectionImage(encodedImage.toByteArray(), image.getWidth(), image.getHeight(),
+                    (double) image.getWidth() * subsampling / dimension.width(),
+                    (double) image.getHeight() * subsampling / dimension.height());
+        } finally {
+            encodedImage.release();
+        }
+    }
+
+    private static boolean isJpegOrPng(byte[] bytes) {
+        boolean jpeg = bytes.length >= 3 && (bytes[0] & 0xFF) == 0xFF && (bytes[1] & 0xFF) == 0xD8;
+        boolean png = bytes.length >= 8 && (bytes[0] & 0xFF) == 0x89 && bytes[1] == 'P' && bytes[2] == 'N' && bytes[3] == 'G';
+        return jpeg || png;
+    }
+}
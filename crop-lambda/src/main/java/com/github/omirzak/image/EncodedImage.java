@@ -0,0 +1,58 @@
+package com.github.omirzak.image;
+
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Result of encoding an image. The bytes live in a pooled buffer until {@link #release()} is called, after which
+ * they must not be read.
+ */
+public final class EncodedImage {
+    private final PooledImageOutputStream data;
+    private final float quality;
+    private final int iterations;
+
+    /**
+     * @param data       The stream holding the encoded bytes, owned by this instance from now on
+     * @param quality    The compression quality used, or -1 for lossless formats
+     * @param iterations The number of encode passes it took to satisfy the byte budget
+     */
+    EncodedImage(PooledImageOutputStream data, float quality, int iterations) {
+        this.data = data;
+        this.quality = quality;
+        this.iterations = iterations;
+    }
+
+    public int size() {
+        return data.size();
+    }
+
+    /**
+     * Reads the encoded bytes in place. Each call returns a new stream over the same buffer.
+     */
+    public InputStream openStream() {
+        return data.openStream();
+    }
+
+    /**
+     * Copies the encoded bytes into a new array, for callers that keep them beyond the request.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(data.array(), data.size());
+    }
+
+    public float quality() {
+        return quality;
+    }
+
+    public int iterations() {
+        return iterations;
+    }
+
+    /**
+     * Returns the buffer to its pool.
+     */
+    public void release() {
+        data.release();
+    }
+}
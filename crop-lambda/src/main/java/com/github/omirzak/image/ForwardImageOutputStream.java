@@ -0,0 +1,52 @@
+package com.github.omirzak.image;
+
+import javax.imageio.stream.ImageOutputStreamImpl;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Write-only {@link javax.imageio.stream.ImageOutputStream} that passes every byte straight through to an
+ * {@link OutputStream}, for writers that never seek back, such as the JPEG writer.
+ * <p>
+ * {@code ImageIO.createImageOutputStream} would hold the whole output in a cache until the stream is closed.
+ * Closing this stream does not close the target.
+ */
+public class ForwardImageOutputStream extends ImageOutputStreamImpl {
+    private final OutputStream output;
+
+    public ForwardImageOutputStream(OutputStream output) {
+        this.output = output;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        flushBits();
+        output.write(b);
+        streamPos++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        flushBits();
+        output.write(b, off, len);
+        streamPos += len;
+    }
+
+    @Override
+    public int read() throws IOException {
+        throw new IOException("Stream is write-only");
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        throw new IOException("Stream is write-only");
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        if (pos != streamPos) {
+            throw new IOException("Stream cannot seek from %d to %d".formatted(streamPos, pos));
+        }
+        bitOffset = 0;
+    }
+}
@@ -0,0 +1,49 @@
+package com.github.omirzak.image;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+/**
+ * Resizes through {@link Graphics2D#drawImage} with bicubic interpolation.
+ */
+public class Graphics2DResampler implements Resampler {
+
+    @Override
+    public BufferedImage resize(BufferedImage source, int targetWidth, int targetHeight) {
+        BufferedImage resizedImage = new BufferedImage(targetWidth, targetHeight, outputType(source));
+        Graphics2D g2d = resizedImage.createGraphics();
+
+        try {
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+            if (source.getColorModel().hasAlpha()) {
+                g2d.setRenderingHint(RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
+            }
+
+            g2d.drawImage(source, 0, 0, targetWidth, targetHeight, null);
+        } finally {
+            g2d.dispose();
+        }
+
+        return resizedImage;
+    }
+
+    @Override
+    public String name() {
+        return "graphics2d-bicubic";
+    }
+
+    /**
+     * {@link BufferedImage#TYPE_CUSTOM} cannot be used to create a new image, so such sources render into a
+     * standard RGB or ARGB raster instead.
+     */
+    private static int outputType(BufferedImage source) {
+        if (source.getType() != BufferedImage.TYPE_CUSTOM) {
+            return source.getType();
+        }
+        return source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+    }
+}
@@ -0,0 +1,212 @@
+package com.github.omirzak.image;
+
+import com.github.omirzak.dto.ImageDimension;
+import org.jetbrains.annotations.Nullable;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Reads image dimensions from the container headers without decoding any pixel data.
+ * <p>
+ * JPEG (SOF segment), PNG (IHDR chunk), WebP (VP8, VP8L and VP8X chunks) and GIF (logical screen descriptor)
+ * are parsed by hand. Any other format falls back to {@link ImageReader#getWidth(int)}, which also only reads
+ * the header for the readers bundled with the JDK.
+ */
+public final class ImageDimensionProbe {
+    private ImageDimensionProbe() {
+    }
+
+    /**
+     * Probes the dimensions of the encoded image held in the first {@code length} bytes of {@code data}.
+     * The data may be a prefix of the file as long as it covers the header.
+     *
+     * @return the dimensions, or {@code null} if the header could not be read
+     */
+    @Nullable
+    public static ImageDimension probe(byte[] data, int length) {
+        ImageDimension dimension;
+        if (isJpeg(data, length)) {
+            dimension = probeJpeg(data, length);
+        } else if (isPng(data, length)) {
+            dimension = probePng(data, length);
+        } else if (isWebp(data, length)) {
+            dimension = probeWebp(data, length);
+        } else if (isGif(data, length)) {
+            dimension = probeGif(data, length);
+        } else {
+            dimension = null;
+        }
+        return dimension != null ? dimension : probeWithImageReader(data, length);
+    }
+
+    @Nullable
+    public static ImageDimension probe(byte[] data) {
+        return probe(data, data.length);
+    }
+
+    /**
+     * Recognizes the formats parsed by hand from their signature.
+     *
+     * @return {@code jpeg}, {@code png}, {@code webp} or {@code gif}, or {@code null} for any other format
+     */
+    @Nullable
+    public static String formatName(byte[] data, int length) {
+        if (isJpeg(data, length)) {
+            return "jpeg";
+        } else if (isPng(data, length)) {
+            return "png";
+        } else if (isWebp(data, length)) {
+            return "webp";
+        } else if (isGif(data, length)) {
+            return "gif";
+        }
+        return null;
+    }
+
+    private static boolean isJpeg(byte[] data, int length) {
+        return length >= 3 && u8(data, 0) == 0xFF && u8(data, 1) == 0xD8 && u8(data, 2) == 0xFF;
+    }
+
+    private static boolean isPng(byte[] data, int length) {
+        return length >= 8 && u8(data, 0) == 0x89 && data[1] == 'P' && data[2] == 'N' && data[3] == 'G';
+    }
+
+    private static boolean isWebp(byte[] data, int length) {
+        return length >= 12 && data[0] == 'R' && data[1] == 'I' && data[2] == 'F' && data[3] == 'F'
+                && data[8] == 'W' && data[9] == 'E' && data[10] == 'B' && data[11] == 'P';
+    }
+
+    private static boolean isGif(byte[] data, int length) {
+        return length >= 6 && data[0] == 'G' && data[1] == 'I' && data[2] == 'F' && data[3] == '8';
+    }
+
+    @Nullable
+    private static ImageDimension probeJpeg(byte[] data, int length) {
+        int pos = 2;
+        while (pos + 1 < length) {
+            if (u8(data, pos) != 0xFF) {
+                return null;
+            }
+            int marker = u8(data, pos + 1);
+            if (marker == 0xFF) {
+                // Fill byte preceding a marker
+                pos++;
+                continue;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD8)) {
+                // Standalone markers carry no length
+                pos += 2;
+                continue;
+            }
+            if (marker == 0xD9 || marker == 0xDA || pos + 3 >= length) {
+                // End of image or start of scan reached before any frame header
+                return null;
+            }
+            int segmentLength = u16be(data, pos + 2);
+            if (isStartOfFrame(marker)) {
+                if (pos + 8 >= length) {
+                    return null;
+                }
+                int height = u16be(data, pos + 5);
+                int width = u16be(data, pos + 7);
+                return positive(width, height);
+            }
+            pos += 2 + segmentLength;
+        }
+        return null;
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    @Nullable
+    private static ImageDimension probePng(byte[] data, int length) {
+        if (length < 24 || data[12] != 'I' || data[13] != 'H' || data[14] != 'D' || data[15] != 'R') {
+            return null;
+        }
+        return positive(u32be(data, 16), u32be(data, 20));
+    }
+
+    @Nullable
+    private static ImageDimension probeWebp(byte[] data, int length) {
+        if (length < 30 || data[12] != 'V' || data[13] != 'P' || data[14] != '8') {
+            return null;
+        }
+        return switch (data[15]) {
+            case ' ' -> {
+                // Lossy: key frame start code 9D 01 2A followed by 14-bit width and height
+                if (u8(data, 23) != 0x9D || u8(data, 24) != 0x01 || u8(data, 25) != 0x2A) {
+                    yield null;
+                }
+                yield positive(u16le(data, 26) & 0x3FFF, u16le(data, 28) & 0x3FFF);
+            }
+            case 'L' -> {
+                // Lossless: signature 0x2F followed by 14-bit width-1 and height-1
+                if (u8(data, 20) != 0x2F) {
+                    yield null;
+                }
+                int bits = u8(data, 21) | u8(data, 22) << 8 | u8(data, 23) << 16 | u8(data, 24) << 24;
+                yield positive((bits & 0x3FFF) + 1, ((bits >> 14) & 0x3FFF) + 1);
+            }
+            case 'X' -> positive(u24le(data, 24) + 1, u24le(data, 27) + 1);
+            default -> null;
+        };
+    }
+
+    @Nullable
+    private static ImageDimension probeGif(byte[] data, int length) {
+        if (length < 10) {
+            return null;
+        }
+        return positive(u16le(data, 6), u16le(data, 8));
+    }
+
+    @Nullable
+    private static ImageDimension probeWithImageReader(byte[] data, int length) {
+        try (ImageInputStream input = new ByteArrayImageInputStream(data, length)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return positive(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Nullable
+    private static ImageDimension positive(int width, int height) {
+        return width > 0 && height > 0 ? new ImageDimension(width, height) : null;
+    }
+
+    private static int u8(byte[] data, int offset) {
+        return data[offset] & 0xFF;
+    }
+
+    private static int u16be(byte[] data, int offset) {
+        return u8(data, offset) << 8 | u8(data, offset + 1);
+    }
+
+    private static int u16le(byte[] data, int offset) {
+        return u8(data, offset) | u8(data, offset + 1) << 8;
+    }
+
+    private static int u24le(byte[] data, int offset) {
+        return u8(data, offset) | u8(data, offset + 1) << 8 | u8(data, offset + 2) << 16;
+    }
+
+    private static int u32be(byte[] data, int offset) {
+        return u8(data, offset) << 24 | u8(data, offset + 1) << 16 | u8(data, offset + 2) << 8 | u8(data, offset + 3);
+    }
+}
@@ -0,0 +1,229 @@
+package com.github.omirzak.image;
+
+import com.github.omirzak.service.UnprocessableImageException;
+import org.jetbrains.annotations.Nullable;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+/**
+ * Encodes rendered images, honoring an optional byte budget for lossy formats.
+ * <p>
+ * Without a budget JPEG is written at {@link #DEFAULT_QUALITY}. With a budget the encoder first tries
+ * {@link #MAX_QUALITY} and otherwise binary searches the compression quality for at most
+ * {@link #MAX_ITERATIONS} passes, keeping the highest quality that fits. Passes write straight into buffers
+ * from the {@link BufferPool}, alternating between two of them, so no pass copies or regrows its output, and
+ * share one writer.
+ */
+public class ImageEncoder {
+    static final float DEFAULT_QUALITY = 0.75f;
+    static final float MAX_QUALITY = 0.95f;
+    static final float MIN_QUALITY = 0.05f;
+    static final int MAX_ITERATIONS = 8;
+
+    private final BufferPool bufferPool;
+
+    public ImageEncoder(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Encodes the image into a pooled buffer. The caller owns the result and must {@link EncodedImage#release()}
+     * it once the bytes have been handed off.
+     *
+     * @throws UnprocessableImageException if the image does not fit the budget even at the lowest quality
+     */
+    public EncodedImage encode(BufferedImage image, String format, @Nullable Integer maxBytes) {
+        try {
+            if (isJpeg(format)) {
+                return encodeJpeg(toRgb(image), maxBytes);
+            }
+            return encodeLossless(image, format, maxBytes);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to encode the image as " + format, e);
+        }
+    }
+
+    /**
+     * Whether {@link #encodeTo} supports the target. Only JPEG is written front to back, and a byte budget needs
+     * the encoded size before the output can be committed.
+     */
+    public boolean canStream(String format, @Nullable Integer maxBytes) {
+        return isJpeg(format) && maxBytes == null;
+    }
+
+    /**
+     * Encodes the image straight into the output as it is produced, without holding the encoded image in memory.
+     * Writes the same bytes as {@link #encode} for the same target.
+     */
+    public void encodeTo(BufferedImage image, String format, OutputStream output) {
+        if (!canStream(format, null)) {
+            throw new IllegalArgumentException("Cannot stream images as " + format);
+        }
+        ImageWriter writer = writerFor("jpeg");
+        try (ForwardImageOutputStream imageOutput = new ForwardImageOutputStream(output)) {
+            writeJpeg(writer, toRgb(image), DEFAULT_QUALITY, imageOutput);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to encode the image as " + format, e);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Describes the encoder settings that affect the output bytes, for use in render signatures.
+     */
+    public String signature(String format, @Nullable Integer maxBytes) {
+        if (!isJpeg(format)) {
+            return "imageio-" + format.toLowerCase();
+        }
+        if (maxBytes == null) {
+            return "jpeg-q" + DEFAULT_QUALITY;
+        }
+        return "jpeg-budget-q%s-%s-i%d".formatted(MIN_QUALITY, MAX_QUALITY, MAX_ITERATIONS);
+    }
+
+    /**
+     * Passes write into one of two buffers: the best result so far and the candidate. A candidate that fits
+     * the budget becomes the new best by swapping the two, so no pass copies its output.
+     */
+    private EncodedImage encodeJpeg(BufferedImage image, @Nullable Integer maxBytes) throws IOException {
+        int initialCapacity = initialCapacity(image, maxBytes);
+        PooledImageOutputStream candidate = new PooledImageOutputStream(bufferPool, initialCapacity);
+        PooledImageOutputStream best = null;
+        ImageWriter writer = writerFor("jpeg");
+        try {
+            if (maxBytes == null) {
+                writeJpeg(writer, image, DEFAULT_QUALITY, candidate);
+                return new EncodedImage(candidate, DEFAULT_QUALITY, 1);
+            }
+
+            int iterations = 1;
+            writeJpeg(writer, image, MAX_QUALITY, candidate);
+            if (candidate.size() <= maxBytes) {
+                return new EncodedImage(candidate, MAX_QUALITY, iterations);
+            }
+
+            float bestQuality = -1;
+            float low = MIN_QUALITY;
+            float high = MAX_QUALITY;
+            while (iterations < MAX_ITERATIONS) {
+                float quality = iterations == 1 ? low : (low + high) / 2;
+                iterations++;
+                if (candidate == null) {
+                    candidate = new PooledImageOutputStream(bufferPool, initialCapacity);
+                }
+                candidate.clear();
+                writeJpeg(writer, image, quality, candidate);
+                if (candidate.size() <= maxBytes) {
+                    PooledImageOutputStream previous = best;
+                    best = candidate;
+                    candidate = previous;
+                    bestQuality = quality;
+                    low = quality;
+                } else if (best == null) {
+                    // Not even the lowest quality fits the budget
+                    break;
+                } else {
+                    high = quality;
+                }
+            }
+
+            if (best == null) {
+                throw new UnprocessableImageException(
+                        "Cannot encode %dx%d image within %d bytes (smallest was %d bytes)".formatted(
+                                image.getWidth(), image.getHeight(), maxBytes, candidate.size()));
+            }
+            if (candidate != null) {
+                candidate.release();
+            }
+            return new EncodedImage(best, bestQuality, iterations);
+        } catch (IOException | RuntimeException e) {
+            if (candidate != null) {
+                candidate.release();
+            }
+            if (best != null) {
+                best.release();
+            }
+            throw e;
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private static void writeJpeg(ImageWriter writer, BufferedImage image, float quality, ImageOutputStream output)
+            throws IOException {
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality);
+        writer.setOutput(output);
+        writer.write(null, new IIOImage(image, null, null), param);
+    }
+
+    private EncodedImage encodeLossless(BufferedImage image, String format, @Nullable Integer maxBytes) throws IOException {
+        PooledImageOutputStream output = new PooledImageOutputStream(bufferPool, initialCapacity(image, maxBytes));
+        try {
+            if (!ImageIO.write(image, format, output)) {
+                throw new IllegalArgumentException("No image writer available for format: " + format);
+            }
+            if (maxBytes != null && output.size() > maxBytes) {
+                throw new UnprocessableImageException(
+                        "Cannot encode %dx%d %s image within %d bytes (got %d bytes)".formatted(
+                                image.getWidth(), image.getHeight(), format, maxBytes, output.size()));
+            }
+            return new EncodedImage(output, -1, 1);
+        } catch (IOException | RuntimeException e) {
+            output.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Sizes the first buffer from the pixel count, since JPEG output rarely exceeds a quarter byte per pixel, or
+     * from the budget when that is smaller. The buffer grows if the guess is too small.
+     */
+    private static int initialCapacity(BufferedImage image, @Nullable Integer maxBytes) {
+        long estimate = Math.min((long) image.getWidth() * image.getHeight() / 4, BufferPool.MAX_CLASS_BYTES);
+        if (maxBytes != null) {
+            estimate = Math.min(estimate, maxBytes + 1L);
+        }
+        return (int) Math.max(estimate, 1);
+    }
+
+    private static ImageWriter writerFor(String format) {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) {
+            throw new IllegalArgumentException("No image writer available for format: " + format);
+        }
+        return writers.next();
+    }
+
+    /**
+     * The JPEG writer rejects images with an alpha channel, so those are flattened onto an opaque RGB raster.
+     */
+    private static BufferedImage toRgb(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB || !image.getColorModel().hasAlpha()) {
+            return image;
+        }
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = rgb.createGraphics();
+        try {
+            g2d.drawImage(image, 0, 0, null);
+        } finally {
+            g2d.dispose();
+        }
+        return rgb;
+    }
+
+    private static boolean isJpeg(String format) {
+        return format.equalsIgnoreCase("jpg") || format.equalsIgnoreCase("jpeg");
+    }
+}
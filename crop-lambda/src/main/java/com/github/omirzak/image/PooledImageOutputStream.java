@@ -0,0 +1,109 @@
+package com.github.omirzak.image;
+
+import javax.imageio.stream.ImageOutputStreamImpl;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Seekable {@link javax.imageio.stream.ImageOutputStream} that writes straight into an array from a
+ * {@link BufferPool}, growing into the next size class as needed.
+ * <p>
+ * Unlike {@code ImageIO.createImageOutputStream}, which stages the output in a temporary file or in cache blocks
+ * before copying it into the target stream, the encoded bytes are written once and can be read back in place.
+ * {@link #close()} keeps the contents; {@link #release()} returns the array to the pool.
+ */
+public class PooledImageOutputStream extends ImageOutputStreamImpl {
+    private final BufferPool bufferPool;
+    private byte[] buffer;
+    private int length;
+
+    public PooledImageOutputStream(BufferPool bufferPool, int initialCapacity) {
+        this.bufferPool = bufferPool;
+        this.buffer = bufferPool.acquire(initialCapacity);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        flushBits();
+        ensureCapacity(streamPos + 1);
+        buffer[(int) streamPos++] = (byte) b;
+        length = Math.max(length, (int) streamPos);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        flushBits();
+        ensureCapacity(streamPos + len);
+        System.arraycopy(b, off, buffer, (int) streamPos, len);
+        streamPos += len;
+        length = Math.max(length, (int) streamPos);
+    }
+
+    @Override
+    public int read() {
+        bitOffset = 0;
+        return streamPos < length ? buffer[(int) streamPos++] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        bitOffset = 0;
+        if (streamPos >= length) {
+            return -1;
+        }
+        int count = Math.min(len, length - (int) streamPos);
+        System.arraycopy(buffer, (int) streamPos, b, off, count);
+        streamPos += count;
+        return count;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Discards the contents, keeping the array, so the stream can be written again.
+     */
+    public void clear() {
+        length = 0;
+        streamPos = 0;
+        bitOffset = 0;
+        flushedPos = 0;
+    }
+
+    public int size() {
+        return length;
+    }
+
+    /**
+     * The backing array; only the first {@link #size()} bytes are valid.
+     */
+    public byte[] array() {
+        return buffer;
+    }
+
+    public InputStream openStream() {
+        return new ByteArrayInputStream(buffer, 0, length);
+    }
+
+    public void release() {
+        if (buffer != null) {
+            bufferPool.release(buffer);
+            buffer = null;
+        }
+    }
+
+    private void ensureCapacity(long capacity) {
+        if (capacity > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Encoded image exceeds 2 GB");
+        }
+        if (capacity > buffer.length) {
+            byte[] grown = bufferPool.acquire((int) Math.max(capacity, Math.min(2L * buffer.length, Integer.MAX_VALUE - 8)));
+            System.arraycopy(buffer, 0, grown, 0, length);
+            bufferPool.release(buffer);
+            buffer = grown;
+        }
+    }
+}
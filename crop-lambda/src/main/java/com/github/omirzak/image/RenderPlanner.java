@@ -0,0 +1,61 @@
+package com.github.omirzak.image;
+
+import com.github.omirzak.dto.PhotoSizeDTO;
+import com.github.omirzak.util.AspectRatioUtil;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Plans the renders of a batch so that no output is produced twice and as little as possible is resized from
+ * the large face region.
+ * <p>
+ * Targets with the same output key, that is the same dimensions, format and byte budget, are rendered and
+ * uploaded once and share the key. The remaining outputs are grouped by aspect ratio; within a group only the
+ * largest is rendered from the face region, and each smaller one is resized from the nearest larger output of
+ * the group.
+ */
+public final class RenderPlanner {
+    private RenderPlanner() {
+    }
+
+    /**
+     * @param targets The targets to render keyed by their id
+     * @param keyOf   Maps a target to its output key
+     * @return The steps in an order where every parent precedes the outputs derived from it
+     */
+    public static List<RenderStep> plan(Map<Integer, PhotoSizeDTO> targets, Function<PhotoSizeDTO, String> keyOf) {
+        Map<String, PhotoSizeDTO> photoSizesByKey = new LinkedHashMap<>();
+        Map<String, List<Integer>> idsByKey = new LinkedHashMap<>();
+        targets.forEach((id, photoSizeDTO) -> {
+            String key = keyOf.apply(photoSizeDTO);
+            photoSizesByKey.putIfAbsent(key, photoSizeDTO);
+            idsByKey.computeIfAbsent(key, k -> new ArrayList<>()).add(id);
+        });
+
+        Map<String, List<String>> keysByAspectRatio = new LinkedHashMap<>();
+        photoSizesByKey.forEach((key, photoSizeDTO) ->
+                keysByAspectRatio.computeIfAbsent(aspectRatio(photoSizeDTO), k -> new ArrayList<>()).add(key));
+
+        List<RenderStep> steps = new ArrayList<>();
+        for (List<String> keys : keysByAspectRatio.values()) {
+            keys.sort(Comparator.comparing((String key) -> photoSizesByKey.get(key).width()).reversed());
+
+            String parentKey = null;
+            for (String key : keys) {
+                steps.add(new RenderStep(key, photoSizesByKey.get(key), parentKey, List.copyOf(idsByKey.get(key))));
+                parentKey = key;
+            }
+        }
+        return steps;
+    }
+
+    private static String aspectRatio(PhotoSizeDTO photoSizeDTO) {
+        double[] aspectRatio = AspectRatioUtil.calculateAspectRatio(photoSizeDTO.width(), photoSizeDTO.height());
+        return "%d:%d".formatted((int) aspectRatio[0], (int) aspectRatio[1]);
+    }
+}
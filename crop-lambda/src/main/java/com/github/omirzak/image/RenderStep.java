@@ -0,0 +1,20 @@
+package com.github.omirzak.image;
+
+import com.github.omirzak.dto.PhotoSizeDTO;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * One unique output of a batch.
+ *
+ * @param key       The output key, shared by every target that renders to identical bytes
+ * @param photoSize The target the output is rendered for
+ * @param parentKey The output whose resized image this one is derived from, or null to render from the face region
+ * @param ids       The ids of every requested target served by this output
+ */
+public record RenderStep(String key, PhotoSizeDTO photoSize, @Nullable String parentKey, List<Integer> ids) {
+    public boolean isDerived() {
+        return parentKey != null;
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.omirzak.image;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Strategy used to scale a cropped image to the exact target size.
+ */
+public interface Resampler {
+    BufferedImage resize(BufferedImage source, int targetWidth, int targetHeight);
+
+    /**
+     * Returns a resizer fed row by row, for sources rendered without being decoded at once. The result must be
+     * the same as {@link #resize} of the assembled source. This default assembles the rows into an image and
+     * resizes it at the end, holding a full-size copy of the source per resizer, so it only saves memory in
+     * strategies that override it and report {@link #streamsRows}.
+     */
+    default RowResizer rowResizer(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight, boolean hasAlpha) {
+        BufferedImage source = new BufferedImage(sourceWidth, sourceHeight,
+                hasAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        return new RowResizer() {
+            private final int[] row = new int[sourceWidth];
+            private int rows;
+
+            @Override
+            public void pushRow(BufferedImage image, int x, int y) {
+                image.getRGB(x, y, sourceWidth, 1, row, 0, sourceWidth);
+                source.setRGB(0, rows++, sourceWidth, 1, row, 0, sourceWidth);
+            }
+
+            @Override
+            public BufferedImage finish() {
+                return resize(source, targetWidth, targetHeight);
+            }
+        };
+    }
+
+    /**
+     * Whether {@link #rowResizer} keeps only a window of the source rows rather than assembling the whole source.
+     */
+    default boolean streamsRows() {
+        return false;
+    }
+
+    /**
+     * Identifies the strategy and its settings in render signatures.
+     */
+    String name();
+}
@@ -0,0 +1,19 @@
+package com.github.omirzak.image;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Resizes a source that is fed one row at a time, top to bottom, so the whole source never has to be in memory.
+ * Instances are not thread-safe.
+ */
+public interface RowResizer {
+    /**
+     * Adds the next source row, read from the given image starting at column {@code x} of row {@code y}.
+     */
+    void pushRow(BufferedImage image, int x, int y);
+
+    /**
+     * @return The resized image, once every source row has been pushed
+     */
+    BufferedImage finish();
+}
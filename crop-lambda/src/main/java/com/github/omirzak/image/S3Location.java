@@ -0,0 +1,38 @@
+package com.github.omirzak.image;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.net.URI;
+
+/**
+ * An object in S3 referenced as {@code s3://bucket/key}.
+ */
+public record S3Location(String bucket, String key) {
+    private static final String SCHEME = "s3";
+
+    /**
+     * @return the location, or {@code null} if the URL is not a well-formed {@code s3://bucket/key} reference
+     */
+    @Nullable
+    public static S3Location parse(String imageUrl) {
+        URI uri;
+        try {
+            uri = URI.create(imageUrl);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (!SCHEME.equalsIgnoreCase(uri.getScheme()) || uri.getAuthority() == null || uri.getPath() == null) {
+            return null;
+        }
+        String key = uri.getPath().startsWith("/") ? uri.getPath().substring(1) : uri.getPath();
+        if (key.isEmpty()) {
+            return null;
+        }
+        return new S3Location(uri.getAuthority(), key);
+    }
+
+    @Override
+    public String toString() {
+        return "s3://" + bucket + "/" + key;
+    }
+}
@@ -0,0 +1,470 @@
+package com.github.omirzak.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Resizes by convolving rows and then columns with a precomputed separable kernel, working directly on
+ * packed ARGB pixel arrays instead of going through Java2D.
+ * <p>
+ * Large reductions are first halved with a 2x2 box filter until the remaining ratio is below
+ * {@link #HALVING_THRESHOLD}, which keeps the kernel short without visible quality loss. Both passes split
+ * the output rows into bands that run in parallel. Images with alpha are resampled premultiplied.
+ * <p>
+ * {@link #rowResizer} runs the same passes row by row: halving pairs up rows as they arrive, each row is resampled
+ * horizontally on arrival, and every output row is accumulated as soon as the rows under its kernel are in. Only
+ * a window of kernel-height rows is kept, and the output is identical to {@link #resize}.
+ */
+public class SeparableResampler implements Resampler {
+    static final int HALVING_THRESHOLD = 4;
+    /**
+     * Weights are fixed-point with this many fractional bits; 8-bit samples times the summed weights stay
+     * well within int range.
+     */
+    private static final int PRECISION_BITS = 14;
+    private static final int ONE = 1 << PRECISION_BITS;
+    private static final int ROUNDING = 1 << (PRECISION_BITS - 1);
+
+    private final Kernel kernel;
+    private final int parallelism;
+
+    public SeparableResampler(Kernel kernel, int parallelism) {
+        this.kernel = kernel;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public SeparableResampler(Kernel kernel) {
+        this(kernel, Runtime.getRuntime().availableProcessors());
+    }
+
+    @Override
+    public BufferedImage resize(BufferedImage source, int targetWidth, int targetHeight) {
+        boolean hasAlpha = source.getColorModel().hasAlpha();
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int[] pixels = readPixels(source, hasAlpha);
+
+        while (width >= targetWidth * HALVING_THRESHOLD && height >= targetHeight * HALVING_THRESHOLD) {
+            pixels = halve(pixels, width, height);
+            width /= 2;
+            height /= 2;
+        }
+
+        int[] horizontal = width == targetWidth ? pixels : resampleRows(pixels, width, height, targetWidth);
+        int[] resized = height == targetHeight ? horizontal : resampleColumns(horizontal, targetWidth, height, targetHeight);
+        return toImage(resized, targetWidth, targetHeight, hasAlpha);
+    }
+
+    @Override
+    public RowResizer rowResizer(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight, boolean hasAlpha) {
+        return new StreamingResizer(sourceWidth, sourceHeight, targetWidth, targetHeight, hasAlpha);
+    }
+
+    @Override
+    public boolean streamsRows() {
+        return true;
+    }
+
+    @Override
+    public String name() {
+        return "separable-" + kernel.name().toLowerCase();
+    }
+
+    private int[] resampleRows(int[] source, int width, int height, int targetWidth) {
+        Contributions contributions = contributions(width, targetWidth);
+        int[] target = new int[targetWidth * height];
+        runInBands(height, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                resampleRow(source, y * width, contributions, target, y * targetWidth, targetWidth);
+            }
+        });
+        return target;
+    }
+
+    private static void resampleRow(int[] source, int sourceRow, Contributions contributions, int[] target, int targetRow, int targetWidth) {
+        for (int x = 0; x < targetWidth; x++) {
+            int start = contributions.start[x];
+            int count = contributions.count[x];
+            int weightOffset = x * contributions.maxCount;
+            int a = ROUNDING, r = ROUNDING, g = ROUNDING, b = ROUNDING;
+            for (int k = 0; k < count; k++) {
+                int pixel = source[sourceRow + start + k];
+                int weight = contributions.weights[weightOffset + k];
+                a += (pixel >>> 24) * weight;
+                r += ((pixel >> 16) & 0xFF) * weight;
+                g += ((pixel >> 8) & 0xFF) * weight;
+                b += (pixel & 0xFF) * weight;
+            }
+            target[targetRow + x] = pack(a, r, g, b);
+        }
+    }
+
+    private int[] resampleColumns(int[] source, int width, int height, int targetHeight) {
+        Contributions contributions = contributions(height, targetHeight);
+        int[] target = new int[width * targetHeight];
+        runInBands(targetHeight, (from, to) -> {
+            int[] accumulator = new int[width * 4];
+            for (int y = from; y < to; y++) {
+                Arrays.fill(accumulator, ROUNDING);
+                int start = contributions.start[y];
+                int count = contributions.count[y];
+                int weightOffset = y * contributions.maxCount;
+                // Accumulate whole source rows to keep memory access sequential
+                for (int k = 0; k < count; k++) {
+                    accumulateRow(source, (start + k) * width, contributions.weights[weightOffset + k], accumulator, width);
+                }
+                packRow(accumulator, target, y * width, width);
+            }
+        });
+        return target;
+    }
+
+    private static void accumulateRow(int[] source, int sourceRow, int weight, int[] accumulator, int width) {
+        for (int x = 0, i = 0; x < width; x++, i += 4) {
+            int pixel = source[sourceRow + x];
+            accumulator[i] += (pixel >>> 24) * weight;
+            accumulator[i + 1] += ((pixel >> 16) & 0xFF) * weight;
+            accumulator[i + 2] += ((pixel >> 8) & 0xFF) * weight;
+            accumulator[i + 3] += (pixel & 0xFF) * weight;
+        }
+    }
+
+    private static void packRow(int[] accumulator, int[] target, int targetRow, int width) {
+        for (int x = 0, i = 0; x < width; x++, i += 4) {
+            target[targetRow + x] = pack(accumulator[i], accumulator[i + 1], accumulator[i + 2], accumulator[i + 3]);
+        }
+    }
+
+    private int[] halve(int[] source, int width, int height) {
+        int targetWidth = width / 2;
+        int targetHeight = height / 2;
+        int[] target = new int[targetWidth * targetHeight];
+        runInBands(targetHeight, (from, to) -> {
+            for (int y = from; y < to; y++) {
+                int top = 2 * y * width;
+                halveRows(source, top, source, top + width, target, y * targetWidth, targetWidth);
+            }
+        });
+        return target;
+    }
+
+    private static void halveRows(int[] topSource, int top, int[] bottomSource, int bottom, int[] target, int targetRow, int targetWidth) {
+        for (int x = 0; x < targetWidth; x++) {
+            int p0 = topSource[top + 2 * x];
+            int p1 = topSource[top + 2 * x + 1];
+            int p2 = bottomSource[bottom + 2 * x];
+            int p3 = bottomSource[bottom + 2 * x + 1];
+            int a = ((p0 >>> 24) + (p1 >>> 24) + (p2 >>> 24) + (p3 >>> 24) + 2) >> 2;
+            int r = (((p0 >> 16) & 0xFF) + ((p1 >> 16) & 0xFF) + ((p2 >> 16) & 0xFF) + ((p3 >> 16) & 0xFF) + 2) >> 2;
+            int g = (((p0 >> 8) & 0xFF) + ((p1 >> 8) & 0xFF) + ((p2 >> 8) & 0xFF) + ((p3 >> 8) & 0xFF) + 2) >> 2;
+            int b = ((p0 & 0xFF) + (p1 & 0xFF) + (p2 & 0xFF) + (p3 & 0xFF) + 2) >> 2;
+            target[targetRow + x] = a << 24 | r << 16 | g << 8 | b;
+        }
+    }
+
+    private Contributions contributions(int sourceSize, int targetSize) {
+        double scale = (double) targetSize / sourceSize;
+        // Stretch the kernel when reducing so it also acts as the low-pass filter
+        double filterScale = Math.max(1.0, 1.0 / scale);
+        double support = kernel.support * filterScale;
+        int maxCount = (int) Math.ceil(support) * 2 + 1;
+
+        int[] start = new int[targetSize];
+        int[] count = new int[targetSize];
+        int[] weights = new int[targetSize * maxCount];
+        double[] rawWeights = new double[maxCount];
+
+        for (int i = 0; i < targetSize; i++) {
+            double center = (i + 0.5) / scale;
+            int left = Math.max(0, (int) (center - support + 0.5));
+            int right = Math.min(sourceSize, (int) (center + support + 0.5));
+            int n = Math.min(right - left, maxCount);
+
+            double total = 0;
+            for (int k = 0; k < n; k++) {
+                rawWeights[k] = kernel.weight((left + k + 0.5 - center) / filterScale);
+                total += rawWeights[k];
+            }
+            for (int k = 0; k < n; k++) {
+                double normalized = total != 0 ? rawWeights[k] / total : 0;
+                weights[i * maxCount + k] = (int) Math.round(normalized * ONE);
+            }
+            start[i] = left;
+            count[i] = n;
+        }
+        return new Contributions(start, count, weights, maxCount);
+    }
+
+    private void runInBands(int rows, BandTask task) {
+        int bands = Math.min(parallelism, rows);
+        if (bands <= 1) {
+            task.run(0, rows);
+            return;
+        }
+        IntStream.range(0, bands).parallel()
+                .forEach(band -> task.run((int) ((long) rows * band / bands), (int) ((long) rows * (band + 1) / bands)));
+    }
+
+    private static BufferedImage toImage(int[] resized, int targetWidth, int targetHeight, boolean hasAlpha) {
+        BufferedImage result = new BufferedImage(targetWidth, targetHeight,
+                hasAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        int[] data = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+        if (hasAlpha) {
+            for (int i = 0; i < resized.length; i++) {
+                data[i] = unpremultiply(resized[i]);
+            }
+        } else {
+            System.arraycopy(resized, 0, data, 0, resized.length);
+        }
+        return result;
+    }
+
+    private static int[] readPixels(BufferedImage image, boolean hasAlpha) {
+        return readPixels(image, 0, 0, image.getWidth(), image.getHeight(), hasAlpha);
+    }
+
+    /**
+     * Reads the pixels as packed ARGB, premultiplied when the image has alpha. The common decoder output
+     * layouts are copied straight from the raster; anything else goes through {@link BufferedImage#getRGB}.
+     */
+    private static int[] readPixels(BufferedImage image, int x, int y, int width, int height, boolean hasAlpha) {
+        Raster raster = image.getRaster();
+        int[] pixels;
+
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB -> {
+                pixels = (int[]) raster.getDataElements(x, y, width, height, null);
+                for (int i = 0; i < pixels.length; i++) {
+                    pixels[i] |= 0xFF000000;
+                }
+            }
+            case BufferedImage.TYPE_INT_ARGB -> pixels = (int[]) raster.getDataElements(x, y, width, height, null);
+            case BufferedImage.TYPE_3BYTE_BGR -> {
+                // Data elements come back in band order, which is R, G, B
+                byte[] data = (byte[]) raster.getDataElements(x, y, width, height, null);
+                pixels = new int[width * height];
+                for (int i = 0, j = 0; i < pixels.length; i++, j += 3) {
+                    pixels[i] = 0xFF000000 | (data[j] & 0xFF) << 16 | (data[j + 1] & 0xFF) << 8 | (data[j + 2] & 0xFF);
+                }
+            }
+            case BufferedImage.TYPE_BYTE_GRAY -> {
+                byte[] data = (byte[]) raster.getDataElements(x, y, width, height, null);
+                pixels = new int[width * height];
+                for (int i = 0; i < pixels.length; i++) {
+                    int gray = data[i] & 0xFF;
+                    pixels[i] = 0xFF000000 | gray << 16 | gray << 8 | gray;
+                }
+            }
+            default -> pixels = image.getRGB(x, y, width, height, null, 0, width);
+        }
+
+        if (hasAlpha) {
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = premultiply(pixels[i]);
+            }
+        }
+        return pixels;
+    }
+
+    private static int premultiply(int pixel) {
+        int a = pixel >>> 24;
+        if (a == 0xFF) {
+            return pixel;
+        }
+        int r = ((pixel >> 16) & 0xFF) * a / 255;
+        int g = ((pixel >> 8) & 0xFF) * a / 255;
+        int b = (pixel & 0xFF) * a / 255;
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+
+    private static int unpremultiply(int pixel) {
+        int a = pixel >>> 24;
+        if (a == 0xFF || a == 0) {
+            return a == 0 ? 0 : pixel;
+        }
+        int r = Math.min(255, ((pixel >> 16) & 0xFF) * 255 / a);
+        int g = Math.min(255, ((pixel >> 8) & 0xFF) * 255 / a);
+        int b = Math.min(255, (pixel & 0xFF) * 255 / a);
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+
+    private static int pack(int a, int r, int g, int b) {
+        return clamp(a) << 24 | clamp(r) << 16 | clamp(g) << 8 | clamp(b);
+    }
+
+    private static int clamp(int fixedPoint) {
+        int value = fixedPoint >> PRECISION_BITS;
+        return value < 0 ? 0 : Math.min(value, 255);
+    }
+
+    public enum Kernel {
+        LANCZOS3(3.0) {
+            @Override
+            double weight(double x) {
+                x = Math.abs(x);
+                if (x < 1e-9) {
+                    return 1.0;
+                }
+                if (x >= 3.0) {
+                    return 0.0;
+                }
+                double px = Math.PI * x;
+                return 3.0 * Math.sin(px) * Math.sin(px / 3.0) / (px * px);
+            }
+        },
+        /**
+         * Mitchell-Netravali with B = C = 1/3.
+         */
+        MITCHELL(2.0) {
+            @Override
+            double weight(double x) {
+                x = Math.abs(x);
+                if (x < 1.0) {
+                    return (7.0 * x * x * x - 12.0 * x * x + 16.0 / 3.0) / 6.0;
+                }
+                if (x < 2.0) {
+                    return (-7.0 / 3.0 * x * x * x + 12.0 * x * x - 20.0 * x + 32.0 / 3.0) / 6.0;
+                }
+                return 0.0;
+            }
+        };
+
+        private final double support;
+
+        Kernel(double support) {
+            this.support = support;
+        }
+
+        abstract double weight(double x);
+    }
+
+    private record Contributions(int[] start, int[] count, int[] weights, int maxCount) {
+    }
+
+    /**
+     * Runs the passes of {@link #resize} on one source row at a time. Each halving level holds at most one row
+     * waiting for its pair, and the vertical pass keeps the last {@code maxCount} horizontally resampled rows in
+     * a ring, which covers the kernel of every output row not yet written.
+     */
+    private final class StreamingResizer implements RowResizer {
+        private final int sourceWidth;
+        private final int sourceHeight;
+        private final int targetWidth;
+        private final int targetHeight;
+        private final boolean hasAlpha;
+        private final int[] levelWidths;
+        private final int[][] pendingRows;
+        private final int width;
+        private final int height;
+        private final Contributions horizontal;
+        private final Contributions vertical;
+        private final int[][] window;
+        private final int[] accumulator;
+        private final int[] resized;
+        private int rowsPushed;
+        private int rowsResampled;
+        private int rowsWritten;
+
+        private StreamingResizer(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight, boolean hasAlpha) {
+            this.sourceWidth = sourceWidth;
+            this.sourceHeight = sourceHeight;
+            this.targetWidth = targetWidth;
+            this.targetHeight = targetHeight;
+            this.hasAlpha = hasAlpha;
+
+            int levels = 0;
+            int width = sourceWidth;
+            int height = sourceHeight;
+            while (width >= targetWidth * HALVING_THRESHOLD && height >= targetHeight * HALVING_THRESHOLD) {
+                levels++;
+                width /= 2;
+                height /= 2;
+            }
+            this.levelWidths = new int[levels];
+            for (int level = 0, levelWidth = sourceWidth; level < levels; level++, levelWidth /= 2) {
+                levelWidths[level] = levelWidth;
+            }
+            this.pendingRows = new int[levels][];
+            this.width = width;
+            this.height = height;
+            this.horizontal = width == targetWidth ? null : contributions(width, targetWidth);
+            this.vertical = height == targetHeight ? null : contributions(height, targetHeight);
+            this.window = vertical == null ? null : new int[vertical.maxCount][];
+            this.accumulator = vertical == null ? null : new int[targetWidth * 4];
+            this.resized = new int[targetWidth * targetHeight];
+        }
+
+        @Override
+        public void pushRow(BufferedImage image, int x, int y) {
+            if (rowsPushed == sourceHeight) {
+                throw new IllegalStateException("All %d source rows have already been pushed".formatted(sourceHeight));
+            }
+            rowsPushed++;
+            halve(readPixels(image, x, y, sourceWidth, 1, hasAlpha), 0);
+        }
+
+        @Override
+        public BufferedImage finish() {
+            if (rowsWritten != targetHeight) {
+                throw new IllegalStateException("Expected %d source rows but got %d".formatted(sourceHeight, rowsPushed));
+            }
+            return toImage(resized, targetWidth, targetHeight, hasAlpha);
+        }
+
+        private void halve(int[] row, int level) {
+            if (level == levelWidths.length) {
+                resample(row);
+            } else if (pendingRows[level] == null) {
+                pendingRows[level] = row;
+            } else {
+                int[] halved = new int[levelWidths[level] / 2];
+                halveRows(pendingRows[level], 0, row, 0, halved, 0, halved.length);
+                pendingRows[level] = null;
+                halve(halved, level + 1);
+            }
+        }
+
+        /**
+         * Takes the rows that come out of halving. Odd rows left over at the bottom are dropped, as in
+         * {@link #resize}, so rows past the halved height are ignored.
+         */
+        private void resample(int[] row) {
+            if (rowsResampled == height) {
+                return;
+            }
+            int[] resampled = row;
+            if (horizontal != null) {
+                resampled = new int[targetWidth];
+                resampleRow(row, 0, horizontal, resampled, 0, targetWidth);
+            }
+
+            if (vertical == null) {
+                System.arraycopy(resampled, 0, resized, rowsWritten++ * targetWidth, targetWidth);
+                rowsResampled++;
+                return;
+            }
+            window[rowsResampled % window.length] = resampled;
+            rowsResampled++;
+            while (rowsWritten < targetHeight
+                    && vertical.start[rowsWritten] + vertical.count[rowsWritten] <= rowsResampled) {
+                int start = vertical.start[rowsWritten];
+                int weightOffset = rowsWritten * vertical.maxCount;
+                Arrays.fill(accumulator, ROUNDING);
+                for (int k = 0; k < vertical.count[rowsWritten]; k++) {
+                    accumulateRow(window[(start + k) % window.length], 0, vertical.weights[weightOffset + k],
+                            accumulator, targetWidth);
+                }
+                packRow(accumulator, resized, rowsWritten * targetWidth, targetWidth);
+                rowsWritten++;
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface BandTask {
+        void run(int from, int to);
+    }
+}
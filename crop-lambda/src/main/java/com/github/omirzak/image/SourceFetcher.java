@@ -0,0 +1,41 @@
+package com.github.omirzak.image;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Reads the bytes of one source image. {@link SourceImage} calls each method at most once per request.
+ */
+public interface SourceFetcher {
+    /**
+     * Reads the whole encoded image.
+     */
+    byte[] fetch();
+
+    /**
+     * Reads at least the first {@code length} bytes, or the whole image if it is shorter. Implementations
+     * may return more than requested.
+     */
+    byte[] fetchPrefix(int length);
+
+    /**
+     * Identifies the current content of the source without downloading it, such as an S3 ETag.
+     *
+     * @return the tag, or {@code null} if the content can only be identified by hashing its bytes
+     */
+    @Nullable
+    String versionTag();
+
+    /**
+     * Learns the size of the encoded image without downloading it, such as from an S3 HEAD.
+     *
+     * @return the size in bytes, or {@code null} if only the download tells
+     */
+    @Nullable
+    Long contentLength();
+
+    /**
+     * @return where the source lives in S3, or {@code null} for sources outside of S3
+     */
+    @Nullable
+    S3Location s3Location();
+}
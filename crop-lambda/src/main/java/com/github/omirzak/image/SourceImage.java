@@ -0,0 +1,356 @@
+package com.github.omirzak.image;
+
+import com.github.omirzak.dto.ImageDimension;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Request-scoped handle to the source image of a crop.
+ * <p>
+ * The bytes are fetched at most once and shared by every consumer (face detection, decoding, cropping),
+ * and the decoded raster is cached so the image is decoded at most once per request. Sources that can be
+ * identified and probed without downloading them, such as S3 objects, are only downloaded once the pixels
+ * are actually needed.
+ * <p>
+ * Fetches block on the network while holding a lock, so the locks are {@link ReentrantLock}s: a virtual thread
+ * blocked inside a {@code synchronized} block would keep its carrier thread for the whole download.
+ */
+public final class SourceImage {
+    /**
+     * Enough for the header of nearly every image, including JPEGs with sizable EXIF or ICC segments.
+     */
+    private static final int PROBE_PREFIX_BYTES = 64 * 1024;
+
+    private final String imageUrl;
+    private final SourceFetcher fetcher;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ReentrantLock dimensionLock = new ReentrantLock();
+
+    private volatile byte[] bytes;
+    private BufferedImage decoded;
+    private ImageDimension dimension;
+    private String formatName;
+    private Long contentLength;
+    private boolean contentLengthResolved;
+    private String contentHash;
+    private int fetchCount;
+    private long bytesFetched;
+
+    public SourceImage(String imageUrl, SourceFetcher fetcher) {
+        this.imageUrl = imageUrl;
+        this.fetcher = fetcher;
+    }
+
+    /**
+     * Creates a source whose bytes are already in memory, so nothing is fetched.
+     */
+    public static SourceImage ofBytes(String imageUrl, byte[] bytes) {
+        SourceImage sourceImage = new SourceImage(imageUrl, new InMemoryFetcher(bytes));
+        sourceImage.bytes = bytes;
+        return sourceImage;
+    }
+
+    public String getImageUrl() {
+        return imageUrl;
+    }
+
+    /**
+     * @return where the source lives in S3, or {@code null} for sources outside of S3
+     */
+    @Nullable
+    public S3Location s3Location() {
+        return fetcher.s3Location();
+    }
+
+    /**
+     * Returns the raw encoded bytes, fetching them on first access. The returned array is shared
+     * and must not be modified.
+     */
+    @NotNull
+    public byte[] bytes() {
+        lock.lock();
+        try {
+            if (bytes == null) {
+                bytes = fetcher.fetch();
+                fetchCount++;
+                bytesFetched += bytes.length;
+            }
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public InputStream openStream() {
+        return new ByteArrayInputStream(bytes());
+    }
+
+    /**
+     * Returns the fully decoded image, decoding the fetched bytes on first access.
+     */
+    @NotNull
+    public BufferedImage decode() {
+        lock.lock();
+        try {
+            if (decoded == null) {
+                try {
+                    decoded = ImageIO.read(new ByteArrayImageInputStream(bytes()));
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to decode the image from URL: " + imageUrl, e);
+                }
+                if (decoded == null) {
+                    throw new RuntimeException("Unsupported image format: " + imageUrl);
+                }
+            }
+            return decoded;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Decodes only the planned region at the planned subsampling. Falls back to a view of the fully decoded
+     * image when that has already been decoded and no subsampling is requested.
+     */
+    @NotNull
+    public BufferedImage decodeRegion(DecodePlan plan) {
+        Rectangle region = plan.sourceRegion();
+        lock.lock();
+        try {
+            if (decoded != null && plan.subsampling() == 1) {
+                return decoded.getSubimage(region.x, region.y, region.width, region.height);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        try (ImageInputStream input = new ByteArrayImageInputStream(bytes())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new RuntimeException("Unsupported image format: " + imageUrl);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceRegion(region);
+                param.setSourceSubsampling(plan.subsampling(), plan.subsampling(), 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to decode the image from URL: " + imageUrl, e);
+        }
+    }
+
+    /**
+     * Decodes the planned region in horizontal strips of at most {@code stripRows} decoded rows, handing each strip
+     * and the index of its first decoded row to the consumer before decoding the next, so only one strip is held
+     * at a time. The strips line up with the subsampling grid of a single {@link #decodeRegion} call, so together
+     * they hold exactly the same pixels.
+     * <p>
+     * Readers such as the JPEG one decode every row above a region to reach it, so each strip costs a decode down
+     * to its bottom; keep strips as tall as memory allows.
+     */
+    public void decodeStrips(DecodePlan plan, int stripRows, ObjIntConsumer<BufferedImage> consumer) {
+        Rectangle region = plan.sourceRegion();
+        int subsampling = plan.subsampling();
+        int decodedHeight = plan.decodedHeight();
+
+        try (ImageInputStream input = new ByteArrayImageInputStream(bytes())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new RuntimeException("Unsupported image format: " + imageUrl);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, false, true);
+                for (int row = 0; row < decodedHeight; row += stripRows) {
+                    int rows = Math.min(stripRows, decodedHeight - row);
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceRegion(new Rectangle(
+                            region.x, region.y + row * subsampling, region.width, (rows - 1) * subsampling + 1));
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                    consumer.accept(reader.read(0, param), row);
+                }
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to decode the image from URL: " + imageUrl, e);
+        }
+    }
+
+    /**
+     * Returns the image dimensions read from the container header, without decoding any pixels. Unless the
+     * bytes are already here, only a prefix of the source is fetched; this uses its own lock so it can run
+     * while the full download is in progress.
+     */
+    @NotNull
+    public ImageDimension dimension() {
+        dimensionLock.lock();
+        try {
+            if (dimension == null) {
+                if (bytes == null) {
+                    byte[] prefix = fetcher.fetchPrefix(PROBE_PREFIX_BYTES);
+                    lock.lock();
+                    try {
+                        bytesFetched += prefix.length;
+                    } finally {
+                        lock.unlock();
+                    }
+                    dimension = ImageDimensionProbe.probe(prefix);
+                    formatName = ImageDimensionProbe.formatName(prefix, prefix.length);
+                }
+                if (dimension == null) {
+                    byte[] bytes = bytes();
+                    dimension = ImageDimensionProbe.probe(bytes);
+                    formatName = ImageDimensionProbe.formatName(bytes, bytes.length);
+                }
+                if (dimension == null) {
+                    throw new RuntimeException("Failed to read the image dimensions: " + imageUrl);
+                }
+            }
+            return dimension;
+        } finally {
+            dimensionLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the format read from the container header along with the {@link #dimension()}.
+     *
+     * @return {@code jpeg}, {@code png}, {@code webp} or {@code gif}, or {@code null} for any other format
+     */
+    @Nullable
+    public String formatName() {
+        dimensionLock.lock();
+        try {
+            dimension();
+            return formatName;
+        } finally {
+            dimensionLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the size of the encoded image, without downloading it when the fetcher can tell.
+     *
+     * @return the size in bytes, or {@code null} if it is only known once the source is downloaded
+     */
+    @Nullable
+    public Long contentLength() {
+        lock.lock();
+        try {
+            if (bytes != null) {
+                return (long) bytes.length;
+            }
+            if (!contentLengthResolved) {
+                contentLength = fetcher.contentLength();
+                contentLengthResolved = true;
+            }
+            return contentLength;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a lowercase hex SHA-256 identifying the source content, used to key caches by image content.
+     * <p>
+     * When the fetcher can tag the content without downloading it, the hash covers the URL and that tag, so the
+     * source is not downloaded just to be identified. Otherwise it is the hash of the source bytes.
+     */
+    @NotNull
+    public String contentHash() {
+        lock.lock();
+        try {
+            if (contentHash == null) {
+                String versionTag = fetcher.versionTag();
+                byte[] content = versionTag != null
+                        ? (imageUrl + "#" + versionTag).getBytes(StandardCharsets.UTF_8)
+                        : bytes();
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+                contentHash = HexFormat.of().formatHex(digest);
+            }
+            return contentHash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int fetchCount() {
+        lock.lock();
+        try {
+            return fetchCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long bytesFetched() {
+        lock.lock();
+        try {
+            return bytesFetched;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SourceImage{" +
+                "imageUrl='" + imageUrl + '\'' +
+                ", fetchCount=" + fetchCount +
+                ", bytesFetched=" + bytesFetched +
+                '}';
+    }
+
+    private record InMemoryFetcher(byte[] bytes) implements SourceFetcher {
+        @Override
+        public byte[] fetch() {
+            return bytes;
+        }
+
+        @Override
+        public byte[] fetchPrefix(int length) {
+            return bytes;
+        }
+
+        @Override
+        public String versionTag() {
+            return null;
+        }
+
+        @Override
+        public Long contentLength() {
+            return (long) bytes.length;
+        }
+
+        @Override
+        public S3Location s3Location() {
+            return null;
+        }
+    }
+}
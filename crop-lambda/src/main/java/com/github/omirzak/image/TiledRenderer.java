@@ -0,0 +1,61 @@
+package com.github.omirzak.image;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Renders targets from a source region too large to decode at once.
+ * <p>
+ * The region is decoded strip by strip, and every strip is fed to one {@link RowResizer} per target, so peak
+ * memory is one strip plus the targets rather than the whole region. All targets are rendered in the same pass
+ * to decode the source only once. The rendered targets themselves are still held whole, since the encoders need
+ * the complete raster. Everything runs on the calling thread, so callers can bound the CPU it uses.
+ */
+public final class TiledRenderer {
+    private TiledRenderer() {
+    }
+
+    /**
+     * @param sourceImage The source image
+     * @param plan        The region and subsampling to decode
+     * @param stripRows   The number of decoded rows per strip
+     * @param targets     What to render, with regions in decoded coordinates
+     * @param resampler   The resize strategy
+     * @return The rendered targets, in the same order
+     */
+    public static List<BufferedImage> render(
+            SourceImage sourceImage,
+            DecodePlan plan,
+            int stripRows,
+            List<Target> targets,
+            Resampler resampler
+    ) {
+        RowResizer[] resizers = new RowResizer[targets.size()];
+        sourceImage.decodeStrips(plan, stripRows, (strip, firstRow) -> {
+            for (int i = 0; i < targets.size(); i++) {
+                Target target = targets.get(i);
+                Rectangle region = target.region();
+                if (resizers[i] == null) {
+                    resizers[i] = resampler.rowResizer(region.width, region.height, target.width(),
+                            target.height(), strip.getColorModel().hasAlpha());
+                }
+                int from = Math.max(firstRow, region.y);
+                int to = Math.min(firstRow + strip.getHeight(), region.y + region.height);
+                for (int y = from; y < to; y++) {
+                    resizers[i].pushRow(strip, region.x, y - firstRow);
+                }
+            }
+        });
+        return Arrays.stream(resizers).map(RowResizer::finish).toList();
+    }
+
+    /**
+     * @param region The part of the decoded region to resize, in decoded coordinates
+     * @param width  The target width
+     * @param height The target height
+     */
+    public record Target(Rectangle region, int width, int height) {
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.omirzak.local;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.github.omirzak.CropLambda;
+import com.github.omirzak.config.DependencyFactory;
+import com.github.omirzak.dto.FaceBox;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Training run for the AppCDS archive of the {@code appcds} build profile: invokes
+ * {@link CropLambda#handleRequest} the way API Gateway does, with S3 and Rekognition replaced by the in-memory
+ * stand-ins, so the classes a cold invocation loads from the AWS SDK, Jackson, ImageIO and Java2D end up in the
+ * archive.
+ * <p>
+ * Expects BUCKET_NAME and an AWS region and credentials in the environment, which only the presigner reads.
+ */
+public class AppCdsTraining {
+    private static final List<String> SOURCE_FORMATS = List.of("jpg", "png", "gif");
+    private static final int SOURCE_WIDTH = 1200;
+    private static final int SOURCE_HEIGHT = 900;
+
+    public static void main(String[] args) throws IOException {
+        String bucketName = System.getenv("BUCKET_NAME");
+        InMemoryS3Client s3Client = new InMemoryS3Client();
+        DependencyFactory.useClients(s3Client,
+                new StubRekognitionClient(List.of(new FaceBox(0.4f, 0.25f, 0.2f, 0.3f))));
+
+        CropLambda cropLambda = new CropLambda();
+        for (int i = 0; i < SOURCE_FORMATS.size(); i++) {
+            String format = SOURCE_FORMATS.get(i);
+            String key = "training/source-" + i + "." + format;
+            s3Client.putObject(PutObjectRequest.builder().bucket(bucketName).key(key).contentType("image/" + format)
+                    .build(), RequestBody.fromBytes(syntheticImage(format, i)));
+            String imageUrl = "s3://" + bucketName + "/" + key;
+
+            invoke(cropLambda, "/crop", "{\"imageUrl\":\"%s\",\"id\":%d}".formatted(imageUrl, i + 4));
+            invoke(cropLambda, "/crop/batch", "{\"imageUrl\":\"%s\",\"all\":true}".formatted(imageUrl));
+        }
+    }
+
+    private static void invoke(CropLambda cropLambda, String path, String body) {
+        APIGatewayProxyRequestEvent event = new APIGatewayProxyRequestEvent()
+                .withHttpMethod("POST")
+                .withPath(path)
+                .withBody(body);
+        APIGatewayProxyResponseEvent response = cropLambda.handleRequest(event, null);
+        System.err.printf("Trained on %s: %d%n", path, response.getStatusCode());
+    }
+
+    /**
+     * A gradient with a face-like oval, shifted per source so no two sources share a cache entry.
+     */
+    private static byte[] syntheticImage(String format, int variant) throws IOException {
+        BufferedImage image = new BufferedImage(SOURCE_WIDTH, SOURCE_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setPaint(new GradientPaint(0, 0, Color.DARK_GRAY, SOURCE_WIDTH, SOURCE_HEIGHT, Color.ORANGE));
+            graphics.fillRect(0, 0, SOURCE_WIDTH, SOURCE_HEIGHT);
+            graphics.setColor(Color.PINK);
+            graphics.fillOval(480 + 10 * variant, 225, 240, 270);
+        } finally {
+            graphics.dispose();
+        }
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, format, outputStream)) {
+            throw new IllegalStateException("No ImageIO writer for " + format);
+        }
+        return outputStream.toByteArray();
+    }
+}
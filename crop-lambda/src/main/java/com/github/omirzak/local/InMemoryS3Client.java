@@ -0,0 +1,227 @@
+package com.github.omirzak.local;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.NoSuchUploadException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * S3 stand-in that keeps objects in memory, for benchmarks and local runs without AWS.
+ * <p>
+ * Only the operations used by the crop pipeline are implemented; everything else throws
+ * {@link UnsupportedOperationException} like the default {@link S3Client} methods.
+ */
+public class InMemoryS3Client implements S3Client {
+    private final Map<String, StoredObject> objects = new ConcurrentHashMap<>();
+    private final Map<String, MultipartUpload> uploads = new ConcurrentHashMap<>();
+
+    @Override
+    public PutObjectResponse putObject(PutObjectRequest putObjectRequest, RequestBody requestBody) {
+        String eTag = store(putObjectRequest.bucket(), putObjectRequest.key(), readAll(requestBody),
+                putObjectRequest.contentType());
+        return PutObjectResponse.builder().eTag(eTag).build();
+    }
+
+    @Override
+    public HeadObjectResponse headObject(HeadObjectRequest headObjectRequest) {
+        StoredObject object = find(headObjectRequest.bucket(), headObjectRequest.key());
+        return HeadObjectResponse.builder()
+                .contentLength((long) object.bytes().length)
+                .contentType(object.contentType())
+                .eTag(object.eTag())
+                .build();
+    }
+
+    @Override
+    public <ReturnT> ReturnT getObject(GetObjectRequest getObjectRequest,
+                                       ResponseTransformer<GetObjectResponse, ReturnT> responseTransformer) {
+        StoredObject object = find(getObjectRequest.bucket(), getObjectRequest.key());
+        if (getObjectRequest.ifMatch() != null && !getObjectRequest.ifMatch().equals(object.eTag())) {
+            throw failure(412, "At least one of the pre-conditions you specified did not hold");
+        }
+        if (object.eTag().equals(getObjectRequest.ifNoneMatch())) {
+            throw failure(304, "Not Modified");
+        }
+
+        byte[] bytes = slice(object.bytes(), getObjectRequest.range());
+        GetObjectResponse response = GetObjectResponse.builder()
+                .contentLength((long) bytes.length)
+                .contentType(object.contentType())
+                .eTag(object.eTag())
+                .build();
+        try {
+            return responseTransformer.transform(response,
+                    AbortableInputStream.create(new ByteArrayInputStream(bytes)));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest getObjectRequest) {
+        return getObject(getObjectRequest, ResponseTransformer.toInputStream());
+    }
+
+    @Override
+    public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest request) {
+        String uploadId = UUID.randomUUID().toString();
+        uploads.put(uploadId, new MultipartUpload(request.bucket(), request.key(), request.contentType(),
+                new ConcurrentHashMap<>()));
+        return CreateMultipartUploadResponse.builder().bucket(request.bucket()).key(request.key()).uploadId(uploadId).build();
+    }
+
+    @Override
+    public UploadPartResponse uploadPart(UploadPartRequest request, RequestBody requestBody) {
+        MultipartUpload upload = findUpload(request.uploadId());
+        byte[] bytes = readAll(requestBody);
+        String eTag = "\"%08x\"".formatted(Arrays.hashCode(bytes));
+        upload.parts().put(request.partNumber(), bytes);
+        return UploadPartResponse.builder().eTag(eTag).build();
+    }
+
+    /**
+     * Concatenates the listed parts in order. Part ETags and minimum part sizes are not checked.
+     */
+    @Override
+    public CompleteMultipartUploadResponse completeMultipartUpload(CompleteMultipartUploadRequest request) {
+        MultipartUpload upload = findUpload(request.uploadId());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        request.multipartUpload().parts().stream()
+                .sorted(Comparator.comparing(CompletedPart::partNumber))
+                .forEach(part -> bytes.writeBytes(upload.parts().get(part.partNumber())));
+        uploads.remove(request.uploadId());
+        String eTag = store(upload.bucket(), upload.key(), bytes.toByteArray(), upload.contentType());
+        return CompleteMultipartUploadResponse.builder().bucket(upload.bucket()).key(upload.key()).eTag(eTag).build();
+    }
+
+    @Override
+    public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest request) {
+        findUpload(request.uploadId());
+        uploads.remove(request.uploadId());
+        return AbortMultipartUploadResponse.builder().build();
+    }
+
+    /**
+     * @return The number of multipart uploads started but neither completed nor aborted
+     */
+    public int pendingUploads() {
+        return uploads.size();
+    }
+
+    public boolean contains(String bucket, String key) {
+        return objects.containsKey(path(bucket, key));
+    }
+
+    public int size() {
+        return objects.size();
+    }
+
+    public void clear() {
+        objects.clear();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private String store(String bucket, String key, byte[] bytes, String contentType) {
+        String eTag = "\"%08x\"".formatted(Arrays.hashCode(bytes));
+        objects.put(path(bucket, key), new StoredObject(bytes, contentType, eTag));
+        return eTag;
+    }
+
+    private static byte[] readAll(RequestBody requestBody) {
+        try (InputStream inputStream = requestBody.contentStreamProvider().newStream()) {
+            return inputStream.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private MultipartUpload findUpload(String uploadId) {
+        MultipartUpload upload = uploads.get(uploadId);
+        if (upload == null) {
+            throw (NoSuchUploadException) NoSuchUploadException.builder()
+                    .statusCode(404)
+                    .message("The specified upload does not exist: " + uploadId)
+                    .build();
+        }
+        return upload;
+    }
+
+    private StoredObject find(String bucket, String key) {
+        StoredObject object = objects.get(path(bucket, key));
+        if (object == null) {
+            throw (NoSuchKeyException) NoSuchKeyException.builder()
+                    .statusCode(404)
+                    .message("The specified key does not exist: " + key)
+                    .build();
+        }
+        return object;
+    }
+
+    /**
+     * Applies a single {@code bytes=first-last} range, the only form the pipeline sends.
+     */
+    private static byte[] slice(byte[] bytes, String range) {
+        if (range == null) {
+            return bytes;
+        }
+        String[] bounds = range.substring("bytes=".length()).split("-", 2);
+        int first = Integer.parseInt(bounds[0]);
+        int last = bounds[1].isEmpty() ? bytes.length - 1 : Integer.parseInt(bounds[1]);
+        return Arrays.copyOfRange(bytes, Math.min(first, bytes.length), Math.min(last + 1, bytes.length));
+    }
+
+    private static S3Exception failure(int statusCode, String message) {
+        return (S3Exception) S3Exception.builder()
+                .statusCode(statusCode)
+                .message(message)
+                .build();
+    }
+
+    private static String path(String bucket, String key) {
+        return bucket + "/" + key;
+    }
+
+    private record StoredObject(byte[] bytes, String contentType, String eTag) {
+    }
+
+    private record MultipartUpload(String bucket, String key, String contentType, Map<Integer, byte[]> parts) {
+    }
+}
@@ -0,0 +1,68 @@
+package com.github.omirzak.local;
+
+import com.github.omirzak.dto.FaceBox;
+import software.amazon.awssdk.services.rekognition.RekognitionClient;
+import software.amazon.awssdk.services.rekognition.model.BoundingBox;
+import software.amazon.awssdk.services.rekognition.model.DetectFacesRequest;
+import software.amazon.awssdk.services.rekognition.model.DetectFacesResponse;
+import software.amazon.awssdk.services.rekognition.model.FaceDetail;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rekognition stand-in that answers every detection with the same normalized face boxes after an optional
+ * simulated latency, for benchmarks and local runs without AWS.
+ */
+public class StubRekognitionClient implements RekognitionClient {
+    private final List<FaceBox> faceBoxes;
+    private final Duration latency;
+    private final AtomicLong calls = new AtomicLong();
+
+    public StubRekognitionClient(List<FaceBox> faceBoxes, Duration latency) {
+        this.faceBoxes = List.copyOf(faceBoxes);
+        this.latency = latency;
+    }
+
+    public StubRekognitionClient(List<FaceBox> faceBoxes) {
+        this(faceBoxes, Duration.ZERO);
+    }
+
+    @Override
+    public DetectFacesResponse detectFaces(DetectFacesRequest detectFacesRequest) {
+        calls.incrementAndGet();
+        if (!latency.isZero()) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+        List<FaceDetail> faceDetails = faceBoxes.stream()
+                .map(faceBox -> FaceDetail.builder()
+                        .boundingBox(BoundingBox.builder()
+                                .left(faceBox.left())
+                                .top(faceBox.top())
+                                .width(faceBox.width())
+                                .height(faceBox.height())
+                                .build())
+                        .build())
+                .toList();
+        return DetectFacesResponse.builder().faceDetails(faceDetails).build();
+    }
+
+    public long calls() {
+        return calls.get();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+}
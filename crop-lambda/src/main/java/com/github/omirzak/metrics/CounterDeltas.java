@@ -0,0 +1,30 @@
+package com.github.omirzak.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Turns counters that only ever grow, such as the totals kept by shared components for the life of the process,
+ * into the increase since they were last reported, so that every invocation reports its share and the reported
+ * values add up to the totals.
+ * <p>
+ * Concurrent invocations may each see the other's increase first; whichever reports a total first reports the
+ * increase up to it, and the other reports only what is left, never a negative value. Instances are thread-safe.
+ */
+public class CounterDeltas {
+    private final Map<String, Long> reported = new ConcurrentHashMap<>();
+
+    /**
+     * @param total The current value of the counter
+     * @return The increase since the highest value reported so far, or since zero for the first report
+     */
+    public long delta(String name, long total) {
+        long[] delta = new long[1];
+        reported.compute(name, (key, previous) -> {
+            long highest = previous != null ? previous : 0;
+            delta[0] = Math.max(0, total - highest);
+            return Math.max(highest, total);
+        });
+        return delta[0];
+    }
+}
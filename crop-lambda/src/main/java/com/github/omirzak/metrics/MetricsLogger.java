@@ -0,0 +1,180 @@
+package com.github.omirzak.metrics;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects the metrics of one invocation and writes them as a single CloudWatch Embedded Metric Format record,
+ * which CloudWatch turns into metrics without any API calls.
+ * <p>
+ * A metric may be put several times, for example once per output of a batch, and keeps every value; EMF accepts
+ * up to 100 values per metric and record, so later values are dropped. Values are kept in primitive arrays until the
+ * record is written. Dimensions apply to every metric, and properties are written alongside the metrics so the
+ * record can be searched with Logs Insights without becoming metrics themselves.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class MetricsLogger {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final int MAX_VALUES = 100;
+
+    private final String namespace;
+    private final Map<String, String> dimensions = new LinkedHashMap<>();
+    private final Map<String, Object> properties = new LinkedHashMap<>();
+    private final Map<String, Metric> metrics = new LinkedHashMap<>();
+
+    public MetricsLogger(String namespace) {
+        this.namespace = namespace;
+    }
+
+    public synchronized MetricsLogger putDimension(String name, String value) {
+        dimensions.put(name, value);
+        return this;
+    }
+
+    /**
+     * @param value A string, number or boolean
+     */
+    public synchronized MetricsLogger putProperty(String name, Object value) {
+        properties.put(name, value);
+        return this;
+    }
+
+    public synchronized MetricsLogger putMetric(String name, double value, Unit unit) {
+        metrics.computeIfAbsent(name, k -> new Metric(unit)).add(value);
+        return this;
+    }
+
+    /**
+     * Puts the busy time of every stage as {@code <stage>Time}, and the wall time as {@code wallTime}.
+     */
+    public MetricsLogger putTimings(StageTimings timings) {
+        timings.busyMillis().forEach((stage, millis) -> putMetric(stage + "Time", millis, Unit.MILLISECONDS));
+        return putMetric("wallTime", timings.wallMillis(), Unit.MILLISECONDS);
+    }
+
+    /**
+     * Writes the record as one line.
+     */
+    public void flush(PrintStream out) {
+        out.println(serialize());
+    }
+
+    public synchronized String serialize() {
+        StringWriter writer = new StringWriter(512);
+        try (JsonGenerator json = JSON_FACTORY.createGenerator(writer)) {
+            json.writeStartObject();
+            json.writeObjectFieldStart("_aws");
+            json.writeNumberField("Timestamp", System.currentTimeMillis());
+            json.writeArrayFieldStart("CloudWatchMetrics");
+            json.writeStartObject();
+            json.writeStringField("Namespace", namespace);
+            json.writeArrayFieldStart("Dimensions");
+            json.writeStartArray();
+            for (String dimension : dimensions.keySet()) {
+                json.writeString(dimension);
+            }
+            json.writeEndArray();
+            json.writeEndArray();
+            json.writeArrayFieldStart("Metrics");
+            for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+                json.writeStartObject();
+                json.writeStringField("Name", entry.getKey());
+                json.writeStringField("Unit", entry.getValue().unit.emfName);
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+            json.writeEndArray();
+            json.writeEndObject();
+
+            for (Map.Entry<String, String> entry : dimensions.entrySet()) {
+                json.writeStringField(entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<String, Object> entry : properties.entrySet()) {
+                writeProperty(json, entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+                Metric metric = entry.getValue();
+                json.writeFieldName(entry.getKey());
+                if (metric.count == 1) {
+                    writeNumber(json, metric.values[0]);
+                } else {
+                    json.writeStartArray();
+                    for (int i = 0; i < metric.count; i++) {
+                        writeNumber(json, metric.values[i]);
+                    }
+                    json.writeEndArray();
+                }
+            }
+            json.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Writes whole numbers without a fraction, which keeps the record short since most values are counts, bytes or
+     * whole milliseconds.
+     */
+    private static void writeNumber(JsonGenerator json, double value) throws IOException {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            json.writeNumber((long) value);
+        } else {
+            json.writeNumber(value);
+        }
+    }
+
+    private static void writeProperty(JsonGenerator json, String name, Object value) throws IOException {
+        switch (value) {
+            case null -> json.writeNullField(name);
+            case Integer number -> json.writeNumberField(name, number);
+            case Long number -> json.writeNumberField(name, number);
+            case Number number -> json.writeNumberField(name, number.doubleValue());
+            case Boolean bool -> json.writeBooleanField(name, bool);
+            default -> json.writeStringField(name, value.toString());
+        }
+    }
+
+    public enum Unit {
+        MILLISECONDS("Milliseconds"),
+        BYTES("Bytes"),
+        COUNT("Count"),
+        NONE("None");
+
+        private final String emfName;
+
+        Unit(String emfName) {
+            this.emfName = emfName;
+        }
+    }
+
+    private static final class Metric {
+        private final Unit unit;
+        private double[] values = new double[1];
+        private int count;
+
+        private Metric(Unit unit) {
+            this.unit = unit;
+        }
+
+        private void add(double value) {
+            if (count == MAX_VALUES) {
+                return;
+            }
+            if (count == values.length) {
+                values = Arrays.copyOf(values, Math.min(MAX_VALUES, 2 * values.length));
+            }
+            values[count++] = value;
+        }
+    }
+}
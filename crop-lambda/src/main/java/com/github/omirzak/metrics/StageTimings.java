@@ -0,0 +1,116 @@
+package com.github.omirzak.metrics;
+
+import com.sun.management.ThreadMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.function.Supplier;
+
+/**
+ * Records the wall time of each pipeline stage within one request. Stages may run several times and
+ * concurrently, so each stage keeps both its window, from its first start to its last end, and its busy time,
+ * the sum of its individual runs. The summed busy time minus the time during which any stage was running is
+ * how much the stages overlapped.
+ * <p>
+ * Runs on platform threads also record the bytes they allocated. The JVM does not track allocations of virtual
+ * threads, so the blocking I/O stages report none.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class StageTimings {
+    private static final ThreadMXBean THREAD_MX_BEAN = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+    private final List<long[]> intervals = new ArrayList<>();
+
+    public <T> T time(String stage, Supplier<T> supplier) {
+        long startAllocated = THREAD_MX_BEAN.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        try {
+            return supplier.get();
+        } finally {
+            long end = System.nanoTime();
+            long allocated = startAllocated < 0 ? 0 : THREAD_MX_BEAN.getCurrentThreadAllocatedBytes() - startAllocated;
+            record(stage, start, end, allocated);
+        }
+    }
+
+    public void time(String stage, Runnable runnable) {
+        time(stage, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    public long wallMillis() {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    /**
+     * @return The busy time of every recorded stage in milliseconds, in the order the stages first started
+     */
+    public synchronized Map<String, Long> busyMillis() {
+        Map<String, Long> busyMillis = new LinkedHashMap<>();
+        stages.forEach((name, stage) -> busyMillis.put(name, stage.busyNanos / 1_000_000));
+        return busyMillis;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long busyNanos = 0;
+        StringJoiner joiner = new StringJoiner(", ");
+        for (Map.Entry<String, Stage> entry : stages.entrySet()) {
+            Stage stage = entry.getValue();
+            busyNanos += stage.busyNanos;
+            joiner.add("%s %d-%d ms (busy %d ms%s%s)".formatted(entry.getKey(),
+                    (stage.firstStartNanos - startNanos) / 1_000_000, (stage.lastEndNanos - startNanos) / 1_000_000,
+                    stage.busyNanos / 1_000_000,
+                    stage.allocatedBytes > 0 ? ", alloc %.1f MB".formatted(stage.allocatedBytes / 1048576.0) : "",
+                    stage.runs > 1 ? ", " + stage.runs + " runs" : ""));
+        }
+        return "wall %d ms, stages busy %d ms, overlapped %d ms: %s".formatted(
+                wallMillis(), busyNanos / 1_000_000, (busyNanos - activeNanos()) / 1_000_000, joiner);
+    }
+
+    /**
+     * The length of the union of all recorded runs.
+     */
+    private long activeNanos() {
+        List<long[]> sorted = new ArrayList<>(intervals);
+        sorted.sort(Comparator.comparingLong(interval -> interval[0]));
+        long activeNanos = 0;
+        long coveredUntil = Long.MIN_VALUE;
+        for (long[] interval : sorted) {
+            long start = Math.max(interval[0], coveredUntil);
+            if (interval[1] > start) {
+                activeNanos += interval[1] - start;
+            }
+            coveredUntil = Math.max(coveredUntil, interval[1]);
+        }
+        return activeNanos;
+    }
+
+    private synchronized void record(String name, long start, long end, long allocatedBytes) {
+        Stage stage = stages.computeIfAbsent(name, k -> new Stage());
+        stage.firstStartNanos = Math.min(stage.firstStartNanos, start);
+        stage.lastEndNanos = Math.max(stage.lastEndNanos, end);
+        stage.busyNanos += end - start;
+        stage.allocatedBytes += allocatedBytes;
+        stage.runs++;
+        intervals.add(new long[]{start, end});
+    }
+
+    private static final class Stage {
+        private long firstStartNanos = Long.MAX_VALUE;
+        private long lastEndNanos;
+        private long busyNanos;
+        private long allocatedBytes;
+        private int runs;
+    }
+}
@@ -0,0 +1,58 @@
+package com.github.omirzak.service;
+
+import com.github.omirzak.dto.ImageDimension;
+import com.github.omirzak.image.DecodePlan;
+
+/**
+ * Limits on the sources a container accepts, checked from the image header before any pixels are decoded, and
+ * the budget bounding the rasters all in-flight requests may hold.
+ * <p>
+ * Sources beyond {@code maxSourcePixels} are rejected outright, since even a subsampled decode has to scan all
+ * of their rows. Sources within it whose planned region decodes to more than {@code maxDecodedPixels} are
+ * rendered from strips of at most that many pixels.
+ */
+public class AdmissionControl {
+    /**
+     * Decoded and rendered rasters are accounted as 4 bytes per pixel, the size of the packed RGB/ARGB rasters the
+     * pipeline renders into.
+     */
+    public static final int BYTES_PER_PIXEL = 4;
+
+    private final long maxSourcePixels;
+    private final long maxDecodedPixels;
+    private final MemoryBudget memoryBudget;
+
+    public AdmissionControl(long maxSourcePixels, long maxDecodedPixels, MemoryBudget memoryBudget) {
+        this.maxSourcePixels = maxSourcePixels;
+        this.maxDecodedPixels = maxDecodedPixels;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * @throws ImageRejectedException if the source has more pixels than allowed
+     */
+    public void admit(String imageUrl, ImageDimension dimension) {
+        long pixels = (long) dimension.width() * dimension.height();
+        if (pixels > maxSourcePixels) {
+            throw new ImageRejectedException("Image %s is %dx%d (%d MP), above the limit of %d MP".formatted(
+                    imageUrl, dimension.width(), dimension.height(), pixels / 1_000_000, maxSourcePixels / 1_000_000));
+        }
+    }
+
+    /**
+     * @return How many decoded rows of the plan may be held at once: all of them when the region fits within the
+     * decoded pixel limit, fewer when it has to be rendered in strips
+     */
+    public int stripRows(DecodePlan plan) {
+        long rows = Math.max(1, maxDecodedPixels / plan.decodedWidth());
+        return (int) Math.min(rows, plan.decodedHeight());
+    }
+
+    public MemoryBudget.Account openAccount() {
+        return memoryBudget.account();
+    }
+
+    public static long rasterBytes(long pixels) {
+        return pixels * BYTES_PER_PIXEL;
+    }
+}
@@ -0,0 +1,179 @@
+package com.github.omirzak.service;
+
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.omirzak.dto.BackfillManifest;
+import com.github.omirzak.dto.BackfillResult;
+import com.github.omirzak.dto.BatchCropRequest;
+import com.github.omirzak.dto.FaceDetectionMode;
+import com.github.omirzak.dto.PhotoSizeDTO;
+import com.github.omirzak.metrics.MetricsLogger;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Renders catalog backfills delivered through SQS. Every message carries a {@link BatchCropRequest}, the same body
+ * as {@code /crop/batch}, for one source image.
+ * <p>
+ * The messages of a batch are processed concurrently on the given executor, whose size bounds how many sources are
+ * in flight at once. Messages that failed in a way that may pass, such as throttling, are reported as batch item
+ * failures, so only they return to the queue. Messages that can never succeed, because they are invalid, their
+ * source is rejected or no faces can be cropped on it, are not reported, and are only recorded as rejected in the
+ * manifest.
+ * <p>
+ * Once all messages are processed, a {@link BackfillManifest} of the batch is written to
+ * {@code manifests/<date>/<batchId>.json}, listing the output keys of every image. If it cannot be written, the
+ * whole batch fails and is redelivered; the outputs rendered so far are then found in the bucket and not rendered
+ * again.
+ */
+public class BackfillWorker {
+    private static final Logger logger = Logger.getLogger(BackfillWorker.class.getName());
+
+    private final ObjectMapper objectMapper;
+    private final PhotoSizeRepository photoSizeRepository;
+    private final Renderer renderer;
+    private final StorageService storageService;
+    private final Executor executor;
+    private final String metricsNamespace;
+
+    /**
+     * @param renderer         Renders the outputs of a source and returns their keys, normally
+     *                         {@link CropService#storeAll}
+     * @param metricsNamespace The CloudWatch namespace of the metrics written for every message
+     */
+    public BackfillWorker(
+            ObjectMapper objectMapper,
+            PhotoSizeRepository photoSizeRepository,
+            Renderer renderer,
+            StorageService storageService,
+            Executor executor,
+            String metricsNamespace
+    ) {
+        this.objectMapper = objectMapper;
+        this.photoSizeRepository = photoSizeRepository;
+        this.renderer = renderer;
+        this.storageService = storageService;
+        this.executor = executor;
+        this.metricsNamespace = metricsNamespace;
+    }
+
+    /**
+     * @param batchId Names the manifest, unique per batch
+     * @return The messages to retry
+     */
+    public SQSBatchResponse process(String batchId, List<SQSEvent.SQSMessage> messages) {
+        List<CompletableFuture<BackfillResult>> futures = messages.stream()
+                .map(message -> CompletableFuture.supplyAsync(() -> process(message), executor))
+                .toList();
+        List<BackfillResult> results = futures.stream().map(CompletableFuture::join).toList();
+
+        String manifestKey = manifestKey(batchId);
+        writeManifest(manifestKey, new BackfillManifest(batchId, Instant.now().toString(), results));
+        logger.info(() -> "Processed %d message(s), %d failed, manifest %s".formatted(results.size(),
+                results.stream().filter(result -> result.status() == BackfillResult.Status.FAILED).count(),
+                manifestKey));
+
+        return new SQSBatchResponse(results.stream()
+                .filter(result -> result.status() == BackfillResult.Status.FAILED)
+                .map(result -> new SQSBatchResponse.BatchItemFailure(result.messageId()))
+                .toList());
+    }
+
+    static String manifestKey(String batchId) {
+        return "manifests/%s/%s.json".formatted(Instant.now().atZone(ZoneOffset.UTC).toLocalDate(), batchId);
+    }
+
+    /**
+     * Never throws, so that one message cannot fail the others.
+     */
+    private BackfillResult process(SQSEvent.SQSMessage message) {
+        String messageId = message.getMessageId();
+        BatchCropRequest request;
+        Map<Integer, PhotoSizeDTO> photoSizes;
+        try {
+            request = objectMapper.readValue(message.getBody(), BatchCropRequest.class);
+            photoSizes = photoSizes(request);
+        } catch (JsonProcessingException | IllegalArgumentException e) {
+            logger.warning("Rejected message %s: %s".formatted(messageId, e.getMessage()));
+            return new BackfillResult(messageId, null, BackfillResult.Status.REJECTED, Map.of(), e.getMessage());
+        }
+
+        long start = System.nanoTime();
+        String imageUrl = request.getImageUrl();
+        MetricsLogger metrics = new MetricsLogger(metricsNamespace)
+                .putDimension("Operation", "Backfill")
+                .putProperty("messageId", messageId);
+        BackfillResult result;
+        try {
+            Map<Integer, String> outputKeys = renderer.render(imageUrl, photoSizes, request.getFaceDetector(), metrics);
+            result = new BackfillResult(messageId, imageUrl, BackfillResult.Status.SUCCEEDED, outputKeys, null);
+        } catch (ImageRejectedException | UnprocessableImageException e) {
+            logger.warning("Rejected message %s: %s".formatted(messageId, e.getMessage()));
+            result = new BackfillResult(messageId, imageUrl, BackfillResult.Status.REJECTED, Map.of(), e.getMessage());
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Failed message %s: %s".formatted(messageId, e.getMessage()), e);
+            result = new BackfillResult(messageId, imageUrl, BackfillResult.Status.FAILED, Map.of(),
+                    String.valueOf(e.getMessage()));
+        }
+
+        metrics.putProperty("status", result.status().name())
+                .putMetric("Latency", (System.nanoTime() - start) / 1_000_000.0, MetricsLogger.Unit.MILLISECONDS)
+                .putMetric("Targets", photoSizes.size(), MetricsLogger.Unit.COUNT)
+                .putMetric("ClientErrors", result.status() == BackfillResult.Status.REJECTED ? 1 : 0,
+                        MetricsLogger.Unit.COUNT)
+                .putMetric("Faults", result.status() == BackfillResult.Status.FAILED ? 1 : 0, MetricsLogger.Unit.COUNT)
+                .flush(System.out);
+        return result;
+    }
+
+    private Map<Integer, PhotoSizeDTO> photoSizes(BatchCropRequest request) {
+        if (request.isAll()) {
+            return photoSizeRepository.getAllPhotoSizesById();
+        }
+        Map<Integer, PhotoSizeDTO> photoSizes = new LinkedHashMap<>();
+        for (Integer id : request.getIds()) {
+            Optional<PhotoSizeDTO> photoSizeDTO = photoSizeRepository.findById(id);
+            if (photoSizeDTO.isEmpty()) {
+                throw new IllegalArgumentException("Photo size not found: " + id);
+            }
+            photoSizes.put(id, photoSizeDTO.get());
+        }
+        return photoSizes;
+    }
+
+    private void writeManifest(String key, BackfillManifest manifest) {
+        try {
+            storageService.put(key, objectMapper.writeValueAsBytes(manifest), "application/json");
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Renders the outputs of one source, like {@link CropService#storeAll}.
+     */
+    @FunctionalInterface
+    public interface Renderer {
+        /**
+         * @return The keys of the outputs in the bucket by photo size ID
+         */
+        Map<Integer, String> render(
+                String imageUrl,
+                Map<Integer, PhotoSizeDTO> photoSizes,
+                @Nullable FaceDetectionMode faceDetection,
+                MetricsLogger metrics
+        );
+    }
+}
@@ -0,0 +1,175 @@
+package com.github.omirzak.service;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounds the calls in flight to a downstream service with a limit that adapts to its throttling: additive
+ * increase, multiplicative decrease (AIMD).
+ * <p>
+ * Every call that completes without being throttled raises the limit by {@code 1 / limit}, so it grows by about
+ * one per round trip at full use. Every throttled call halves it. Callers beyond the limit wait for a permit, up to
+ * {@code maxWait}, after which they fail with a {@link ThrottledException} instead of queueing indefinitely.
+ * <p>
+ * Waiting uses a {@link ReentrantLock} rather than a monitor, since callers run on virtual threads. Instances are
+ * thread-safe.
+ */
+public class ConcurrencyLimiter {
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long maxWaitNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitReleased = lock.newCondition();
+
+    private double limit;
+    private int inFlight;
+    private long acquisitions;
+    private long throttles;
+    private long timeouts;
+    private long waitNanos;
+    private long maxWaitNanosObserved;
+
+    public ConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, Duration maxWait) {
+        if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("Limits must satisfy 1 <= min <= initial <= max");
+        }
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.limit = initialLimit;
+    }
+
+    /**
+     * Waits for a permit. The caller must settle it with exactly one of {@link Permit#succeeded()},
+     * {@link Permit#throttled()} or {@link Permit#release()}.
+     *
+     * @throws ThrottledException if no permit became available within the maximum wait
+     */
+    public Permit acquire() {
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            long remaining = maxWaitNanos;
+            while (inFlight >= (int) limit) {
+                if (remaining <= 0) {
+                    timeouts++;
+                    throw new ThrottledException("Timed out after %d ms waiting for one of %d %s slots".formatted(
+                            TimeUnit.NANOSECONDS.toMillis(maxWaitNanos), (int) limit, name));
+                }
+                try {
+                    remaining = permitReleased.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while waiting for a %s slot".formatted(name), e);
+                }
+            }
+            inFlight++;
+            acquisitions++;
+            long waited = System.nanoTime() - start;
+            waitNanos += waited;
+            maxWaitNanosObserved = Math.max(maxWaitNanosObserved, waited);
+            return new Permit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Stats stats() {
+        lock.lock();
+        try {
+            return new Stats((int) limit, inFlight, acquisitions, throttles, timeouts,
+                    TimeUnit.NANOSECONDS.toMillis(waitNanos), TimeUnit.NANOSECONDS.toMillis(maxWaitNanosObserved));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void settle(Outcome outcome) {
+        lock.lock();
+        try {
+            inFlight--;
+            switch (outcome) {
+                case SUCCEEDED -> limit = Math.min(maxLimit, limit + 1 / limit);
+                case THROTTLED -> {
+                    throttles++;
+                    limit = Math.max(minLimit, limit / 2);
+                }
+                case RELEASED -> {
+                }
+            }
+            permitReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A slot for one call. Settling it more than once has no effect.
+     */
+    public final class Permit {
+        private boolean settled;
+
+        private Permit() {
+        }
+
+        /**
+         * The call completed without being throttled.
+         */
+        public void succeeded() {
+            settle(Outcome.SUCCEEDED);
+        }
+
+        /**
+         * The call was throttled.
+         */
+        public void throttled() {
+            settle(Outcome.THROTTLED);
+        }
+
+        /**
+         * The call failed for another reason, which says nothing about the downstream capacity.
+         */
+        public void release() {
+            settle(Outcome.RELEASED);
+        }
+
+        private void settle(Outcome outcome) {
+            synchronized (this) {
+                if (settled) {
+                    return;
+                }
+                settled = true;
+            }
+            ConcurrencyLimiter.this.settle(outcome);
+        }
+    }
+
+    private enum Outcome {
+        SUCCEEDED, THROTTLED, RELEASED
+    }
+
+    /**
+     * @param limit          The current limit
+     * @param inFlight       The calls holding a permit
+     * @param acquisitions   The permits handed out so far
+     * @param throttles      The calls reported as throttled so far
+     * @param timeouts       The callers that gave up waiting for a permit
+     * @param waitMillis     The total time callers waited for permits
+     * @param maxWaitMillis  The longest single wait
+     */
+    public record Stats(
+            int limit,
+            int inFlight,
+            long acquisitions,
+            long throttles,
+            long timeouts,
+            long waitMillis,
+            long maxWaitMillis
+    ) {
+    }
+}
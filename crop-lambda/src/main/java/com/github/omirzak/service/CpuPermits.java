@@ -0,0 +1,77 @@
+package com.github.omirzak.service;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Bounds how many CPU-heavy stages (decoding, resizing and encoding) run at once across all requests, normally
+ * one per core.
+ * <p>
+ * Request threads decode their source themselves while the render executor resizes and encodes, and a server may
+ * take any number of requests at a time, so without a shared bound these stages would oversubscribe the cores and
+ * slow each other down. A permit must never be held while waiting on another stage, or requests could wait on
+ * each other's permits forever.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class CpuPermits {
+    private final Semaphore semaphore;
+    private final int permits;
+
+    public CpuPermits(int permits) {
+        this.semaphore = new Semaphore(permits);
+        this.permits = permits;
+    }
+
+    /**
+     * Blocks until a permit is available.
+     */
+    public Permit acquire() {
+        semaphore.acquireUninterruptibly();
+        return new Permit();
+    }
+
+    public int permits() {
+        return permits;
+    }
+
+    public int available() {
+        return semaphore.availablePermits();
+    }
+
+    /**
+     * A permit, returned by {@link #close()}. Closing it more than once has no effect.
+     */
+    public final class Permit implements AutoCloseable {
+        private boolean released;
+
+        private Permit() {
+        }
+
+        /**
+         * Hands the permit back while the given wait runs and takes one again afterwards, for CPU work that has to
+         * wait on another stage halfway through. A closed permit just runs the wait.
+         */
+        public void releaseWhile(Runnable wait) {
+            synchronized (this) {
+                if (released) {
+                    wait.run();
+                    return;
+                }
+                semaphore.release();
+            }
+            try {
+                wait.run();
+            } finally {
+                semaphore.acquireUninterruptibly();
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!released) {
+                released = true;
+                semaphore.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,625 @@
+package com.github.omirzak.service;
+
+import com.github.omirzak.dto.FaceCoordinate;
+import com.github.omirzak.dto.FaceDetectionMode;
+import com.github.omirzak.dto.ImageDimension;
+import com.github.omirzak.dto.PhotoSizeDTO;
+import com.github.omirzak.image.BufferPool;
+import com.github.omirzak.image.DecodePlan;
+import com.github.omirzak.image.DecodePlanner;
+import com.github.omirzak.image.EncodedImage;
+import com.github.omirzak.image.RenderPlanner;
+import com.github.omirzak.image.RenderStep;
+import com.github.omirzak.image.SourceImage;
+import com.github.omirzak.metrics.CounterDeltas;
+import com.github.omirzak.metrics.MetricsLogger;
+import com.github.omirzak.metrics.StageTimings;
+import org.jetbrains.annotations.Nullable;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Runs the crop pipeline: fetch the source, detect faces, crop, encode and upload.
+ * <p>
+ * Outputs are stored under deterministic keys, so a target that was already rendered from the same source
+ * is served by presigning the existing object without rendering or uploading again. Sources in S3 are identified
+ * by their ETag, so that path never downloads the source at all.
+ * <p>
+ * Blocking calls run on the I/O executor so they overlap: once the source is identified, the outputs are looked up,
+ * and only when some are missing is the header of the source read for the admission check, followed by face
+ * detection alongside the download of the source bytes. Reused outputs thus cost nothing but the lookups and the
+ * presigning, and sources that are too large are rejected before any detection work.
+ * <p>
+ * Output keys include the face detector, since detectors disagree about where the faces are. Lookups assume the
+ * detector the requested mode normally uses; when detection falls back to another one, the outputs are looked up
+ * again under its keys before rendering.
+ * <p>
+ * Decoding, resizing and encoding each take a {@link CpuPermits} permit, whichever thread runs them, so concurrent
+ * requests do not run more of them than there are cores.
+ */
+public class CropService {
+    private static final Logger logger = Logger.getLogger(CropService.class.getName());
+
+    /**
+     * The CloudWatch namespace of the metrics of requests that are not given a {@link MetricsLogger}; those metrics
+     * are never written.
+     */
+    private static final String METRICS_NAMESPACE = "CropService";
+
+    private final SourceLoader sourceLoader;
+    private final ImageService imageService;
+    private final RekognitionService rekognitionService;
+    private final StorageService storageService;
+    private final Executor renderExecutor;
+    private final Executor ioExecutor;
+    private final BufferPool bufferPool;
+    private final AdmissionControl admissionControl;
+    private final CpuPermits cpuPermits;
+    private final CounterDeltas counterDeltas = new CounterDeltas();
+
+    public CropService(
+            SourceLoader sourceLoader,
+            ImageService imageService,
+            RekognitionService rekognitionService,
+            StorageService storageService,
+            Executor renderExecutor,
+            Executor ioExecutor,
+            BufferPool bufferPool,
+            AdmissionControl admissionControl,
+            CpuPermits cpuPermits
+    ) {
+        this.sourceLoader = sourceLoader;
+        this.imageService = imageService;
+        this.rekognitionService = rekognitionService;
+        this.storageService = storageService;
+        this.renderExecutor = renderExecutor;
+        this.ioExecutor = ioExecutor;
+        this.bufferPool = bufferPool;
+        this.admissionControl = admissionControl;
+        this.cpuPermits = cpuPermits;
+    }
+
+    public String crop(String imageUrl, PhotoSizeDTO photoSizeDTO) {
+        return crop(imageUrl, photoSizeDTO, null, new MetricsLogger(METRICS_NAMESPACE));
+    }
+
+    /**
+     * @param faceDetection The face detector to use, or {@code null} for the default one
+     * @param metrics       Receives the stage timings, sizes and counts of the request
+     */
+    public String crop(
+            String imageUrl,
+            PhotoSizeDTO photoSizeDTO,
+            @Nullable FaceDetectionMode faceDetection,
+            MetricsLogger metrics
+    ) {
+        StageTimings timings = new StageTimings();
+        SourceImage sourceImage = resolve(imageUrl, timings);
+        String key = outputKey(sourceImage, photoSizeDTO, rekognitionService.detectorName(faceDetection));
+
+        String presignedUrl;
+        if (timings.time("lookup", () -> storageService.exists(key))) {
+            logger.fine(() -> "Reusing existing output: " + key);
+            metrics.putMetric("OutputsReused", 1, MetricsLogger.Unit.COUNT);
+            presignedUrl = presign(key, photoSizeDTO, timings);
+        } else {
+            CompletableFuture<Void> admitted = admit(imageUrl, sourceImage, metrics);
+            CompletableFuture<RekognitionService.Detection> detection =
+                    detectFaces(sourceImage, faceDetection, admitted, timings);
+            join(admitted);
+            CompletableFuture<byte[]> fetched = fetch(sourceImage, timings);
+            RekognitionService.Detection detected = join(detection);
+            metrics.putProperty("faceDetector", detected.detector());
+            String renderKey = outputKey(sourceImage, photoSizeDTO, detected.detector());
+            if (!renderKey.equals(key) && timings.time("lookup", () -> storageService.exists(renderKey))) {
+                logger.fine(() -> "Reusing existing output: " + renderKey);
+                metrics.putMetric("OutputsReused", 1, MetricsLogger.Unit.COUNT);
+            } else {
+                render(sourceImage, renderKey, detected.faces(), photoSizeDTO, fetched, timings, metrics);
+                metrics.putMetric("OutputsRendered", 1, MetricsLogger.Unit.COUNT);
+            }
+            presignedUrl = presign(renderKey, photoSizeDTO, timings);
+        }
+
+        logStats(sourceImage, timings, metrics);
+        return presignedUrl;
+    }
+
+    /**
+     * Renders a single target once the source is fetched, and uploads it under the key.
+     */
+    private void render(
+            SourceImage sourceImage,
+            String key,
+            List<FaceCoordinate> faceCoordinates,
+            PhotoSizeDTO photoSizeDTO,
+            CompletableFuture<byte[]> fetched,
+            StageTimings timings,
+            MetricsLogger metrics
+    ) {
+        join(fetched);
+        DecodePlan plan = planDecode(sourceImage, faceCoordinates, List.of(photoSizeDTO));
+        int stripRows = stripRows(plan);
+        try (MemoryBudget.Account.Reservation ignored = admissionControl.openAccount().reserveBase(
+                AdmissionControl.rasterBytes((long) stripRows * plan.decodedWidth() + pixels(photoSizeDTO)))) {
+            BufferedImage resultImage;
+            if (stripRows < plan.decodedHeight()) {
+                resultImage = renderTiled(sourceImage, plan, stripRows, List.of(photoSizeDTO), timings).get(0);
+            } else {
+                BufferedImage faceRegion = decodeFaceRegion(sourceImage, plan, timings);
+                resultImage = onCpu("resize", timings, () -> imageService.cropToTarget(faceRegion, photoSizeDTO));
+            }
+            join(encodeAndUpload(key, resultImage, photoSizeDTO, timings, metrics));
+        }
+    }
+
+    /**
+     * Crops the image to every requested size. Face detection and decoding run once, with the decode planned
+     * for all missing targets together. The {@link RenderPlanner} then renders every unique output once, deriving
+     * smaller outputs from larger ones of the same aspect ratio; resizing and encoding run on the render executor
+     * and uploads on the I/O executor, so uploads of finished outputs overlap with the remaining renders.
+     * <p>
+     * The decoded region is reserved from the memory budget for the whole request, and each output from when it
+     * is scheduled until it is uploaded, so a batch only renders as many outputs at a time as the budget allows.
+     * Regions above the decoded pixel limit are rendered in strips instead: all outputs that are not derived from
+     * another one are rendered in a single pass over the strips, reserved together with a strip up front.
+     *
+     * @param imageUrl   The source image URL
+     * @param photoSizes The target sizes keyed by their id
+     * @return The presigned URLs keyed by the same ids, in the same order
+     */
+    public Map<Integer, String> cropAll(String imageUrl, Map<Integer, PhotoSizeDTO> photoSizes) {
+        return cropAll(imageUrl, photoSizes, null, new MetricsLogger(METRICS_NAMESPACE));
+    }
+
+    /**
+     * @param faceDetection The face detector to use, or {@code null} for the default one
+     * @param metrics       Receives the stage timings, sizes and counts of the request
+     */
+    public Map<Integer, String> cropAll(
+            String imageUrl,
+            Map<Integer, PhotoSizeDTO> photoSizes,
+            @Nullable FaceDetectionMode faceDetection,
+            MetricsLogger metrics
+    ) {
+        return cropAll(imageUrl, photoSizes, faceDetection, metrics, true);
+    }
+
+    /**
+     * Like {@link #cropAll(String, Map, FaceDetectionMode, MetricsLogger)}, but returns the keys of the outputs in
+     * the bucket instead of presigned URLs, for callers that record them for longer than a presigned URL is valid.
+     */
+    public Map<Integer, String> storeAll(
+            String imageUrl,
+            Map<Integer, PhotoSizeDTO> photoSizes,
+            @Nullable FaceDetectionMode faceDetection,
+            MetricsLogger metrics
+    ) {
+        return cropAll(imageUrl, photoSizes, faceDetection, metrics, false);
+    }
+
+    private Map<Integer, String> cropAll(
+            String imageUrl,
+            Map<Integer, PhotoSizeDTO> photoSizes,
+            @Nullable FaceDetectionMode faceDetection,
+            MetricsLogger metrics,
+            boolean presign
+    ) {
+        StageTimings timings = new StageTimings();
+        SourceImage sourceImage = resolve(imageUrl, timings);
+
+        String detector = rekognitionService.detectorName(faceDetection);
+        Map<Integer, String> keys = new LinkedHashMap<>();
+        photoSizes.forEach((id, photoSizeDTO) -> keys.put(id, outputKey(sourceImage, photoSizeDTO, detector)));
+        Map<String, CompletableFuture<Boolean>> existing = lookUp(keys.values(), timings);
+        awaitAll(existing.values());
+
+        Map<Integer, PhotoSizeDTO> missing = new LinkedHashMap<>(photoSizes);
+        missing.keySet().removeIf(id -> existing.get(keys.get(id)).join());
+
+        Map<Integer, CompletableFuture<String>> rendered = new HashMap<>();
+        MemoryBudget.Account.Reservation base = null;
+        try {
+            RekognitionService.Detection detected = null;
+            CompletableFuture<byte[]> fetched = null;
+            if (!missing.isEmpty()) {
+                CompletableFuture<Void> admitted = admit(imageUrl, sourceImage, metrics);
+                CompletableFuture<RekognitionService.Detection> detection =
+                        detectFaces(sourceImage, faceDetection, admitted, timings);
+                join(admitted);
+                fetched = fetch(sourceImage, timings);
+                detected = join(detection);
+                metrics.putProperty("faceDetector", detected.detector());
+                if (!detected.detector().equals(detector)) {
+                    rekey(sourceImage, missing, keys, detected.detector(), timings);
+                }
+            }
+            if (!missing.isEmpty()) {
+                join(fetched);
+                String renderDetector = detected.detector();
+                DecodePlan plan = planDecode(sourceImage, detected.faces(), missing.values());
+                int stripRows = stripRows(plan);
+                List<RenderStep> steps = RenderPlanner.plan(missing,
+                        photoSizeDTO -> outputKey(sourceImage, photoSizeDTO, renderDetector));
+                logger.fine(() -> "Planned %d render(s) for %d target(s), %d derived from a larger output".formatted(
+                        steps.size(), missing.size(), steps.stream().filter(RenderStep::isDerived).count()));
+                metrics.putMetric("OutputsRendered", steps.size(), MetricsLogger.Unit.COUNT);
+                MemoryBudget.Account account = admissionControl.openAccount();
+
+                if (stripRows < plan.decodedHeight()) {
+                    List<RenderStep> roots = steps.stream().filter(step -> !step.isDerived()).toList();
+                    long rootPixels = roots.stream().mapToLong(step -> pixels(step.photoSize())).sum();
+                    base = account.reserveBase(
+                            AdmissionControl.rasterBytes((long) stripRows * plan.decodedWidth() + rootPixels));
+                    List<BufferedImage> images = renderTiled(sourceImage, plan, stripRows,
+                            roots.stream().map(RenderStep::photoSize).toList(), timings);
+                    Map<String, BufferedImage> rootImages = new HashMap<>();
+                    for (int i = 0; i < roots.size(); i++) {
+                        rootImages.put(roots.get(i).key(), images.get(i));
+                    }
+                    rendered.putAll(renderAll(steps, missing, step -> rootImages.get(step.key()), true, presign,
+                            account, timings, metrics));
+                } else {
+                    base = account.reserveBase(AdmissionControl.rasterBytes(plan.decodedPixels()));
+                    BufferedImage faceRegion = decodeFaceRegion(sourceImage, plan, timings);
+                    rendered.putAll(renderAll(steps, missing,
+                            step -> onCpu("resize", timings, () -> imageService.cropToTarget(faceRegion, step.photoSize())),
+                            false, presign, account, timings, metrics));
+                }
+            }
+            awaitAll(rendered.values());
+        } finally {
+            if (base != null) {
+                base.close();
+            }
+        }
+
+        metrics.putMetric("OutputsReused", photoSizes.size() - missing.size(), MetricsLogger.Unit.COUNT);
+        Map<Integer, CompletableFuture<String>> futures = new LinkedHashMap<>();
+        photoSizes.forEach((id, photoSizeDTO) -> futures.put(id, missing.containsKey(id)
+                ? rendered.get(id)
+                : CompletableFuture.completedFuture(locate(keys.get(id), photoSizeDTO, presign, timings))));
+
+        Map<Integer, String> locations = new LinkedHashMap<>();
+        futures.forEach((id, future) -> locations.put(id, future.join()));
+
+        logStats(sourceImage, timings, metrics);
+        return locations;
+    }
+
+    /**
+     * Renders, encodes and uploads each planned output once, then presigns it for every id it serves, since the
+     * presigned download name differs per photo size.
+     * <p>
+     * The planner chains outputs of the same aspect ratio, each derived from the previous one, so an output's raster
+     * is read until the next one in its chain is resized. Every chain is therefore reserved from the account as a
+     * whole, on the calling thread before it is scheduled, and released once all of its outputs are uploaded.
+     * Reserving the outputs one by one instead would either release a raster that is still being read, or make a
+     * derived output wait for budget held by its own parent. Waiting for a reservation holds back the rest of the
+     * batch while the budget is exhausted.
+     *
+     * @param renderRoot    Renders an output that is not derived from another one
+     * @param rootsReserved Whether the outputs of {@code renderRoot} are already covered by the base reservation
+     * @param presign       Whether to presign the outputs or return their keys
+     */
+    private Map<Integer, CompletableFuture<String>> renderAll(
+            List<RenderStep> steps,
+            Map<Integer, PhotoSizeDTO> missing,
+            Function<RenderStep, BufferedImage> renderRoot,
+            boolean rootsReserved,
+            boolean presign,
+            MemoryBudget.Account account,
+            StageTimings timings,
+            MetricsLogger metrics
+    ) {
+        List<List<RenderStep>> chains = new ArrayList<>();
+        for (RenderStep step : steps) {
+            if (!step.isDerived()) {
+                chains.add(new ArrayList<>());
+            }
+            chains.get(chains.size() - 1).add(step);
+        }
+
+        Map<String, CompletableFuture<BufferedImage>> resizedImages = new HashMap<>();
+        Map<Integer, CompletableFuture<String>> locations = new HashMap<>();
+        for (List<RenderStep> chain : chains) {
+            long chainPixels = chain.stream()
+                    .filter(step -> step.isDerived() || !rootsReserved)
+                    .mapToLong(step -> pixels(step.photoSize()))
+                    .sum();
+            MemoryBudget.Account.Reservation reservation = chainPixels > 0
+                    ? account.reserve(AdmissionControl.rasterBytes(chainPixels))
+                    : null;
+
+            List<CompletableFuture<Void>> uploads = new ArrayList<>();
+            for (RenderStep step : chain) {
+                PhotoSizeDTO target = step.photoSize();
+                CompletableFuture<BufferedImage> resizedImage = step.isDerived()
+                        ? resizedImages.get(step.parentKey()).thenApplyAsync(
+                        parent -> onCpu("resize", timings, () -> resizeFromParent(parent, target)), renderExecutor)
+                        : CompletableFuture.supplyAsync(() -> renderRoot.apply(step), renderExecutor);
+                resizedImages.put(step.key(), resizedImage);
+
+                CompletableFuture<Void> uploaded = resizedImage.thenComposeAsync(
+                        image -> encodeAndUpload(step.key(), image, target, timings, metrics), renderExecutor);
+                uploads.add(uploaded);
+                for (Integer id : step.ids()) {
+                    PhotoSizeDTO photoSizeDTO = missing.get(id);
+                    locations.put(id, uploaded.thenApply(
+                            ignored -> locate(step.key(), photoSizeDTO, presign, timings)));
+                }
+            }
+            if (reservation != null) {
+                CompletableFuture.allOf(uploads.toArray(CompletableFuture[]::new))
+                        .whenComplete((ignored, e) -> reservation.close());
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * Resizes the output of a larger target with the same aspect ratio. Outputs that only differ in format or
+     * byte budget have the same dimensions and reuse the parent pixels as they are.
+     */
+    private BufferedImage resizeFromParent(BufferedImage parent, PhotoSizeDTO photoSizeDTO) {
+        if (parent.getWidth() == photoSizeDTO.width() && parent.getHeight() == photoSizeDTO.height()) {
+            return parent;
+        }
+        return imageService.cropToTarget(parent, photoSizeDTO);
+    }
+
+    /**
+     * Loads the source and computes its content hash, which every output key depends on. Sources that cannot be
+     * identified by a version tag are downloaded here to hash their bytes.
+     */
+    private SourceImage resolve(String imageUrl, StageTimings timings) {
+        SourceImage sourceImage = sourceLoader.load(imageUrl);
+        timings.time("resolve", sourceImage::contentHash);
+        return sourceImage;
+    }
+
+    /**
+     * Rejects sources that are too large to render from their header, before they are downloaded or detected on.
+     * Only started when something has to be rendered, so existing outputs of such sources are still served.
+     */
+    private CompletableFuture<Void> admit(String imageUrl, SourceImage sourceImage, MetricsLogger metrics) {
+        return CompletableFuture.runAsync(() -> {
+            ImageDimension dimension = sourceImage.dimension();
+            metrics.putMetric("SourcePixels", (double) dimension.width() * dimension.height(),
+                    MetricsLogger.Unit.COUNT);
+            admissionControl.admit(imageUrl, dimension);
+        }, ioExecutor);
+    }
+
+    /**
+     * Downloads the source bytes for decoding, overlapping with face detection.
+     */
+    private CompletableFuture<byte[]> fetch(SourceImage sourceImage, StageTimings timings) {
+        return CompletableFuture.supplyAsync(() -> timings.time("fetch", sourceImage::bytes), ioExecutor);
+    }
+
+    private CompletableFuture<RekognitionService.Detection> detectFaces(
+            SourceImage sourceImage,
+            @Nullable FaceDetectionMode faceDetection,
+            CompletableFuture<Void> admitted,
+            StageTimings timings
+    ) {
+        return admitted.thenApplyAsync(ignored -> timings.time("detect",
+                () -> rekognitionService.detectFaces(sourceImage, faceDetection)), ioExecutor);
+    }
+
+    /**
+     * Checks which of the outputs exist, each distinct key once.
+     */
+    private Map<String, CompletableFuture<Boolean>> lookUp(Collection<String> keys, StageTimings timings) {
+        Map<String, CompletableFuture<Boolean>> existing = new LinkedHashMap<>();
+        for (String key : keys) {
+            existing.computeIfAbsent(key, k -> CompletableFuture.supplyAsync(
+                    () -> timings.time("lookup", () -> storageService.exists(k)), ioExecutor));
+        }
+        return existing;
+    }
+
+    /**
+     * Moves the missing outputs to the keys of the detector that actually found the faces, and drops those that
+     * already exist under them.
+     */
+    private void rekey(
+            SourceImage sourceImage,
+            Map<Integer, PhotoSizeDTO> missing,
+            Map<Integer, String> keys,
+            String detector,
+            StageTimings timings
+    ) {
+        missing.forEach((id, photoSizeDTO) -> keys.put(id, outputKey(sourceImage, photoSizeDTO, detector)));
+        Map<String, CompletableFuture<Boolean>> existing = lookUp(
+                missing.keySet().stream().map(keys::get).toList(), timings);
+        awaitAll(existing.values());
+        missing.keySet().removeIf(id -> existing.get(keys.get(id)).join());
+    }
+
+    private String outputKey(SourceImage sourceImage, PhotoSizeDTO photoSizeDTO, String detector) {
+        return storageService.outputKey(sourceImage.contentHash(),
+                imageService.renderSignature(photoSizeDTO) + ";faces=" + detector, photoSizeDTO.format());
+    }
+
+    /**
+     * Plans to decode only the region around the faces, subsampled as far as the targets allow.
+     */
+    private DecodePlan planDecode(SourceImage sourceImage, List<FaceCoordinate> faceCoordinates, Collection<PhotoSizeDTO> targets) {
+        return DecodePlanner.plan(sourceImage.dimension(), faceCoordinates, targets);
+    }
+
+    private BufferedImage decodeFaceRegion(SourceImage sourceImage, DecodePlan plan, StageTimings timings) {
+        BufferedImage faceRegion = onCpu("decode", timings, () -> sourceImage.decodeRegion(plan));
+        logger.fine(() -> "Decoded region %s at 1/%d subsampling into %dx%d".formatted(
+                plan.sourceRegion(), plan.subsampling(), faceRegion.getWidth(), faceRegion.getHeight()));
+        return faceRegion;
+    }
+
+    /**
+     * Renders the targets from strips of the planned region, for regions too large to decode at once.
+     */
+    /**
+     * Rows of the plan decoded at once, fewer than the whole region only when the resize strategy renders strips
+     * without assembling the region again.
+     */
+    private int stripRows(DecodePlan plan) {
+        return imageService.canRenderTiled() ? admissionControl.stripRows(plan) : plan.decodedHeight();
+    }
+
+    private List<BufferedImage> renderTiled(
+            SourceImage sourceImage,
+            DecodePlan plan,
+            int stripRows,
+            List<PhotoSizeDTO> targets,
+            StageTimings timings
+    ) {
+        List<BufferedImage> images = onCpu("tiled", timings, () -> imageService.renderTiled(sourceImage, plan, stripRows, targets));
+        logger.fine(() -> "Rendered %d target(s) from region %s at 1/%d subsampling in %d strip(s) of up to %d rows".formatted(
+                targets.size(), plan.sourceRegion(), plan.subsampling(),
+                (plan.decodedHeight() + stripRows - 1) / stripRows, stripRows));
+        return images;
+    }
+
+    private static long pixels(PhotoSizeDTO photoSizeDTO) {
+        return (long) photoSizeDTO.width() * photoSizeDTO.height();
+    }
+
+    /**
+     * Encodes the image on the calling thread and uploads it on the I/O executor. Targets that can be streamed are
+     * encoded straight into a multipart upload, so parts go out while the rest is still being encoded; targets with
+     * a byte budget are encoded in memory first, since their quality search needs the whole output.
+     */
+    private CompletableFuture<Void> encodeAndUpload(
+            String key,
+            BufferedImage resultImage,
+            PhotoSizeDTO photoSizeDTO,
+            StageTimings timings,
+            MetricsLogger metrics
+    ) {
+        metrics.putMetric("TargetPixels", pixels(photoSizeDTO), MetricsLogger.Unit.COUNT);
+        if (!imageService.canStream(photoSizeDTO)) {
+            EncodedImage encodedImage = encode(resultImage, photoSizeDTO, timings);
+            metrics.putMetric("OutputBytes", encodedImage.size(), MetricsLogger.Unit.BYTES);
+            return CompletableFuture.runAsync(() -> upload(key, encodedImage, photoSizeDTO, timings), ioExecutor);
+        }
+
+        S3MultipartOutputStream output = storageService.openUpload(key, photoSizeDTO.format(),
+                task -> ioExecutor.execute(() -> timings.time("upload", task)));
+        try (CpuPermits.Permit permit = timings.time("cpuWait", cpuPermits::acquire)) {
+            output.releaseWhileWaiting(permit);
+            timings.time("encode", () -> imageService.encodeImageTo(resultImage, photoSizeDTO, output));
+        } catch (RuntimeException e) {
+            output.abort();
+            throw e;
+        }
+        output.close();
+        metrics.putMetric("OutputBytes", output.size(), MetricsLogger.Unit.BYTES);
+        logger.fine(() -> "Streamed %s: %d bytes in %d part(s)".formatted(
+                photoSizeDTO.constructFileName(), output.size(), output.partCount()));
+        return output.completion();
+    }
+
+    private EncodedImage encode(BufferedImage resultImage, PhotoSizeDTO photoSizeDTO, StageTimings timings) {
+        EncodedImage encodedImage = onCpu("encode", timings, () -> imageService.encodeImage(resultImage, photoSizeDTO));
+        logger.fine(() -> "Encoded %s: %d bytes (budget %s) at quality %.3f after %d iteration(s)".formatted(
+                photoSizeDTO.constructFileName(), encodedImage.size(), photoSizeDTO.sizeInBytes(),
+                encodedImage.quality(), encodedImage.iterations()));
+        return encodedImage;
+    }
+
+    /**
+     * Uploads the encoded image and returns its buffer to the pool, whether or not the upload succeeded.
+     */
+    private void upload(String key, EncodedImage encodedImage, PhotoSizeDTO photoSizeDTO, StageTimings timings) {
+        try {
+            timings.time("upload", () -> storageService.upload(key, encodedImage, photoSizeDTO.format()));
+        } finally {
+            encodedImage.release();
+        }
+    }
+
+    /**
+     * Runs a CPU-heavy stage under a CPU permit. The wait for the permit is timed separately as {@code cpuWait}.
+     */
+    private <T> T onCpu(String stage, StageTimings timings, Supplier<T> work) {
+        try (CpuPermits.Permit ignored = timings.time("cpuWait", cpuPermits::acquire)) {
+            return timings.time(stage, work);
+        }
+    }
+
+    private void onCpu(String stage, StageTimings timings, Runnable work) {
+        try (CpuPermits.Permit ignored = timings.time("cpuWait", cpuPermits::acquire)) {
+            timings.time(stage, work);
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private static void awaitAll(Collection<? extends CompletableFuture<?>> futures) {
+        join(CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)));
+    }
+
+    private String presign(String key, PhotoSizeDTO photoSizeDTO, StageTimings timings) {
+        return timings.time("presign", () -> storageService.presign(key, photoSizeDTO));
+    }
+
+    private String locate(String key, PhotoSizeDTO photoSizeDTO, boolean presign, StageTimings timings) {
+        return presign ? presign(key, photoSizeDTO, timings) : key;
+    }
+
+    /**
+     * Puts the request totals into the metrics, and logs the details behind them at the fine level. Counters kept
+     * by the shared components for the life of the process are put as their increase since the last invocation
+     * reported them.
+     */
+    private void logStats(SourceImage sourceImage, StageTimings timings, MetricsLogger metrics) {
+        metrics.putTimings(timings);
+        metrics.putMetric("SourceBytes", sourceImage.bytesFetched(), MetricsLogger.Unit.BYTES);
+        metrics.putMetric("SourceFetches", sourceImage.fetchCount(), MetricsLogger.Unit.COUNT);
+        BufferPool.Stats bufferPoolStats = bufferPool.stats();
+        metrics.putMetric("BufferPoolIdleBytes", bufferPoolStats.idleBytes(), MetricsLogger.Unit.BYTES);
+        putDelta(metrics, "BufferPoolReuses", bufferPoolStats.reuses(), MetricsLogger.Unit.COUNT);
+        putDelta(metrics, "BufferPoolAllocatedBytes", bufferPoolStats.allocatedBytes(), MetricsLogger.Unit.BYTES);
+        RekognitionService.Stats detectionStats = rekognitionService.stats();
+        ConcurrencyLimiter.Stats limiterStats = detectionStats.rekognition().limiter();
+        metrics.putMetric("RekognitionConcurrencyLimit", limiterStats.limit(), MetricsLogger.Unit.COUNT);
+        putDelta(metrics, "RekognitionThrottles", limiterStats.throttles(), MetricsLogger.Unit.COUNT);
+        putDelta(metrics, "RekognitionTimeouts", limiterStats.timeouts(), MetricsLogger.Unit.COUNT);
+        putDelta(metrics, "RekognitionWaitTime", limiterStats.waitMillis(), MetricsLogger.Unit.MILLISECONDS);
+        putDelta(metrics, "RekognitionRetries", detectionStats.rekognition().retries(), MetricsLogger.Unit.COUNT);
+        putDelta(metrics, "FaceDetectionsCoalesced", detectionStats.coalesced(), MetricsLogger.Unit.COUNT);
+        putDelta(metrics, "FaceDetectionFallbacks", detectionStats.fallbacks(), MetricsLogger.Unit.COUNT);
+
+        logger.fine(() -> "Source image fetched %d time(s), %d bytes (%s)".formatted(
+                sourceImage.fetchCount(), sourceImage.bytesFetched(), sourceLoader.cacheStats()));
+        logger.fine(() -> "Stage timings: " + timings);
+        logger.fine(() -> "Buffer pool: %s, face detection: %s".formatted(bufferPoolStats, detectionStats));
+    }
+
+    private void putDelta(MetricsLogger metrics, String name, long total, MetricsLogger.Unit unit) {
+        metrics.putMetric(name, counterDeltas.delta(name, total), unit);
+    }
+}
@@ -0,0 +1,117 @@
+package com.github.omirzak.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.omirzak.dto.FaceBox;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Content-addressed cache of face detection results, keyed by the detector name and the content hash of the source
+ * image, as {@code <detector>/<contentHash>}.
+ * <p>
+ * Lookups go through an in-process LRU map first, which survives between invocations of a warm Lambda
+ * container, and then through small JSON objects stored in S3 under {@code face-cache/}.
+ */
+public class FaceDetectionCache {
+    private static final Logger logger = Logger.getLogger(FaceDetectionCache.class.getName());
+    private static final String KEY_PREFIX = "face-cache/";
+    private static final TypeReference<List<FaceBox>> FACE_BOXES = new TypeReference<>() {
+    };
+
+    private final S3Client s3Client;
+    private final String bucketName;
+    private final ObjectMapper objectMapper;
+    private final Map<String, List<FaceBox>> memoryCache;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong persistentHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong persistentLookupNanos = new AtomicLong();
+
+    public FaceDetectionCache(S3Client s3Client, String bucketName, ObjectMapper objectMapper, int capacity) {
+        this.s3Client = s3Client;
+        this.bucketName = bucketName;
+        this.objectMapper = objectMapper;
+        this.memoryCache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<FaceBox>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public Optional<List<FaceBox>> get(String key) {
+        List<FaceBox> faceBoxes;
+        synchronized (memoryCache) {
+            faceBoxes = memoryCache.get(key);
+        }
+        if (faceBoxes != null) {
+            memoryHits.incrementAndGet();
+            return Optional.of(faceBoxes);
+        }
+
+        long start = System.nanoTime();
+        try {
+            faceBoxes = readPersistent(key);
+        } finally {
+            persistentLookupNanos.addAndGet(System.nanoTime() - start);
+        }
+        if (faceBoxes == null) {
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+
+        persistentHits.incrementAndGet();
+        synchronized (memoryCache) {
+            memoryCache.put(key, faceBoxes);
+        }
+        return Optional.of(faceBoxes);
+    }
+
+    public void put(String key, List<FaceBox> faceBoxes) {
+        List<FaceBox> copy = List.copyOf(faceBoxes);
+        synchronized (memoryCache) {
+            memoryCache.put(key, copy);
+        }
+        try {
+            s3Client.putObject(
+                    b -> b.bucket(bucketName).key(KEY_PREFIX + key + ".json").contentType("application/json"),
+                    RequestBody.fromBytes(objectMapper.writeValueAsBytes(copy)));
+        } catch (IOException | SdkException e) {
+            logger.warning("Failed to persist face detection result for " + key + ": " + e.getMessage());
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(memoryHits.get(), persistentHits.get(), misses.get(), persistentLookupNanos.get() / 1_000_000);
+    }
+
+    private List<FaceBox> readPersistent(String key) {
+        try {
+            ResponseBytes<GetObjectResponse> object =
+                    s3Client.getObjectAsBytes(b -> b.bucket(bucketName).key(KEY_PREFIX + key + ".json"));
+            return List.copyOf(objectMapper.readValue(object.asByteArrayUnsafe(), FACE_BOXES));
+        } catch (NoSuchKeyException e) {
+            return null;
+        } catch (IOException | SdkException e) {
+            logger.warning("Failed to read face detection result for " + key + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public record Stats(long memoryHits, long persistentHits, long misses, long persistentLookupMillis) {
+    }
+}
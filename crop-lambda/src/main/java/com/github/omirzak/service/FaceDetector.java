@@ -0,0 +1,23 @@
+package com.github.omirzak.service;
+
+import com.github.omirzak.dto.FaceBox;
+import com.github.omirzak.image.SourceImage;
+
+import java.util.List;
+
+/**
+ * Finds the faces in a source image. Results are cached by the {@link RekognitionService} per detector, keyed by
+ * the detector name and the source content.
+ */
+public interface FaceDetector {
+    /**
+     * @return The detected faces relative to the full source image, or an empty list if there are none
+     */
+    List<FaceBox> detect(SourceImage sourceImage);
+
+    /**
+     * Identifies the detector in cache and output keys. Change it whenever the detector starts finding different
+     * faces, so results of the old version are not reused.
+     */
+    String name();
+}
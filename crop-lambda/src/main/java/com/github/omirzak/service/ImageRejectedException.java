@@ -0,0 +1,10 @@
+package com.github.omirzak.service;
+
+/**
+ * Thrown when a source image exceeds the configured size limits, before it is downloaded or decoded in full.
+ */
+public class ImageRejectedException extends RuntimeException {
+    public ImageRejectedException(String message) {
+        super(message);
+    }
+}
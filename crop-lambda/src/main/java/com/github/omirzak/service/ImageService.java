@@ -2,14 +2,49 @@ package com.github.omirzak.service;
 
 import com.github.omirzak.dto.FaceCoordinate;
 import com.github.omirzak.dto.PhotoSizeDTO;
-import org.jetbrains.annotations.NotNull;
+import com.github.omirzak.image.DecodePlan;
+import com.github.omirzak.image.EncodedImage;
+import com.github.omirzak.image.SourceImage;
 
 import java.awt.image.BufferedImage;
+import java.io.OutputStream;
 import java.util.List;
 
 public interface ImageService {
-    @NotNull
-    BufferedImage getImageFromUrl(String imageUrl);
-
     BufferedImage cropImage(BufferedImage image, PhotoSizeDTO photoSizeDTO, List<FaceCoordinate> faceCoordinates);
+
+    /**
+     * Crops an image that is already centered on the faces to the target aspect ratio and resizes it to
+     * the target size.
+     */
+    BufferedImage cropToTarget(BufferedImage croppedImage, PhotoSizeDTO photoSizeDTO);
+
+    /**
+     * Renders the targets like {@link #cropToTarget} of the planned region, but decodes the region in strips of
+     * {@code stripRows} decoded rows instead of all at once.
+     *
+     * @return The rendered targets, in the same order
+     */
+    List<BufferedImage> renderTiled(SourceImage sourceImage, DecodePlan plan, int stripRows, List<PhotoSizeDTO> targets);
+
+    /**
+     * Whether {@link #renderTiled} holds less than the decoded region. When it does not, every target assembles
+     * its own copy of the region and decoding it at once takes less memory.
+     */
+    boolean canRenderTiled();
+
+    EncodedImage encodeImage(BufferedImage image, PhotoSizeDTO photoSizeDTO);
+
+    /**
+     * Whether the target can be encoded with {@link #encodeImageTo}, straight into an output stream.
+     */
+    boolean canStream(PhotoSizeDTO photoSizeDTO);
+
+    void encodeImageTo(BufferedImage image, PhotoSizeDTO photoSizeDTO, OutputStream output);
+
+    /**
+     * Describes every setting besides the source image that affects the rendered output bytes for the given
+     * photo size. Two renders with equal signatures of the same source produce the same output.
+     */
+    String renderSignature(PhotoSizeDTO photoSizeDTO);
 }
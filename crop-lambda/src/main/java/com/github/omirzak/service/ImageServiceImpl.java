@@ -3,18 +3,21 @@ package com.github.omirzak.service;
 import com.github.omirzak.config.DependencyFactory;
 import com.github.omirzak.dto.FaceCoordinate;
 import com.github.omirzak.dto.PhotoSizeDTO;
-import com.github.omirzak.dto.Point;
+import com.github.omirzak.image.DecodePlan;
+import com.github.omirzak.image.EncodedImage;
+import com.github.omirzak.image.ImageEncoder;
+import com.github.omirzak.image.Resampler;
+import com.github.omirzak.image.SourceImage;
+import com.github.omirzak.image.TiledRenderer;
 import com.github.omirzak.util.AspectRatioUtil;
-import org.jetbrains.annotations.NotNull;
+import com.github.omirzak.util.CropRegionUtil;
 
 import javax.imageio.ImageIO;
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.net.URI;
-import java.net.URL;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
@@ -22,20 +25,27 @@ import java.util.logging.Logger;
 
 public class ImageServiceImpl implements ImageService {
     private static final double ASPECT_RATIO_THRESHOLD = 0.01;
+    /**
+     * Bump whenever cropping, resizing or encoding changes so previously rendered outputs are not reused.
+     */
+    private static final int RENDER_VERSION = 3;
 
-    @NotNull
-    public BufferedImage getImageFromUrl(String imageUrl) {
-        try {
-            URL url = URI.create(imageUrl).toURL();
-            return ImageIO.read(url);
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to read the image from URL: " + imageUrl);
-        }
+    private final ImageEncoder imageEncoder;
+    private final Resampler resampler;
+
+    public ImageServiceImpl(ImageEncoder imageEncoder, Resampler resampler) {
+        this.imageEncoder = imageEncoder;
+        this.resampler = resampler;
     }
 
     @Override
     public BufferedImage cropImage(BufferedImage image, PhotoSizeDTO photoSizeDTO, List<FaceCoordinate> faceCoordinates) {
         BufferedImage croppedImage = cropImageAroundFace(image, faceCoordinates);
+        return cropToTarget(croppedImage, photoSizeDTO);
+    }
+
+    @Override
+    public BufferedImage cropToTarget(BufferedImage croppedImage, PhotoSizeDTO photoSizeDTO) {
         double[] aspectRatio = AspectRatioUtil.calculateAspectRatio(
                 photoSizeDTO.width(), photoSizeDTO.height()
         );
@@ -46,88 +56,67 @@ public class ImageServiceImpl implements ImageService {
         return resizedImage;
     }
 
-    private BufferedImage cropImageAroundFace(BufferedImage originalImage, List<FaceCoordinate> faceCoordinates) {
-        int imageWidth = originalImage.getWidth();
-        int imageHeight = originalImage.getHeight();
-
-        assertValidFaceCoordinates(originalImage, faceCoordinates);
-
-        Point faceCenter = calculateCenterOfFaces(faceCoordinates);
-
-        int minHalfWidth = Math.min(faceCenter.x(), imageWidth - faceCenter.x());
-        int minHalfHeight = Math.min(faceCenter.y(), imageHeight - faceCenter.y());
-
-        int cropWidth = minHalfWidth * 2;
-        int cropHeight = minHalfHeight * 2;
-
-        int cropX = faceCenter.x() - minHalfWidth;
-        int cropY = faceCenter.y() - minHalfHeight;
-
-        return originalImage.getSubimage(cropX, cropY, cropWidth, cropHeight);
+    @Override
+    public List<BufferedImage> renderTiled(SourceImage sourceImage, DecodePlan plan, int stripRows, List<PhotoSizeDTO> targets) {
+        List<TiledRenderer.Target> tiledTargets = targets.stream().map(photoSizeDTO -> {
+            double[] aspectRatio = AspectRatioUtil.calculateAspectRatio(photoSizeDTO.width(), photoSizeDTO.height());
+            Rectangle region = CropRegionUtil.aspectRatioRegion(
+                    plan.decodedWidth(), plan.decodedHeight(), aspectRatio[0], aspectRatio[1]);
+            checkAspectRatio(region.width, region.height, photoSizeDTO.width(), photoSizeDTO.height());
+            return new TiledRenderer.Target(region, photoSizeDTO.width(), photoSizeDTO.height());
+        }).toList();
+        return TiledRenderer.render(sourceImage, plan, stripRows, tiledTargets, resampler);
     }
 
-    private void assertValidFaceCoordinates(BufferedImage image, List<FaceCoordinate> faceCoordinates) {
-        int imageWidth = image.getWidth();
-        int imageHeight = image.getHeight();
-
-        for (FaceCoordinate face : faceCoordinates) {
-            if (face.left() < 0 || face.top() < 0 ||
-                    face.left() + face.width() > imageWidth ||
-                    face.top() + face.height() > imageHeight) {
-                throw new IllegalArgumentException("Invalid face coordinates: Face coordinates must be non-negative and within image dimensions.");
-            }
-        }
+    @Override
+    public boolean canRenderTiled() {
+        return resampler.streamsRows();
     }
 
-    private Point calculateCenterOfFaces(List<FaceCoordinate> faceCoordinates) {
-        if (faceCoordinates.isEmpty()) {
-            throw new IllegalArgumentException("Face coordinates list is empty");
-        }
+    @Override
+    public EncodedImage encodeImage(BufferedImage image, PhotoSizeDTO photoSizeDTO) {
+        return imageEncoder.encode(image, photoSizeDTO.format(), photoSizeDTO.sizeInBytes());
+    }
 
-        int leftMost = Integer.MAX_VALUE;
-        int rightMost = Integer.MIN_VALUE;
-        int topMost = Integer.MAX_VALUE;
-        int bottomMost = Integer.MIN_VALUE;
+    @Override
+    public boolean canStream(PhotoSizeDTO photoSizeDTO) {
+        return imageEncoder.canStream(photoSizeDTO.format(), photoSizeDTO.sizeInBytes());
+    }
 
-        for (FaceCoordinate face : faceCoordinates) {
-            leftMost = Math.min(leftMost, face.left());
-            rightMost = Math.max(rightMost, face.left() + face.width());
-            topMost = Math.min(topMost, face.top());
-            bottomMost = Math.max(bottomMost, face.top() + face.height());
-        }
+    @Override
+    public void encodeImageTo(BufferedImage image, PhotoSizeDTO photoSizeDTO, OutputStream output) {
+        imageEncoder.encodeTo(image, photoSizeDTO.format(), output);
+    }
 
-        int centerX = (leftMost + rightMost) / 2;
-        int centerY = (topMost + bottomMost) / 2;
+    @Override
+    public String renderSignature(PhotoSizeDTO photoSizeDTO) {
+        return "v%d;size=%dx%d;maxBytes=%s;format=%s;resize=%s;encoder=%s".formatted(
+                RENDER_VERSION, photoSizeDTO.width(), photoSizeDTO.height(), photoSizeDTO.sizeInBytes(),
+                photoSizeDTO.format().toLowerCase(), resampler.name(),
+                imageEncoder.signature(photoSizeDTO.format(), photoSizeDTO.sizeInBytes()));
+    }
 
-        return new Point(centerX, centerY);
+    private BufferedImage cropImageAroundFace(BufferedImage originalImage, List<FaceCoordinate> faceCoordinates) {
+        Rectangle region = CropRegionUtil.faceRegion(originalImage.getWidth(), originalImage.getHeight(), faceCoordinates);
+        return originalImage.getSubimage(region.x, region.y, region.width, region.height);
     }
 
     private BufferedImage cropToAspectRatio(BufferedImage original, double widthRatio, double heightRatio) {
         try {
-            double aspectRatio = widthRatio / heightRatio;
-            int originalWidth = original.getWidth();
-            int originalHeight = original.getHeight();
-
-            int croppedWidth, croppedHeight;
-            if (originalWidth / aspectRatio <= originalHeight) {
-                croppedWidth = originalWidth;
-                croppedHeight = (int) (croppedWidth / aspectRatio);
-            } else {
-                croppedHeight = originalHeight;
-                croppedWidth = (int) (croppedHeight * aspectRatio);
-            }
-
-            int x = (originalWidth - croppedWidth) / 2;
-            int y = (originalHeight - croppedHeight) / 2;
-
-            return original.getSubimage(x, y, croppedWidth, croppedHeight);
+            Rectangle region = CropRegionUtil.aspectRatioRegion(original.getWidth(), original.getHeight(), widthRatio, heightRatio);
+            return original.getSubimage(region.x, region.y, region.width, region.height);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
     private BufferedImage resizeImageWithAspectRatioCheck(BufferedImage originalImage, int targetWidth, int targetHeight) {
-        double originalRatio = (double) originalImage.getWidth() / originalImage.getHeight();
+        checkAspectRatio(originalImage.getWidth(), originalImage.getHeight(), targetWidth, targetHeight);
+        return resampler.resize(originalImage, targetWidth, targetHeight);
+    }
+
+    private static void checkAspectRatio(int width, int height, int targetWidth, int targetHeight) {
+        double originalRatio = (double) width / height;
         double targetRatio = (double) targetWidth / targetHeight;
 
         double aspectRatioDifference = Math.abs(originalRatio - targetRatio) / originalRatio;
@@ -137,25 +126,6 @@ public class ImageServiceImpl implements ImageService {
                             originalRatio, targetRatio, aspectRatioDifference * 100)
             );
         }
-
-        BufferedImage resizedImage = new BufferedImage(targetWidth, targetHeight, originalImage.getType());
-        Graphics2D g2d = resizedImage.createGraphics();
-
-        try {
-            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-            g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-
-            if (originalImage.getColorModel().hasAlpha()) {
-                g2d.setRenderingHint(RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
-            }
-
-            g2d.drawImage(originalImage, 0, 0, targetWidth, targetHeight, null);
-        } finally {
-            g2d.dispose();
-        }
-
-        return resizedImage;
     }
 
     private static final Logger logger = Logger.getLogger(ImageServiceImpl.class.getName());
@@ -173,6 +143,7 @@ public class ImageServiceImpl implements ImageService {
 
         Files.createDirectories(outputFolder);
         ImageServiceImpl imageService = (ImageServiceImpl) DependencyFactory.imageService();
+        SourceLoader sourceLoader = DependencyFactory.sourceLoader();
         RekognitionService rekognitionService = DependencyFactory.rekognitionService();
         List<PhotoSizeDTO> photoSizes = DependencyFactory.photoSizeRepository().getAllPhotoSizes();
 
@@ -180,9 +151,10 @@ public class ImageServiceImpl implements ImageService {
         for (String imageUrl : images) {
             String imageName1 = imageUrl.substring(imageUrl.lastIndexOf('/') + 1);
             logger.info("Processing image: %s".formatted(imageUrl));
-            List<FaceCoordinate> faceCoordinate = rekognitionService.detectFaces(imageUrl);
+            SourceImage sourceImage = sourceLoader.load(imageUrl);
+            List<FaceCoordinate> faceCoordinate = rekognitionService.detectFaces(sourceImage);
             logger.info("Face coordinates: %s".formatted(faceCoordinate));
-            BufferedImage image = imageService.getImageFromUrl(imageUrl);
+            BufferedImage image = sourceImage.decode();
             BufferedImage croppedFace = imageService.cropImageAroundFace(image, faceCoordinate);
             saveImage(croppedFace, imageName1 + "-cropped-face");
 
@@ -0,0 +1,241 @@
+package com.github.omirzak.service;
+
+import com.github.omirzak.dto.FaceBox;
+import com.github.omirzak.dto.ImageDimension;
+import com.github.omirzak.image.DecodePlan;
+import com.github.omirzak.image.SourceImage;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Detects faces in process, without network calls or model files, by segmenting skin tones.
+ * <p>
+ * The source is decoded subsampled to about {@code analysisSize} pixels on its longest side. Pixels are classified
+ * as skin by their chroma in YCbCr, which is largely independent of brightness and skin tone, and the mask is
+ * smoothed with a 3x3 majority filter. Connected skin regions that are large, compact and about as tall as they
+ * are wide become faces; regions much taller than wide are cut to face proportions from the top, which drops the
+ * neck. This is far less accurate than Rekognition, but good enough to center a crop on a portrait, and takes a
+ * few milliseconds on top of the decode.
+ */
+public class LocalFaceDetector implements FaceDetector {
+    public static final String NAME = "local-v1";
+
+    private static final int MIN_LUMA = 40;
+    private static final int MIN_CB = 77;
+    private static final int MAX_CB = 127;
+    private static final int MIN_CR = 133;
+    private static final int MAX_CR = 173;
+
+    /**
+     * Regions smaller than this share of the analyzed image are ignored.
+     */
+    private static final double MIN_AREA_RATIO = 0.0025;
+    private static final double MIN_FILL_RATIO = 0.45;
+    private static final double MIN_ASPECT_RATIO = 0.8;
+    /**
+     * Regions taller than this many times their width are cut to it.
+     */
+    private static final double MAX_ASPECT_RATIO = 1.4;
+    /**
+     * Regions smaller than this share of the largest face are taken for hands and the like.
+     */
+    private static final double MIN_RELATIVE_AREA = 0.3;
+    private static final int MAX_FACES = 8;
+
+    private final int analysisSize;
+    private final CpuPermits cpuPermits;
+
+    /**
+     * @param cpuPermits Bounds the decoding and analysis, which run once the source is downloaded
+     */
+    public LocalFaceDetector(int analysisSize, CpuPermits cpuPermits) {
+        this.analysisSize = analysisSize;
+        this.cpuPermits = cpuPermits;
+    }
+
+    @Override
+    public List<FaceBox> detect(SourceImage sourceImage) {
+        ImageDimension dimension = sourceImage.dimension();
+        int subsampling = Math.max(1, Math.max(dimension.width(), dimension.height()) / analysisSize);
+        sourceImage.bytes();
+        try (CpuPermits.Permit ignored = cpuPermits.acquire()) {
+            BufferedImage image = sourceImage.decodeRegion(
+                    new DecodePlan(new Rectangle(0, 0, dimension.width(), dimension.height()), subsampling));
+            return detect(image);
+        }
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    List<FaceBox> detect(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean[] mask = smooth(skinMask(image), width, height);
+
+        List<Region> regions = findRegions(mask, width, height);
+        long minArea = Math.max(16, (long) (MIN_AREA_RATIO * width * height));
+        List<Region> candidates = regions.stream()
+                .map(Region::toFaceProportions)
+                .filter(region -> region.area() >= minArea
+                        && region.fillRatio() >= MIN_FILL_RATIO
+                        && region.height() >= MIN_ASPECT_RATIO * region.width())
+                .sorted(Comparator.comparingLong(Region::area).reversed())
+                .toList();
+        if (candidates.isEmpty()) {
+            return List.of();
+        }
+
+        long largest = candidates.get(0).area();
+        return candidates.stream()
+                .filter(region -> region.area() >= MIN_RELATIVE_AREA * largest)
+                .limit(MAX_FACES)
+                .map(region -> new FaceBox(
+                        (float) region.minX() / width,
+                        (float) region.minY() / height,
+                        (float) region.width() / width,
+                        (float) region.height() / height))
+                .toList();
+    }
+
+    private static boolean[] skinMask(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean[] mask = new boolean[width * height];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                int rgb = row[x];
+                int r = (rgb >> 16) & 0xFF;
+                int g = (rgb >> 8) & 0xFF;
+                int b = rgb & 0xFF;
+                int luma = (77 * r + 150 * g + 29 * b) >> 8;
+                int cb = 128 + ((-43 * r - 85 * g + 128 * b) >> 8);
+                int cr = 128 + ((128 * r - 107 * g - 21 * b) >> 8);
+                mask[y * width + x] = luma >= MIN_LUMA
+                        && cb >= MIN_CB && cb <= MAX_CB
+                        && cr >= MIN_CR && cr <= MAX_CR;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Keeps the pixels whose 3x3 neighbourhood is mostly skin, which removes speckles and fills small gaps.
+     */
+    private static boolean[] smooth(boolean[] mask, int width, int height) {
+        boolean[] smoothed = new boolean[mask.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int skin = 0;
+                int total = 0;
+                for (int dy = Math.max(0, y - 1); dy <= Math.min(height - 1, y + 1); dy++) {
+                    for (int dx = Math.max(0, x - 1); dx <= Math.min(width - 1, x + 1); dx++) {
+                        total++;
+                        if (mask[dy * width + dx]) {
+                            skin++;
+                        }
+                    }
+                }
+                smoothed[y * width + x] = 2 * skin > total;
+            }
+        }
+        return smoothed;
+    }
+
+    /**
+     * Labels the 4-connected skin regions of the mask.
+     */
+    private static List<Region> findRegions(boolean[] mask, int width, int height) {
+        List<Region> regions = new ArrayList<>();
+        boolean[] visited = new boolean[mask.length];
+        int[] stack = new int[mask.length];
+        for (int start = 0; start < mask.length; start++) {
+            if (!mask[start] || visited[start]) {
+                continue;
+            }
+            int minX = width;
+            int minY = height;
+            int maxX = -1;
+            int maxY = -1;
+            int size = 0;
+            int[] rowCounts = new int[height];
+
+            int top = 0;
+            stack[top++] = start;
+            visited[start] = true;
+            while (top > 0) {
+                int index = stack[--top];
+                int x = index % width;
+                int y = index / width;
+                minX = Math.min(minX, x);
+                maxX = Math.max(maxX, x);
+                minY = Math.min(minY, y);
+                maxY = Math.max(maxY, y);
+                rowCounts[y]++;
+                size++;
+
+                if (x > 0 && mask[index - 1] && !visited[index - 1]) {
+                    visited[index - 1] = true;
+                    stack[top++] = index - 1;
+                }
+                if (x < width - 1 && mask[index + 1] && !visited[index + 1]) {
+                    visited[index + 1] = true;
+                    stack[top++] = index + 1;
+                }
+                if (y > 0 && mask[index - width] && !visited[index - width]) {
+                    visited[index - width] = true;
+                    stack[top++] = index - width;
+                }
+                if (y < height - 1 && mask[index + width] && !visited[index + width]) {
+                    visited[index + width] = true;
+                    stack[top++] = index + width;
+                }
+            }
+            if (size > 1) {
+                regions.add(new Region(minX, minY, maxX, maxY, size, rowCounts));
+            }
+        }
+        return regions;
+    }
+
+    /**
+     * A connected skin region, with the number of its pixels in each image row.
+     */
+    private record Region(int minX, int minY, int maxX, int maxY, long area, int[] rowCounts) {
+        int width() {
+            return maxX - minX + 1;
+        }
+
+        int height() {
+            return maxY - minY + 1;
+        }
+
+        double fillRatio() {
+            return (double) area / ((long) width() * height());
+        }
+
+        /**
+         * Cuts regions that are much taller than wide to face proportions from the top.
+         */
+        Region toFaceProportions() {
+            int maxHeight = (int) Math.ceil(MAX_ASPECT_RATIO * width());
+            if (height() <= maxHeight) {
+                return this;
+            }
+            int bottom = minY + maxHeight - 1;
+            long kept = 0;
+            for (int y = minY; y <= bottom; y++) {
+                kept += rowCounts[y];
+            }
+            return new Region(minX, minY, maxX, bottom, kept, rowCounts);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.github.omirzak.service;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounds the memory held by decoded and rendered rasters across concurrent requests.
+ * <p>
+ * Each request opens an {@link Account}. Its base reservation, the decoded source region, waits until it fits
+ * into the budget or nothing else is reserved. Further reservations for rendered outputs also wait until they
+ * fit, except when the account has none of them in flight: a request holding only its base can always render one
+ * output, so requests throttle each other without ever waiting on each other indefinitely. Waiting reservations
+ * check this again whenever anything is released, since the outputs of their own account may finish while they
+ * wait. The budget may be exceeded by up to one output per request for that reason.
+ * <p>
+ * Instances are thread-safe. Waiting uses a {@link Condition} rather than {@link Object#wait()}, so virtual threads
+ * unmount while they wait instead of holding on to their carrier.
+ */
+public class MemoryBudget {
+    private final long capacityBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private long reservedBytes;
+
+    public MemoryBudget(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+    }
+
+    public Account account() {
+        return new Account();
+    }
+
+    public long reservedBytes() {
+        lock.lock();
+        try {
+            return reservedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long capacityBytes() {
+        return capacityBytes;
+    }
+
+    /**
+     * @param output The account reserving an output, which may overcommit while it has no other output in flight,
+     *               or {@code null} for a base reservation
+     */
+    private void acquire(long bytes, Account output) {
+        lock.lock();
+        try {
+            while ((output == null || output.inFlight > 0) && reservedBytes > 0
+                    && reservedBytes + bytes > capacityBytes) {
+                released.awaitUninterruptibly();
+            }
+            reservedBytes += bytes;
+            if (output != null) {
+                output.inFlight++;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(long bytes, Account output) {
+        lock.lock();
+        try {
+            reservedBytes -= bytes;
+            if (output != null) {
+                output.inFlight--;
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The reservations of one request.
+     */
+    public final class Account {
+        /**
+         * The outputs holding a reservation, guarded by the budget lock.
+         */
+        private int inFlight;
+
+        private Account() {
+        }
+
+        /**
+         * Reserves the memory the request holds until it finishes. Blocks until it fits.
+         */
+        public Reservation reserveBase(long bytes) {
+            acquire(bytes, null);
+            return new Reservation(bytes, false);
+        }
+
+        /**
+         * Reserves memory for one output. Blocks until it fits, unless the account has no other output in flight.
+         */
+        public Reservation reserve(long bytes) {
+            acquire(bytes, this);
+            return new Reservation(bytes, true);
+        }
+
+        /**
+         * A reservation, returned to the budget by {@link #close()}. Closing it more than once has no effect.
+         */
+        public final class Reservation implements AutoCloseable {
+            private final long bytes;
+            private final boolean output;
+            private final AtomicBoolean released = new AtomicBoolean();
+
+            private Reservation(long bytes, boolean output) {
+                this.bytes = bytes;
+                this.output = output;
+            }
+
+            @Override
+            public void close() {
+                if (released.compareAndSet(false, true)) {
+                    release(bytes, output ? Account.this : null);
+                }
+            }
+        }
+    }
+}
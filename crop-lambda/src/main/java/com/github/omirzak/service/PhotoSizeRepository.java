@@ -4,7 +4,9 @@ import com.github.omirzak.dto.PhotoSizeDTO;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public class PhotoSizeRepository {
@@ -39,6 +41,14 @@ public class PhotoSizeRepository {
         return Collections.unmodifiableList(photoSizes);
     }
 
+    public Map<Integer, PhotoSizeDTO> getAllPhotoSizesById() {
+        Map<Integer, PhotoSizeDTO> photoSizesById = new LinkedHashMap<>();
+        for (int i = 0; i < photoSizes.size(); i++) {
+            photoSizesById.put(i + 1, photoSizes.get(i));
+        }
+        return photoSizesById;
+    }
+
     public Optional<PhotoSizeDTO> findById(Integer id) {
         if (id < 1 || id > photoSizes.size()) {
             return Optional.empty();
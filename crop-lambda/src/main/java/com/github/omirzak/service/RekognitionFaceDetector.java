@@ -0,0 +1,181 @@
+package com.github.omirzak.service;
+
+import com.github.omirzak.dto.FaceBox;
+import com.github.omirzak.image.DetectionImage;
+import com.github.omirzak.image.DetectionImageEncoder;
+import com.github.omirzak.image.S3Location;
+import com.github.omirzak.image.SourceImage;
+import com.github.omirzak.util.RetryUtil;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.rekognition.RekognitionClient;
+import software.amazon.awssdk.services.rekognition.model.Attribute;
+import software.amazon.awssdk.services.rekognition.model.BoundingBox;
+import software.amazon.awssdk.services.rekognition.model.DetectFacesRequest;
+import software.amazon.awssdk.services.rekognition.model.DetectFacesResponse;
+import software.amazon.awssdk.services.rekognition.model.Image;
+import software.amazon.awssdk.services.rekognition.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.rekognition.model.S3Object;
+import software.amazon.awssdk.services.rekognition.model.ThrottlingException;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Detects faces with Amazon Rekognition.
+ * <p>
+ * Only bounding boxes are used, so by default only the default attributes are requested, which Rekognition answers
+ * faster than all of them. JPEG and PNG sources in S3 within Rekognition's limit for objects are referenced, at any
+ * resolution, so Rekognition reads them itself and the function does not download them; everything else is sent
+ * inline as prepared by the {@link DetectionImageEncoder}, downscaled if needed, and the boxes are mapped back onto
+ * the source.
+ * <p>
+ * Calls go through a {@link ConcurrencyLimiter} that backs off when Rekognition throttles, and throttled or
+ * transiently failed calls are retried here with jittered backoff; the client itself is configured not to retry, so
+ * every throttle reaches the limiter. Detection that is still throttled after the retries fails with a
+ * {@link ThrottledException}.
+ */
+public class RekognitionFaceDetector implements FaceDetector {
+    private static final Logger logger = Logger.getLogger(RekognitionFaceDetector.class.getName());
+
+    public static final String NAME = "rekognition";
+
+    static final int MAX_ATTEMPTS = 4;
+    /**
+     * The largest S3 object Rekognition reads; inline images are limited to 5 MB instead.
+     */
+    private static final long MAX_S3_OBJECT_BYTES = 15L * 1024 * 1024;
+    private static final long INITIAL_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 2_000;
+
+    private final RekognitionClient rekognitionClient;
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private final DetectionImageEncoder detectionImageEncoder;
+    private final Attribute attributes;
+    private final CpuPermits cpuPermits;
+
+    private final AtomicLong retries = new AtomicLong();
+
+    /**
+     * @param attributes The face attributes to request, {@link Attribute#DEFAULT} unless more than the bounding
+     *                   boxes are needed
+     * @param cpuPermits Bounds the preparation of inline images, which runs once the source is downloaded
+     */
+    public RekognitionFaceDetector(
+            RekognitionClient rekognitionClient,
+            ConcurrencyLimiter concurrencyLimiter,
+            DetectionImageEncoder detectionImageEncoder,
+            Attribute attributes,
+            CpuPermits cpuPermits
+    ) {
+        this.rekognitionClient = rekognitionClient;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.detectionImageEncoder = detectionImageEncoder;
+        this.attributes = attributes;
+        this.cpuPermits = cpuPermits;
+    }
+
+    @Override
+    public List<FaceBox> detect(SourceImage sourceImage) {
+        S3Location s3Location = sourceImage.s3Location();
+        if (s3Location != null && isReferenceable(sourceImage)) {
+            Image image = Image.builder()
+                    .s3Object(S3Object.builder().bucket(s3Location.bucket()).name(s3Location.key()).build())
+                    .build();
+            return detect(image).toList();
+        }
+
+        sourceImage.bytes();
+        DetectionImage detectionImage;
+        try (CpuPermits.Permit ignored = cpuPermits.acquire()) {
+            detectionImage = detectionImageEncoder.encode(sourceImage);
+        }
+        logger.fine(() -> "Detecting faces on a %dx%d image of %d bytes".formatted(
+                detectionImage.width(), detectionImage.height(), detectionImage.bytes().length));
+        Image image = Image.builder().bytes(SdkBytes.fromByteArrayUnsafe(detectionImage.bytes())).build();
+        return detect(image).map(detectionImage::toSource).toList();
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    public Stats stats() {
+        return new Stats(retries.get(), concurrencyLimiter.stats());
+    }
+
+    private Stream<FaceBox> detect(Image image) {
+        DetectFacesRequest request = DetectFacesRequest.builder()
+                .image(image)
+                .attributes(attributes)
+                .build();
+        return callWithRetries(request).faceDetails().stream()
+                .map(faceDetail -> toFaceBox(faceDetail.boundingBox()));
+    }
+
+    private DetectFacesResponse callWithRetries(DetectFacesRequest request) {
+        for (int attempt = 1; ; attempt++) {
+            ConcurrencyLimiter.Permit permit = concurrencyLimiter.acquire();
+            try {
+                DetectFacesResponse response = rekognitionClient.detectFaces(request);
+                permit.succeeded();
+                return response;
+            } catch (SdkException e) {
+                boolean throttled = isThrottling(e);
+                if (throttled) {
+                    permit.throttled();
+                } else {
+                    permit.release();
+                }
+                if (!throttled && !isTransient(e)) {
+                    throw e;
+                }
+                if (attempt == MAX_ATTEMPTS) {
+                    if (throttled) {
+                        throw new ThrottledException("Face detection is throttled, retry later", e);
+                    }
+                    throw e;
+                }
+                logger.warning("Face detection attempt %d failed: %s, retrying".formatted(attempt, e.getMessage()));
+            } finally {
+                permit.release();
+            }
+            retries.incrementAndGet();
+            RetryUtil.backOff(attempt, INITIAL_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    private static boolean isReferenceable(SourceImage sourceImage) {
+        Long contentLength = sourceImage.contentLength();
+        String formatName = sourceImage.formatName();
+        return contentLength != null && contentLength <= MAX_S3_OBJECT_BYTES
+                && ("jpeg".equals(formatName) || "png".equals(formatName));
+    }
+
+    private static boolean isThrottling(SdkException e) {
+        return e instanceof ThrottlingException
+                || e instanceof ProvisionedThroughputExceededException
+                || e instanceof AwsServiceException serviceException && serviceException.isThrottlingException();
+    }
+
+    private static boolean isTransient(SdkException e) {
+        return e instanceof SdkClientException
+                || e instanceof AwsServiceException serviceException && serviceException.statusCode() >= 500;
+    }
+
+    private static FaceBox toFaceBox(BoundingBox boundingBox) {
+        return new FaceBox(boundingBox.left(), boundingBox.top(), boundingBox.width(), boundingBox.height());
+    }
+
+    /**
+     * @param retries The detection calls retried after a throttle or transient failure
+     * @param limiter The state of the concurrency limiter
+     */
+    public record Stats(long retries, ConcurrencyLimiter.Stats limiter) {
+    }
+}
@@ -1,66 +1,253 @@
 package com.github.omirzak.service;
 
+import com.github.omirzak.dto.FaceBox;
 import com.github.omirzak.dto.FaceCoordinate;
+import com.github.omirzak.dto.FaceDetectionMode;
+import com.github.omirzak.dto.ImageDimension;
+import com.github.omirzak.image.SourceImage;
 import org.jetbrains.annotations.NotNull;
-import software.amazon.awssdk.core.SdkBytes;
-import software.amazon.awssdk.services.rekognition.RekognitionClient;
-import software.amazon.awssdk.services.rekognition.model.Attribute;
-import software.amazon.awssdk.services.rekognition.model.BoundingBox;
-import software.amazon.awssdk.services.rekognition.model.DetectFacesRequest;
-import software.amazon.awssdk.services.rekognition.model.DetectFacesResponse;
-import software.amazon.awssdk.services.rekognition.model.Image;
-
-import java.awt.image.BufferedImage;
-import java.io.IOException;
-import java.net.URI;
+import org.jetbrains.annotations.Nullable;
+import software.amazon.awssdk.core.exception.SdkException;
+
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
 
+/**
+ * Detects faces with Rekognition or the in-process {@link LocalFaceDetector}, behind the {@link FaceDetectionCache}.
+ * <p>
+ * Each request selects a {@link FaceDetectionMode}, or gets the default one. In {@link FaceDetectionMode#AUTO} mode
+ * Rekognition is asked first, and the local detector answers instead when Rekognition does not within the fallback
+ * timeout, is throttled or fails; a Rekognition call that times out still completes in the background and caches its
+ * result for later requests. The local detector misses faces Rekognition finds, such as on grayscale images, so when
+ * it finds none the Rekognition failure is rethrown rather than the image rejected, and the request can be retried.
+ * Results are cached per detector, and concurrent requests for the same source content
+ * and detector share one cache lookup and detection.
+ */
 public class RekognitionService {
-    private final RekognitionClient rekognitionClient;
-    private final ImageService imageService;
+    private static final Logger logger = Logger.getLogger(RekognitionService.class.getName());
+
+    private final RekognitionFaceDetector rekognitionDetector;
+    private final FaceDetector localDetector;
+    private final FaceDetectionCache faceDetectionCache;
+    private final Executor executor;
+    private final Duration fallbackTimeout;
+    private final FaceDetectionMode defaultMode;
+    private final ConcurrentHashMap<String, CompletableFuture<List<FaceBox>>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
 
-    public RekognitionService(RekognitionClient rekognitionClient, ImageService imageService) {
-        this.rekognitionClient = rekognitionClient;
-        this.imageService = imageService;
+    /**
+     * @param executor        Runs the Rekognition calls of {@link FaceDetectionMode#AUTO} detections, which are
+     *                        only waited for up to the fallback timeout
+     * @param fallbackTimeout How long {@link FaceDetectionMode#AUTO} detections wait for Rekognition
+     * @param defaultMode     The mode of requests that do not select one
+     */
+    public RekognitionService(
+            RekognitionFaceDetector rekognitionDetector,
+            FaceDetector localDetector,
+            FaceDetectionCache faceDetectionCache,
+            Executor executor,
+            Duration fallbackTimeout,
+            FaceDetectionMode defaultMode
+    ) {
+        this.rekognitionDetector = rekognitionDetector;
+        this.localDetector = localDetector;
+        this.faceDetectionCache = faceDetectionCache;
+        this.executor = executor;
+        this.fallbackTimeout = fallbackTimeout;
+        this.defaultMode = defaultMode;
     }
 
     @NotNull
-    public List<FaceCoordinate> detectFaces(String imageUrl) {
-        try {
-            SdkBytes imageBytes = SdkBytes.fromInputStream(URI.create(imageUrl).toURL().openStream());
+    public List<FaceCoordinate> detectFaces(SourceImage sourceImage) {
+        return detectFaces(sourceImage, null).faces();
+    }
+
+    /**
+     * @param mode The detector to use, or {@code null} for the default mode
+     * @throws UnprocessableImageException if no faces are found
+     * @throws ThrottledException           if Rekognition is throttled or slow, and in {@link FaceDetectionMode#AUTO}
+     *                                      mode the local detector found no faces either
+     */
+    @NotNull
+    public Detection detectFaces(SourceImage sourceImage, @Nullable FaceDetectionMode mode) {
+        long start = System.nanoTime();
+        FaceDetectionMode selected = mode != null ? mode : defaultMode;
 
-            DetectFacesRequest request = DetectFacesRequest.builder()
-                    .image(Image.builder().bytes(imageBytes).build())
-                    .attributes(Attribute.ALL)
-                    .build();
+        FaceDetector detector = selected == FaceDetectionMode.LOCAL ? localDetector : rekognitionDetector;
+        List<FaceBox> faceBoxes;
+        if (selected == FaceDetectionMode.AUTO) {
+            RekognitionAttempt attempt = detectWithFallback(sourceImage);
+            faceBoxes = attempt.faceBoxes();
+            if (faceBoxes == null) {
+                detector = localDetector;
+                faceBoxes = detectLocally(sourceImage, attempt.failure());
+            }
+        } else {
+            faceBoxes = detectCached(sourceImage, detector);
+        }
 
-            DetectFacesResponse result = rekognitionClient.detectFaces(request);
+        String detectorName = detector.name();
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        logger.fine(() -> "Face detection with %s took %d ms (%s, %s, %s)".formatted(
+                detectorName, millis, selected, faceDetectionCache.stats(), stats()));
 
-            if (result.faceDetails().isEmpty()) {
-                throw new RuntimeException("No faces detected");
+        ImageDimension dimension = sourceImage.dimension();
+        List<FaceCoordinate> faceCoordinates = faceBoxes.stream()
+                .map(faceBox -> convertToAbsoluteCoordinates(faceBox, dimension))
+                .toList();
+        return new Detection(faceCoordinates, detectorName);
+    }
+
+    /**
+     * Returns the name of the detector that normally answers in the given mode. {@link FaceDetectionMode#AUTO}
+     * detections report the local detector in their {@link Detection} when they fell back to it.
+     */
+    public String detectorName(@Nullable FaceDetectionMode mode) {
+        FaceDetectionMode selected = mode != null ? mode : defaultMode;
+        return selected == FaceDetectionMode.LOCAL ? localDetector.name() : rekognitionDetector.name();
+    }
+
+    public Stats stats() {
+        return new Stats(coalesced.get(), fallbacks.get(), rekognitionDetector.stats());
+    }
+
+    /**
+     * Asks Rekognition for up to the fallback timeout.
+     *
+     * @return The detected faces, or why the local detector should answer instead
+     */
+    private RekognitionAttempt detectWithFallback(SourceImage sourceImage) {
+        CompletableFuture<List<FaceBox>> detection = CompletableFuture.supplyAsync(
+                () -> detectCached(sourceImage, rekognitionDetector), executor);
+        RuntimeException failure;
+        try {
+            return new RekognitionAttempt(detection.get(fallbackTimeout.toMillis(), TimeUnit.MILLISECONDS), null);
+        } catch (TimeoutException e) {
+            logger.warning("Rekognition did not answer within %d ms, detecting faces locally".formatted(
+                    fallbackTimeout.toMillis()));
+            failure = new ThrottledException("Face detection did not answer within %d ms, retry later".formatted(
+                    fallbackTimeout.toMillis()), e);
+        } catch (ExecutionException e) {
+            if (!(e.getCause() instanceof ThrottledException || e.getCause() instanceof SdkException)) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                throw new RuntimeException(e.getCause());
             }
+            logger.warning("Rekognition failed: %s, detecting faces locally".formatted(e.getCause().getMessage()));
+            failure = (RuntimeException) e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for face detection", e);
+        }
+        fallbacks.incrementAndGet();
+        return new RekognitionAttempt(null, failure);
+    }
 
-            return result.faceDetails().stream()
-                    .map(faceDetail -> convertToAbsoluteCoordinates(faceDetail.boundingBox(), imageUrl))
-                    .toList();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    /**
+     * Answers for Rekognition with the local detector, rethrowing the Rekognition failure if it finds no faces.
+     */
+    private List<FaceBox> detectLocally(SourceImage sourceImage, RuntimeException rekognitionFailure) {
+        try {
+            return detectCached(sourceImage, localDetector);
+        } catch (UnprocessableImageException e) {
+            logger.warning("No faces detected locally, failing with the Rekognition failure");
+            throw rekognitionFailure;
+        }
+    }
+
+    /**
+     * Looks the faces up in the cache, detecting and caching them on a miss. A detection already in progress for
+     * the same content and detector is joined instead.
+     */
+    private List<FaceBox> detectCached(SourceImage sourceImage, FaceDetector detector) {
+        String cacheKey = detector.name() + "/" + sourceImage.contentHash();
+
+        CompletableFuture<List<FaceBox>> detection = new CompletableFuture<>();
+        CompletableFuture<List<FaceBox>> existing = inFlight.putIfAbsent(cacheKey, detection);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return await(existing);
+        }
+
+        try {
+            List<FaceBox> faceBoxes = faceDetectionCache.get(cacheKey).orElseGet(() -> {
+                List<FaceBox> detected = detector.detect(sourceImage);
+                if (detected.isEmpty()) {
+                    throw new UnprocessableImageException("No faces detected");
+                }
+                faceDetectionCache.put(cacheKey, detected);
+                return detected;
+            });
+            detection.complete(faceBoxes);
+            return faceBoxes;
+        } catch (RuntimeException e) {
+            detection.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(cacheKey, detection);
+        }
+    }
+
+    /**
+     * Waits for a detection started by another request, rethrowing its failure as is.
+     */
+    private static List<FaceBox> await(CompletableFuture<List<FaceBox>> detection) {
+        try {
+            return detection.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
         }
     }
 
     private FaceCoordinate convertToAbsoluteCoordinates(
-            BoundingBox boundingBox,
-            String imageUrl
+            FaceBox faceBox,
+            ImageDimension dimension
     ) {
-        BufferedImage image = imageService.getImageFromUrl(imageUrl);
-        int imageWidth = image.getWidth();
-        int imageHeight = image.getHeight();
+        int imageWidth = dimension.width();
+        int imageHeight = dimension.height();
 
-        int left = (int) (boundingBox.left() * imageWidth);
-        int top = (int) (boundingBox.top() * imageHeight);
-        int width = (int) (boundingBox.width() * imageWidth);
-        int height = (int) (boundingBox.height() * imageHeight);
+        int left = (int) (faceBox.left() * imageWidth);
+        int top = (int) (faceBox.top() * imageHeight);
+        int width = (int) (faceBox.width() * imageWidth);
+        int height = (int) (faceBox.height() * imageHeight);
 
         return new FaceCoordinate(left, top, width, height);
     }
+
+    /**
+     * @param faceBoxes The faces found by Rekognition, or {@code null} if it did not answer
+     * @param failure   Why Rekognition did not answer
+     */
+    private record RekognitionAttempt(@Nullable List<FaceBox> faceBoxes, @Nullable RuntimeException failure) {
+    }
+
+    /**
+     * @param faces    The detected faces in source image coordinates
+     * @param detector The name of the detector that found them
+     */
+    public record Detection(List<FaceCoordinate> faces, String detector) {
+    }
+
+    /**
+     * @param coalesced   The detections served by joining a concurrent request for the same content and detector
+     * @param fallbacks   The detections answered locally because Rekognition was slow, throttled or failing
+     * @param rekognition The retries and concurrency limiter state of the Rekognition detector
+     */
+    public record Stats(long coalesced, long fallbacks, RekognitionFaceDetector.Stats rekognition) {
+    }
 }
@@ -0,0 +1,274 @@
+package com.github.omirzak.service;
+
+import com.github.omirzak.image.BufferPool;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Logger;
+
+/**
+ * Uploads everything written to it to one S3 object, sending each part as soon as it is full so the upload
+ * overlaps with whatever produces the bytes.
+ * <p>
+ * Writes fill a part buffer from the {@link BufferPool}. Once the first part is full a multipart upload is
+ * started, and every full part is uploaded on the executor while the writer carries on with the next one. At
+ * most {@code maxPartsInFlight} parts are buffered at a time; beyond that writes wait for an upload to finish, so
+ * memory stays bounded by the part size rather than the object size. Output that never fills a part is sent with
+ * a single PUT instead.
+ * <p>
+ * None of the S3 calls run on the writing thread: {@link #close()} only schedules the last part and the
+ * completion, which {@link #completion()} then tracks. A failed upload is aborted. A writer holding a
+ * {@link CpuPermits} permit hands it in with {@link #releaseWhileWaiting}, so it does not keep the permit while it
+ * waits for an upload. Instances are not thread-safe.
+ */
+public class S3MultipartOutputStream extends OutputStream {
+    private static final Logger logger = Logger.getLogger(S3MultipartOutputStream.class.getName());
+
+    /**
+     * The smallest part S3 accepts, except for the last one.
+     */
+    public static final int MIN_PART_BYTES = 5 * 1024 * 1024;
+    private static final int INITIAL_PART_CAPACITY = 256 * 1024;
+
+    private final S3Client s3Client;
+    private final String bucketName;
+    private final String key;
+    private final String contentType;
+    private final int partSize;
+    private final Executor executor;
+    private final BufferPool bufferPool;
+    private final Semaphore partsInFlight;
+
+    private byte[] part;
+    private int partLength;
+    private long size;
+    private int partCount;
+    private CompletableFuture<String> uploadId;
+    private final List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+    private volatile Throwable failure;
+    private CompletableFuture<Void> completion;
+    private CpuPermits.Permit cpuPermit;
+
+    public S3MultipartOutputStream(
+            S3Client s3Client,
+            String bucketName,
+            String key,
+            String contentType,
+            int partSize,
+            int maxPartsInFlight,
+            Executor executor,
+            BufferPool bufferPool
+    ) {
+        if (partSize < MIN_PART_BYTES) {
+            throw new IllegalArgumentException("Part size must be at least %d bytes".formatted(MIN_PART_BYTES));
+        }
+        this.s3Client = s3Client;
+        this.bucketName = bucketName;
+        this.key = key;
+        this.contentType = contentType;
+        this.partSize = partSize;
+        this.executor = executor;
+        this.bufferPool = bufferPool;
+        this.partsInFlight = new Semaphore(maxPartsInFlight);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureWritable();
+        part[partLength++] = (byte) b;
+        size++;
+        if (partLength == partSize) {
+            sendPart();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        while (len > 0) {
+            ensureWritable();
+            int count = Math.min(len, Math.min(part.length, partSize) - partLength);
+            System.arraycopy(b, off, part, partLength, count);
+            partLength += count;
+            size += count;
+            off += count;
+            len -= count;
+            if (partLength == partSize) {
+                sendPart();
+            }
+        }
+    }
+
+    /**
+     * Schedules the rest of the upload and returns without waiting for it.
+     */
+    @Override
+    public void close() {
+        if (completion != null) {
+            return;
+        }
+
+        if (uploadId == null) {
+            byte[] bytes = part != null ? part : new byte[0];
+            int length = partLength;
+            part = null;
+            completion = CompletableFuture.runAsync(() -> {
+                try {
+                    s3Client.putObject(b -> b.bucket(bucketName).key(key).contentType(contentType),
+                            RequestBody.fromContentProvider(() -> new ByteArrayInputStream(bytes, 0, length), length, contentType));
+                } finally {
+                    bufferPool.release(bytes);
+                }
+            }, executor);
+            return;
+        }
+
+        if (partLength > 0) {
+            try {
+                sendPart();
+            } catch (IOException e) {
+                abort();
+                return;
+            }
+        }
+        completion = CompletableFuture.allOf(parts.toArray(CompletableFuture[]::new))
+                .thenRunAsync(this::completeUpload, executor)
+                .whenComplete((ignored, e) -> {
+                    if (e != null) {
+                        abortUpload();
+                    }
+                });
+    }
+
+    /**
+     * Gives up on the upload, for writers that fail halfway. Parts already sent are discarded once they settle.
+     */
+    public void abort() {
+        if (part != null) {
+            bufferPool.release(part);
+            part = null;
+        }
+        if (completion == null) {
+            completion = CompletableFuture.failedFuture(new IOException("Upload of %s was aborted".formatted(key)));
+            if (uploadId != null) {
+                abortWhenSettled();
+            }
+        }
+    }
+
+    /**
+     * Releases the writer's CPU permit while writes wait for a part to finish uploading.
+     */
+    public void releaseWhileWaiting(CpuPermits.Permit cpuPermit) {
+        this.cpuPermit = cpuPermit;
+    }
+
+    /**
+     * Completes once the object is stored, or exceptionally if the upload failed. Only available after
+     * {@link #close()}.
+     */
+    public CompletableFuture<Void> completion() {
+        if (completion == null) {
+            throw new IllegalStateException("The stream is still open");
+        }
+        return completion;
+    }
+
+    /**
+     * @return The number of bytes written so far
+     */
+    public long size() {
+        return size;
+    }
+
+    public int partCount() {
+        return uploadId == null ? 1 : partCount;
+    }
+
+    private void ensureWritable() throws IOException {
+        if (completion != null) {
+            throw new IOException("Stream is closed");
+        }
+        if (failure != null) {
+            throw new IOException("Upload of %s failed".formatted(key), failure);
+        }
+        if (part == null) {
+            part = bufferPool.acquire(INITIAL_PART_CAPACITY);
+        } else if (partLength == part.length && part.length < partSize) {
+            byte[] grown = bufferPool.acquire(Math.min(partSize, 2 * part.length));
+            System.arraycopy(part, 0, grown, 0, partLength);
+            bufferPool.release(part);
+            part = grown;
+        }
+    }
+
+    private void sendPart() throws IOException {
+        if (!partsInFlight.tryAcquire()) {
+            if (cpuPermit != null) {
+                cpuPermit.releaseWhile(partsInFlight::acquireUninterruptibly);
+            } else {
+                partsInFlight.acquireUninterruptibly();
+            }
+        }
+
+        if (uploadId == null) {
+            uploadId = CompletableFuture.supplyAsync(() -> s3Client.createMultipartUpload(
+                    b -> b.bucket(bucketName).key(key).contentType(contentType)).uploadId(), executor);
+        }
+
+        int partNumber = ++partCount;
+        byte[] bytes = part;
+        int length = partLength;
+        part = null;
+        partLength = 0;
+
+        CompletableFuture<CompletedPart> uploaded = uploadId.thenApplyAsync(id -> {
+            String eTag = s3Client.uploadPart(
+                    b -> b.bucket(bucketName).key(key).uploadId(id).partNumber(partNumber).contentLength((long) length),
+                    RequestBody.fromContentProvider(() -> new ByteArrayInputStream(bytes, 0, length), length, contentType)
+            ).eTag();
+            return CompletedPart.builder().partNumber(partNumber).eTag(eTag).build();
+        }, executor);
+        uploaded.whenComplete((ignored, e) -> {
+            bufferPool.release(bytes);
+            partsInFlight.release();
+            if (e != null) {
+                failure = e;
+            }
+        });
+        parts.add(uploaded);
+    }
+
+    private void completeUpload() {
+        List<CompletedPart> completedParts = parts.stream().map(CompletableFuture::join).toList();
+        s3Client.completeMultipartUpload(b -> b.bucket(bucketName).key(key).uploadId(uploadId.join())
+                .multipartUpload(upload -> upload.parts(completedParts)));
+    }
+
+    private void abortWhenSettled() {
+        CompletableFuture.allOf(parts.toArray(CompletableFuture[]::new))
+                .whenComplete((ignored, e) -> abortUpload());
+    }
+
+    private void abortUpload() {
+        if (uploadId == null || uploadId.isCompletedExceptionally()) {
+            return;
+        }
+        try {
+            String id = uploadId.join();
+            s3Client.abortMultipartUpload(b -> b.bucket(bucketName).key(key).uploadId(id));
+        } catch (RuntimeException e) {
+            logger.warning("Failed to abort the multipart upload of %s: %s".formatted(key, e));
+        }
+    }
+}
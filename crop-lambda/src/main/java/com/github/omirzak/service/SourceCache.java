@@ -0,0 +1,81 @@
+package com.github.omirzak.service;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps recently fetched source images in memory, bounded by their total size and evicting the least recently
+ * used first, together with the validators (ETag, Last-Modified) needed to revalidate them with a conditional
+ * GET instead of downloading them again.
+ */
+public class SourceCache {
+    private final long capacityBytes;
+    private final Map<String, CachedSource> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long sizeBytes;
+
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong refetches = new AtomicLong();
+
+    public SourceCache(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+    }
+
+    public Optional<CachedSource> get(String imageUrl) {
+        synchronized (entries) {
+            return Optional.ofNullable(entries.get(imageUrl));
+        }
+    }
+
+    /**
+     * Stores a fetched source. Sources without any validator, or larger than the whole cache, are not kept.
+     */
+    public void put(String imageUrl, CachedSource source) {
+        if (source.eTag() == null && source.lastModified() == null || source.bytes().length > capacityBytes) {
+            return;
+        }
+        synchronized (entries) {
+            CachedSource previous = entries.put(imageUrl, source);
+            if (previous != null) {
+                sizeBytes -= previous.bytes().length;
+            }
+            sizeBytes += source.bytes().length;
+
+            Iterator<CachedSource> iterator = entries.values().iterator();
+            while (sizeBytes > capacityBytes && iterator.hasNext()) {
+                sizeBytes -= iterator.next().bytes().length;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Records the outcome of a conditional GET for a cached source.
+     *
+     * @param notModified Whether the cached bytes were still current
+     */
+    public void recordRevalidation(boolean notModified) {
+        (notModified ? revalidations : refetches).incrementAndGet();
+    }
+
+    public Stats stats() {
+        synchronized (entries) {
+            return new Stats(entries.size(), sizeBytes, revalidations.get(), refetches.get());
+        }
+    }
+
+    /**
+     * @param eTag         The entity tag of the cached content
+     * @param lastModified The Last-Modified header of the cached content, for servers that do not send an ETag
+     * @param bytes        The content, shared and never modified
+     */
+    public record CachedSource(@Nullable String eTag, @Nullable String lastModified, byte[] bytes) {
+    }
+
+    public record Stats(int entries, long sizeBytes, long notModified, long modified) {
+    }
+}
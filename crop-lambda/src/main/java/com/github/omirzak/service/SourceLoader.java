@@ -0,0 +1,445 @@
+package com.github.omirzak.service;
+
+import com.github.omirzak.image.S3Location;
+import com.github.omirzak.image.SourceFetcher;
+import com.github.omirzak.image.SourceImage;
+import com.github.omirzak.service.SourceCache.CachedSource;
+import com.github.omirzak.util.RetryUtil;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Creates {@link SourceImage}s for {@code http(s)://} and {@code s3://} source URLs.
+ * <p>
+ * S3 sources are identified by their ETag, so a source whose outputs already exist is never downloaded; its
+ * header is probed with a small ranged GET and the full object is only read, pinned to that ETag, when pixels
+ * are needed. HTTP sources go through a shared client with timeouts, connection reuse and retries on transient
+ * failures. Both revalidate sources cached by earlier requests with a conditional GET rather than downloading
+ * them again.
+ */
+public class SourceLoader {
+    private static final Logger logger = Logger.getLogger(SourceLoader.class.getName());
+
+    static final int MAX_ATTEMPTS = 3;
+    private static final long INITIAL_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 1_000;
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+    private static final Set<Integer> RETRYABLE_STATUS_CODES = Set.of(429, 500, 502, 503, 504);
+
+    private final S3Client s3Client;
+    private final HttpClient httpClient;
+    private final SourceCache sourceCache;
+    private final long maxSourceBytes;
+
+    /**
+     * @param maxSourceBytes Sources larger than this are rejected with an {@link ImageRejectedException} before
+     *                       their body is read
+     */
+    public SourceLoader(S3Client s3Client, HttpClient httpClient, SourceCache sourceCache, long maxSourceBytes) {
+        this.s3Client = s3Client;
+        this.httpClient = httpClient;
+        this.sourceCache = sourceCache;
+        this.maxSourceBytes = maxSourceBytes;
+    }
+
+    public SourceImage load(String imageUrl) {
+        S3Location s3Location = S3Location.parse(imageUrl);
+        if (s3Location != null) {
+            return new SourceImage(imageUrl, new S3SourceFetcher(imageUrl, s3Location));
+        }
+
+        URI uri = URI.create(imageUrl);
+        if (!"http".equalsIgnoreCase(uri.getScheme()) && !"https".equalsIgnoreCase(uri.getScheme())) {
+            throw new IllegalArgumentException("Unsupported image URL: " + imageUrl);
+        }
+        return new SourceImage(imageUrl, new HttpSourceFetcher(imageUrl, uri));
+    }
+
+    public SourceCache.Stats cacheStats() {
+        return sourceCache.stats();
+    }
+
+    /**
+     * Resolving the ETag talks to S3 under the lock, which is a {@link ReentrantLock} so that virtual threads
+     * waiting for it or blocked on S3 inside it do not pin their carrier.
+     */
+    private final class S3SourceFetcher implements SourceFetcher {
+        private final String imageUrl;
+        private final S3Location location;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private boolean resolved;
+        private String eTag;
+        private long contentLength;
+        private byte[] revalidatedBytes;
+
+        private S3SourceFetcher(String imageUrl, S3Location location) {
+            this.imageUrl = imageUrl;
+            this.location = location;
+        }
+
+        @Override
+        public byte[] fetch() {
+            String expectedETag;
+            lock.lock();
+            try {
+                resolve();
+                if (revalidatedBytes != null) {
+                    return revalidatedBytes;
+                }
+                expectedETag = eTag;
+            } finally {
+                lock.unlock();
+            }
+
+            ResponseBytes<GetObjectResponse> object = s3(() -> s3Client.getObject(
+                    b -> b.bucket(location.bucket()).key(location.key()).ifMatch(expectedETag), exactLength(imageUrl)));
+            byte[] bytes = object.asByteArrayUnsafe();
+            sourceCache.put(imageUrl, new CachedSource(object.response().eTag(), null, bytes));
+            return bytes;
+        }
+
+        @Override
+        public byte[] fetchPrefix(int length) {
+            lock.lock();
+            try {
+                if (revalidatedBytes != null) {
+                    return revalidatedBytes;
+                }
+            } finally {
+                lock.unlock();
+            }
+            return s3(() -> s3Client.getObject(
+                    b -> b.bucket(location.bucket()).key(location.key()).range("bytes=0-" + (length - 1)), exactLength(imageUrl)))
+                    .asByteArrayUnsafe();
+        }
+
+        @Override
+        public String versionTag() {
+            lock.lock();
+            try {
+                resolve();
+                return eTag;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public Long contentLength() {
+            lock.lock();
+            try {
+                resolve();
+                return contentLength;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public S3Location s3Location() {
+            return location;
+        }
+
+        /**
+         * Learns the current ETag and size: from a conditional GET when the source is cached, which also yields the
+         * bytes, and from a HEAD otherwise.
+         */
+        private void resolve() {
+            if (resolved) {
+                return;
+            }
+
+            Optional<CachedSource> cached = sourceCache.get(imageUrl);
+            if (cached.isPresent()) {
+                try {
+                    ResponseBytes<GetObjectResponse> object = s3(() -> s3Client.getObject(
+                            b -> b.bucket(location.bucket()).key(location.key()).ifNoneMatch(cached.get().eTag()),
+                            exactLength(imageUrl)));
+                    sourceCache.recordRevalidation(false);
+                    eTag = object.response().eTag();
+                    revalidatedBytes = object.asByteArrayUnsafe();
+                    contentLength = revalidatedBytes.length;
+                    sourceCache.put(imageUrl, new CachedSource(eTag, null, revalidatedBytes));
+                } catch (S3Exception e) {
+                    if (e.statusCode() != 304) {
+                        throw e;
+                    }
+                    sourceCache.recordRevalidation(true);
+                    eTag = cached.get().eTag();
+                    revalidatedBytes = cached.get().bytes();
+                    contentLength = revalidatedBytes.length;
+                }
+            } else {
+                HeadObjectResponse head = s3(() -> s3Client.headObject(b -> b.bucket(location.bucket()).key(location.key())));
+                checkSourceBytes(head.contentLength(), imageUrl);
+                eTag = head.eTag();
+                contentLength = head.contentLength();
+            }
+            resolved = true;
+        }
+
+        /**
+         * The SDK already retries transient S3 failures; this only turns a missing object into a clear message.
+         */
+        private <T> T s3(Supplier<T> request) {
+            try {
+                return request.get();
+            } catch (NoSuchKeyException e) {
+                throw new RuntimeException("Source image not found: " + imageUrl, e);
+            } catch (S3Exception e) {
+                if (e.statusCode() == 404) {
+                    throw new RuntimeException("Source image not found: " + imageUrl, e);
+                }
+                throw e;
+            } catch (RuntimeException e) {
+                ImageRejectedException rejection = rejection(e);
+                throw rejection != null ? rejection : e;
+            }
+        }
+    }
+
+    private final class HttpSourceFetcher implements SourceFetcher {
+        private final String imageUrl;
+        private final URI uri;
+
+        private HttpSourceFetcher(String imageUrl, URI uri) {
+            this.imageUrl = imageUrl;
+            this.uri = uri;
+        }
+
+        @Override
+        public byte[] fetch() {
+            Optional<CachedSource> cached = sourceCache.get(imageUrl);
+            HttpRequest.Builder request = HttpRequest.newBuilder(uri).timeout(REQUEST_TIMEOUT).GET();
+            cached.ifPresent(source -> {
+                if (source.eTag() != null) {
+                    request.header("If-None-Match", source.eTag());
+                }
+                if (source.lastModified() != null) {
+                    request.header("If-Modified-Since", source.lastModified());
+                }
+            });
+
+            HttpResponse<byte[]> response = send(request.build());
+            if (response.statusCode() == 304 && cached.isPresent()) {
+                sourceCache.recordRevalidation(true);
+                return cached.get().bytes();
+            }
+            requireSuccess(response);
+            if (cached.isPresent()) {
+                sourceCache.recordRevalidation(false);
+            }
+
+            sourceCache.put(imageUrl, new CachedSource(
+                    response.headers().firstValue("ETag").orElse(null),
+                    response.headers().firstValue("Last-Modified").orElse(null),
+                    response.body()));
+            return response.body();
+        }
+
+        /**
+         * Requests a byte range. Servers that ignore ranges answer with the whole image, which is fine.
+         */
+        @Override
+        public byte[] fetchPrefix(int length) {
+            HttpResponse<byte[]> response = send(HttpRequest.newBuilder(uri)
+                    .timeout(REQUEST_TIMEOUT)
+                    .header("Range", "bytes=0-" + (length - 1))
+                    .GET()
+                    .build());
+            requireSuccess(response);
+            return response.body();
+        }
+
+        /**
+         * HTTP validators are not guaranteed to change with the content, so HTTP sources are identified by
+         * hashing their bytes.
+         */
+        @Override
+        public String versionTag() {
+            return null;
+        }
+
+        @Override
+        public Long contentLength() {
+            return null;
+        }
+
+        @Override
+        public S3Location s3Location() {
+            return null;
+        }
+
+        private HttpResponse<byte[]> send(HttpRequest request) {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    HttpResponse<byte[]> response = httpClient.send(request, responseInfo -> new LimitedBodySubscriber(
+                            responseInfo.headers().firstValueAsLong("Content-Length").orElse(-1)));
+                    if (!RETRYABLE_STATUS_CODES.contains(response.statusCode()) || attempt == MAX_ATTEMPTS) {
+                        return response;
+                    }
+                    logger.warning("Attempt %d to read %s failed with HTTP %d, retrying".formatted(
+                            attempt, imageUrl, response.statusCode()));
+                } catch (IOException e) {
+                    ImageRejectedException rejection = rejection(e);
+                    if (rejection != null) {
+                        throw rejection;
+                    }
+                    if (attempt == MAX_ATTEMPTS) {
+                        throw new RuntimeException("Failed to read the image from URL: " + imageUrl, e);
+                    }
+                    logger.warning("Attempt %d to read %s failed: %s, retrying".formatted(attempt, imageUrl, e));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while reading the image from URL: " + imageUrl, e);
+                }
+                RetryUtil.backOff(attempt, INITIAL_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS);
+            }
+        }
+
+        private void requireSuccess(HttpResponse<byte[]> response) {
+            if (response.statusCode() / 100 != 2) {
+                throw new RuntimeException("Failed to read the image from URL: %s (HTTP %d)".formatted(
+                        imageUrl, response.statusCode()));
+            }
+        }
+
+        /**
+         * Collects the body like {@code BodySubscribers.ofByteArray()}, but gives up on it as soon as the declared or
+         * received length exceeds the limit, so an oversized source is never buffered in full.
+         */
+        private final class LimitedBodySubscriber implements HttpResponse.BodySubscriber<byte[]> {
+            private final HttpResponse.BodySubscriber<byte[]> delegate = HttpResponse.BodySubscribers.ofByteArray();
+            private final CompletableFuture<byte[]> body = new CompletableFuture<>();
+            private final long declaredLength;
+            private Flow.Subscription subscription;
+            private long received;
+
+            private LimitedBodySubscriber(long declaredLength) {
+                this.declaredLength = declaredLength;
+                delegate.getBody().whenComplete((bytes, e) -> {
+                    if (e != null) {
+                        body.completeExceptionally(e);
+                    } else {
+                        body.complete(bytes);
+                    }
+                });
+            }
+
+            @Override
+            public CompletionStage<byte[]> getBody() {
+                return body;
+            }
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                if (declaredLength > maxSourceBytes) {
+                    reject(declaredLength);
+                    return;
+                }
+                delegate.onSubscribe(subscription);
+            }
+
+            @Override
+            public void onNext(List<ByteBuffer> buffers) {
+                if (body.isDone()) {
+                    return;
+                }
+                for (ByteBuffer buffer : buffers) {
+                    received += buffer.remaining();
+                }
+                if (received > maxSourceBytes) {
+                    reject(received);
+                    return;
+                }
+                delegate.onNext(buffers);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                delegate.onError(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                delegate.onComplete();
+            }
+
+            private void reject(long length) {
+                subscription.cancel();
+                try {
+                    checkSourceBytes(length, imageUrl);
+                } catch (ImageRejectedException e) {
+                    body.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a GET response into an array of exactly its Content-Length, where {@code ResponseTransformer.toBytes()}
+     * grows a stream buffer and then copies it. Oversized responses are rejected unread.
+     */
+    private ResponseTransformer<GetObjectResponse, ResponseBytes<GetObjectResponse>> exactLength(String imageUrl) {
+        return (response, input) -> {
+            checkSourceBytes(response.contentLength(), imageUrl);
+            return ResponseBytes.fromByteArrayUnsafe(response, readExactly(input, response.contentLength()));
+        };
+    }
+
+    private void checkSourceBytes(Long length, String imageUrl) {
+        if (length != null && length > maxSourceBytes) {
+            throw new ImageRejectedException("Image %s is %d bytes, above the limit of %d bytes".formatted(
+                    imageUrl, length, maxSourceBytes));
+        }
+    }
+
+    /**
+     * Finds a rejection that the SDK or HTTP client wrapped on its way out.
+     */
+    private static ImageRejectedException rejection(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ImageRejectedException rejection) {
+                return rejection;
+            }
+        }
+        return null;
+    }
+
+    private static byte[] readExactly(InputStream input, Long contentLength) throws IOException {
+        if (contentLength == null || contentLength > Integer.MAX_VALUE - 8) {
+            return input.readAllBytes();
+        }
+        byte[] bytes = new byte[contentLength.intValue()];
+        int read = input.readNBytes(bytes, 0, bytes.length);
+        if (read != bytes.length) {
+            throw new IOException("Expected %d bytes but the response ended after %d".formatted(bytes.length, read));
+        }
+        return bytes;
+    }
+}
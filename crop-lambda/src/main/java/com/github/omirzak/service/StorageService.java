@@ -0,0 +1,143 @@
+package com.github.omirzak.service;
+
+import com.github.omirzak.dto.PhotoSizeDTO;
+import com.github.omirzak.image.BufferPool;
+import com.github.omirzak.image.EncodedImage;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+
+public class StorageService {
+    private static final Logger logger = Logger.getLogger(StorageService.class.getName());
+    private static final int MAX_PARTS_IN_FLIGHT = 4;
+
+    private final S3Client s3Client;
+    private final S3Presigner s3Presigner;
+    private final String bucketName;
+    private final BufferPool bufferPool;
+    private final int partSize;
+
+    /**
+     * @param bufferPool Supplies the part buffers of streamed uploads
+     * @param partSize   The part size of streamed uploads, at least {@link S3MultipartOutputStream#MIN_PART_BYTES}
+     */
+    public StorageService(S3Client s3Client, S3Presigner s3Presigner, String bucketName, BufferPool bufferPool, int partSize) {
+        this.s3Client = s3Client;
+        this.s3Presigner = s3Presigner;
+        this.bucketName = bucketName;
+        this.bufferPool = bufferPool;
+        this.partSize = partSize;
+    }
+
+    /**
+     * Builds the deterministic key of a rendered output. Identical source bytes rendered with an identical
+     * render signature always map to the same key, so an existing object can be served instead of re-rendering.
+     *
+     * @param sourceHash      The SHA-256 of the source image bytes
+     * @param renderSignature Everything besides the source that determines the output bytes
+     * @param format          The output format, used as the file extension
+     */
+    public String outputKey(String sourceHash, String renderSignature, String format) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(renderSignature.getBytes(StandardCharsets.UTF_8));
+            return "cropped/%s/%s.%s".formatted(sourceHash, HexFormat.of().formatHex(digest, 0, 8), format);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public boolean exists(String key) {
+        try {
+            s3Client.headObject(b -> b.bucket(bucketName).key(key));
+            return true;
+        } catch (NoSuchKeyException e) {
+            return false;
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    public String uploadAndGetPresignedUrl(String key, EncodedImage encodedImage, PhotoSizeDTO photoSizeDTO) {
+        upload(key, encodedImage, photoSizeDTO.format());
+        return presign(key, photoSizeDTO);
+    }
+
+    /**
+     * Uploads the encoded bytes in place; {@code RequestBody.fromBytes} and {@code fromByteBuffer} would copy
+     * them first. The caller keeps ownership of the image and releases it afterwards.
+     */
+    public void upload(String key, EncodedImage encodedImage, String format) {
+        String contentType = contentType(format);
+        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .contentType(contentType)
+                .build();
+
+        s3Client.putObject(putObjectRequest,
+                RequestBody.fromContentProvider(encodedImage::openStream, encodedImage.size(), contentType));
+
+        logger.fine(() -> "Image uploaded to S3 with key: " + key);
+    }
+
+    /**
+     * Uploads a small object that is not an image, such as a manifest.
+     */
+    public void put(String key, byte[] bytes, String contentType) {
+        s3Client.putObject(PutObjectRequest.builder().bucket(bucketName).key(key).contentType(contentType).build(),
+                RequestBody.fromBytes(bytes));
+        logger.fine(() -> "Object uploaded to S3 with key: " + key);
+    }
+
+    /**
+     * Opens a stream that uploads to the key while it is being written, in parts on the given executor.
+     * The upload finishes after the stream is closed, as tracked by {@link S3MultipartOutputStream#completion()}.
+     */
+    public S3MultipartOutputStream openUpload(String key, String format, Executor executor) {
+        return new S3MultipartOutputStream(s3Client, bucketName, key, contentType(format), partSize,
+                MAX_PARTS_IN_FLIGHT, executor, bufferPool);
+    }
+
+    /**
+     * Presigns a GET for an existing output. The download is named after the photo size, since the key itself
+     * is content-addressed.
+     */
+    public String presign(String key, PhotoSizeDTO photoSizeDTO) {
+        String fileName = "%s.%s".formatted(photoSizeDTO.constructFileName(), photoSizeDTO.format());
+
+        GetObjectPresignRequest getObjectPresignRequest = GetObjectPresignRequest.builder()
+                .signatureDuration(Duration.ofMinutes(60))
+                .getObjectRequest(b -> b.bucket(bucketName).key(key)
+                        .responseContentDisposition("inline; filename=\"%s\"".formatted(fileName)))
+                .build();
+
+        PresignedGetObjectRequest presignedRequest = s3Presigner.presignGetObject(getObjectPresignRequest);
+
+        return presignedRequest.url().toString();
+    }
+
+    private static String contentType(String format) {
+        return switch (format.toLowerCase()) {
+            case "jpg", "jpeg" -> "image/jpeg";
+            case "png" -> "image/png";
+            case "webp" -> "image/webp";
+            default -> "application/octet-stream";
+        };
+    }
+}
@@ -0,0 +1,15 @@
+package com.github.omirzak.service;
+
+/**
+ * Thrown when a downstream service keeps throttling after retries, or when too many requests are already waiting
+ * for it. The request may succeed if retried later.
+ */
+public class ThrottledException extends RuntimeException {
+    public ThrottledException(String message) {
+        super(message);
+    }
+
+    public ThrottledException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,11 @@
+package com.github.omirzak.service;
+
+/**
+ * Thrown when a source image was read but can never be cropped, such as when no faces are found on it or the faces
+ * found lie outside of it. Retrying the same image cannot succeed.
+ */
+public class UnprocessableImageException extends RuntimeException {
+    public UnprocessableImageException(String message) {
+        super(message);
+    }
+}
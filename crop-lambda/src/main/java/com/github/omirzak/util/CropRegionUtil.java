@@ -0,0 +1,103 @@
+package com.github.omirzak.util;
+
+import com.github.omirzak.dto.FaceCoordinate;
+import com.github.omirzak.dto.Point;
+import com.github.omirzak.service.UnprocessableImageException;
+
+import java.awt.Rectangle;
+import java.util.List;
+
+/**
+ * Crop geometry shared by the renderer and the decode planner, computed from dimensions alone so the
+ * regions can be known before any pixel is decoded.
+ */
+public final class CropRegionUtil {
+    private CropRegionUtil() {
+    }
+
+    /**
+     * Calculates the largest region centered on the faces that fits inside the image.
+     *
+     * @param imageWidth      The image width in pixels
+     * @param imageHeight     The image height in pixels
+     * @param faceCoordinates The faces in absolute image coordinates
+     * @return The region in image coordinates
+     * @throws UnprocessableImageException if there are no faces or they do not lie within the image
+     */
+    public static Rectangle faceRegion(int imageWidth, int imageHeight, List<FaceCoordinate> faceCoordinates) {
+        assertValidFaceCoordinates(imageWidth, imageHeight, faceCoordinates);
+
+        Point faceCenter = calculateCenterOfFaces(faceCoordinates);
+
+        int minHalfWidth = Math.min(faceCenter.x(), imageWidth - faceCenter.x());
+        int minHalfHeight = Math.min(faceCenter.y(), imageHeight - faceCenter.y());
+
+        int cropWidth = minHalfWidth * 2;
+        int cropHeight = minHalfHeight * 2;
+
+        int cropX = faceCenter.x() - minHalfWidth;
+        int cropY = faceCenter.y() - minHalfHeight;
+
+        return new Rectangle(cropX, cropY, cropWidth, cropHeight);
+    }
+
+    /**
+     * Calculates the largest centered region of the given aspect ratio that fits inside the area.
+     *
+     * @param width       The area width in pixels
+     * @param height      The area height in pixels
+     * @param widthRatio  The width part of the aspect ratio
+     * @param heightRatio The height part of the aspect ratio
+     * @return The region relative to the area
+     */
+    public static Rectangle aspectRatioRegion(int width, int height, double widthRatio, double heightRatio) {
+        double aspectRatio = widthRatio / heightRatio;
+
+        int croppedWidth, croppedHeight;
+        if (width / aspectRatio <= height) {
+            croppedWidth = width;
+            croppedHeight = (int) (croppedWidth / aspectRatio);
+        } else {
+            croppedHeight = height;
+            croppedWidth = (int) (croppedHeight * aspectRatio);
+        }
+
+        int x = (width - croppedWidth) / 2;
+        int y = (height - croppedHeight) / 2;
+
+        return new Rectangle(x, y, croppedWidth, croppedHeight);
+    }
+
+    private static void assertValidFaceCoordinates(int imageWidth, int imageHeight, List<FaceCoordinate> faceCoordinates) {
+        for (FaceCoordinate face : faceCoordinates) {
+            if (face.left() < 0 || face.top() < 0 ||
+                    face.left() + face.width() > imageWidth ||
+                    face.top() + face.height() > imageHeight) {
+                throw new UnprocessableImageException("Invalid face coordinates: Face coordinates must be non-negative and within image dimensions.");
+            }
+        }
+    }
+
+    private static Point calculateCenterOfFaces(List<FaceCoordinate> faceCoordinates) {
+        if (faceCoordinates.isEmpty()) {
+            throw new UnprocessableImageException("Face coordinates list is empty");
+        }
+
+        int leftMost = Integer.MAX_VALUE;
+        int rightMost = Integer.MIN_VALUE;
+        int topMost = Integer.MAX_VALUE;
+        int bottomMost = Integer.MIN_VALUE;
+
+        for (FaceCoordinate face : faceCoordinates) {
+            leftMost = Math.min(leftMost, face.left());
+            rightMost = Math.max(rightMost, face.left() + face.width());
+            topMost = Math.min(topMost, face.top());
+            bottomMost = Math.max(bottomMost, face.top() + face.height());
+        }
+
+        int centerX = (leftMost + rightMost) / 2;
+        int centerY = (topMost + bottomMost) / 2;
+
+        return new Point(centerX, centerY);
+    }
+}
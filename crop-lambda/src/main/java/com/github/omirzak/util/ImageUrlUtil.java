@@ -0,0 +1,31 @@
+package com.github.omirzak.util;
+
+import com.github.omirzak.image.S3Location;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+public final class ImageUrlUtil {
+    private ImageUrlUtil() {
+    }
+
+    /**
+     * Checks whether a source image URL can be loaded: an absolute {@code http(s)} URL with a host, or an
+     * {@code s3://bucket/key} URI.
+     *
+     * @param imageUrl The source image URL
+     * @return Whether the URL is supported
+     */
+    public static boolean isSupported(String imageUrl) {
+        if (S3Location.parse(imageUrl) != null) {
+            return true;
+        }
+        try {
+            URI uri = new URI(imageUrl);
+            return ("http".equalsIgnoreCase(uri.getScheme()) || "https".equalsIgnoreCase(uri.getScheme()))
+                    && uri.getHost() != null;
+        } catch (URISyntaxException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.github.omirzak.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+public final class RetryUtil {
+    private RetryUtil() {
+    }
+
+    /**
+     * Sleeps for an exponentially growing, fully jittered delay, so clients retrying the same failure spread out
+     * instead of retrying in lockstep.
+     *
+     * @param attempt              The attempt that just failed, starting at 1
+     * @param initialBackoffMillis The largest delay after the first attempt
+     * @param maxBackoffMillis     The cap on the largest delay
+     */
+    public static void backOff(int attempt, long initialBackoffMillis, long maxBackoffMillis) {
+        long maxDelay = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt - 1, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(maxDelay + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.omirzak.image;
+
+import com.github.omirzak.dto.FaceCoordinate;
+import com.github.omirzak.dto.ImageDimension;
+import com.github.omirzak.dto.PhotoSizeDTO;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Rectangle;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class DecodePlannerTest {
+    private static final ImageDimension SOURCE = new ImageDimension(8000, 6000);
+    private static final List<FaceCoordinate> CENTERED_FACE = List.of(new FaceCoordinate(3900, 2900, 200, 200));
+
+    @Test
+    public void plan_shouldSubsampleToTwiceTheTargetSize() {
+        DecodePlan plan = DecodePlanner.plan(SOURCE, CENTERED_FACE, List.of(photoSize(1000, 1000)));
+
+        assertEquals(new Rectangle(0, 0, 8000, 6000), plan.sourceRegion());
+        // The square crop is 6000x6000, and 6000 / (1000 * 2) = 3
+        assertEquals(3, plan.subsampling());
+        assertEquals(2667, plan.decodedWidth());
+        assertEquals(2000, plan.decodedHeight());
+    }
+
+    @Test
+    public void plan_shouldDecodeOnlyTheRegionAroundTheFaces() {
+        List<FaceCoordinate> faces = List.of(new FaceCoordinate(1400, 2400, 200, 200));
+
+        DecodePlan plan = DecodePlanner.plan(SOURCE, faces, List.of(photoSize(500, 500)));
+
+        assertEquals(new Rectangle(0, 0, 3000, 5000), plan.sourceRegion());
+        // The square crop is 3000x3000, and 3000 / (500 * 2) = 3
+        assertEquals(3, plan.subsampling());
+    }
+
+    @Test
+    public void plan_shouldKeepTheFinestSubsamplingAcrossTargets() {
+        List<PhotoSizeDTO> targets = List.of(photoSize(196, 196), photoSize(1000, 1000), photoSize(1920, 768));
+
+        DecodePlan plan = DecodePlanner.plan(SOURCE, CENTERED_FACE, targets);
+
+        // 196x196 alone allows 6000 / 392 = 15 and 1000x1000 allows 3, but the 8000x3200 crop of 1920x768 only
+        // allows min(8000 / 3840, 3200 / 1536) = 2
+        assertEquals(2, plan.subsampling());
+        assertEquals(15, DecodePlanner.plan(SOURCE, CENTERED_FACE, List.of(targets.get(0))).subsampling());
+    }
+
+    @Test
+    public void plan_shouldNotSubsampleTargetLargerThanItsRegion() {
+        ImageDimension source = new ImageDimension(2000, 1500);
+        List<FaceCoordinate> faces = List.of(new FaceCoordinate(900, 650, 200, 200));
+
+        DecodePlan plan = DecodePlanner.plan(source, faces, List.of(photoSize(2400, 2400)));
+
+        assertEquals(1, plan.subsampling());
+        assertEquals(2000, plan.decodedWidth());
+        assertEquals(1500, plan.decodedHeight());
+    }
+
+    private static PhotoSizeDTO photoSize(int width, int height) {
+        return new PhotoSizeDTO.Builder()
+                .type("Ava")
+                .platform("Test")
+                .width(width)
+                .height(height)
+                .format("jpg")
+                .build();
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.omirzak.image;
+
+import com.github.omirzak.dto.FaceBox;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DetectionImageEncoderTest {
+    private final DetectionImageEncoder encoder =
+            new DetectionImageEncoder(new ImageEncoder(new BufferPool(1024 * 1024)), 1600, 5_000_000);
+
+    @Test
+    public void encode_shouldSendSmallJpegAsIs() throws IOException {
+        byte[] bytes = jpeg(800, 600);
+
+        DetectionImage image = encoder.encode(SourceImage.ofBytes("https://example.com/small.jpg", bytes));
+
+        assertSame(bytes, image.bytes());
+        assertEquals(1.0, image.widthCoverage());
+        assertEquals(1.0, image.heightCoverage());
+    }
+
+    @Test
+    public void encode_shouldDownscaleLargeImageAndMapBoxesBack() throws IOException {
+        DetectionImage image = encoder.encode(SourceImage.ofBytes("https://example.com/large.jpg", jpeg(3001, 2000)));
+
+        assertEquals(1501, image.width());
+        assertEquals(1000, image.height());
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(image.bytes()));
+        assertEquals(1501, decoded.getWidth());
+
+        FaceBox faceBox = image.toSource(new FaceBox(0.5f, 0.5f, 0.1f, 0.1f));
+        assertTrue(Math.abs(faceBox.left() - 1501 / 3001f) < 1e-4);
+        assertEquals(0.5f, faceBox.top());
+    }
+
+    private static byte[] jpeg(int width, int height) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "jpg", output);
+        return output.toByteArray();
+    }
+}
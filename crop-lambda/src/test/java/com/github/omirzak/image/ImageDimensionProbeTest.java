@@ -0,0 +1,109 @@
+package com.github.omirzak.image;
+
+import com.github.omirzak.dto.ImageDimension;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class ImageDimensionProbeTest {
+
+    @Test
+    public void probe_shouldReadJpegFrameHeader() throws IOException {
+        byte[] jpeg = encode(new BufferedImage(640, 360, BufferedImage.TYPE_INT_RGB), "jpg");
+
+        assertEquals(new ImageDimension(640, 360), ImageDimensionProbe.probe(jpeg));
+    }
+
+    @Test
+    public void probe_shouldReadPngHeaderFromPrefix() throws IOException {
+        byte[] png = encode(new BufferedImage(300, 500, BufferedImage.TYPE_INT_ARGB), "png");
+
+        assertEquals(new ImageDimension(300, 500), ImageDimensionProbe.probe(png, 32));
+    }
+
+    @Test
+    public void formatName_shouldRecognizeSignatures() throws IOException {
+        byte[] jpeg = encode(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), "jpg");
+        byte[] png = encode(new BufferedImage(8, 8, BufferedImage.TYPE_INT_ARGB), "png");
+        byte[] bmp = encode(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), "bmp");
+
+        assertEquals("jpeg", ImageDimensionProbe.formatName(jpeg, jpeg.length));
+        assertEquals("png", ImageDimensionProbe.formatName(png, 16));
+        assertEquals("webp", ImageDimensionProbe.formatName(webpHeader("VP8L"), 30));
+        assertNull(ImageDimensionProbe.formatName(bmp, bmp.length));
+    }
+
+    @Test
+    public void probe_shouldReadGifHeader() throws IOException {
+        byte[] gif = encode(new BufferedImage(17, 23, BufferedImage.TYPE_BYTE_INDEXED), "gif");
+
+        assertEquals(new ImageDimension(17, 23), ImageDimensionProbe.probe(gif));
+    }
+
+    @Test
+    public void probe_shouldReadLossyWebpHeader() {
+        byte[] webp = webpHeader("VP8 ");
+        webp[23] = (byte) 0x9D;
+        webp[24] = 0x01;
+        webp[25] = 0x2A;
+        webp[26] = (byte) (5120 & 0xFF);
+        webp[27] = (byte) (5120 >> 8);
+        webp[28] = (byte) (2880 & 0xFF);
+        webp[29] = (byte) (2880 >> 8);
+
+        assertEquals(new ImageDimension(5120, 2880), ImageDimensionProbe.probe(webp));
+    }
+
+    @Test
+    public void probe_shouldReadLosslessWebpHeader() {
+        byte[] webp = webpHeader("VP8L");
+        int bits = (1000 - 1) | (750 - 1) << 14;
+        webp[20] = 0x2F;
+        webp[21] = (byte) bits;
+        webp[22] = (byte) (bits >> 8);
+        webp[23] = (byte) (bits >> 16);
+        webp[24] = (byte) (bits >> 24);
+
+        assertEquals(new ImageDimension(1000, 750), ImageDimensionProbe.probe(webp));
+    }
+
+    @Test
+    public void probe_shouldReadExtendedWebpHeader() {
+        byte[] webp = webpHeader("VP8X");
+        webp[24] = (byte) (2400 - 1);
+        webp[25] = (byte) ((2400 - 1) >> 8);
+        webp[27] = (byte) (1600 - 1);
+        webp[28] = (byte) ((1600 - 1) >> 8);
+
+        assertEquals(new ImageDimension(2400, 1600), ImageDimensionProbe.probe(webp));
+    }
+
+    @Test
+    public void probe_shouldReturnNullForUnknownData() {
+        byte[] garbage = new byte[64];
+        Arrays.fill(garbage, (byte) 0x42);
+
+        assertNull(ImageDimensionProbe.probe(garbage));
+    }
+
+    private static byte[] encode(BufferedImage image, String format) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ImageIO.write(image, format, baos);
+        return baos.toByteArray();
+    }
+
+    private static byte[] webpHeader(String chunk) {
+        byte[] data = new byte[40];
+        System.arraycopy("RIFF".getBytes(), 0, data, 0, 4);
+        System.arraycopy("WEBP".getBytes(), 0, data, 8, 4);
+        System.arraycopy(chunk.getBytes(), 0, data, 12, 4);
+        return data;
+    }
+}
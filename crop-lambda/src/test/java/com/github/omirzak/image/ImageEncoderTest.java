@@ -0,0 +1,105 @@
+package com.github.omirzak.image;
+
+import com.github.omirzak.service.UnprocessableImageException;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ImageEncoderTest {
+    /**
+     * The step between the qualities tried in the last pass: the first two passes try the bounds, and every
+     * further pass halves the interval.
+     */
+    private static final float FINAL_STEP =
+            (ImageEncoder.MAX_QUALITY - ImageEncoder.MIN_QUALITY) / (1 << (ImageEncoder.MAX_ITERATIONS - 2));
+
+    private final ImageEncoder encoder = new ImageEncoder(new BufferPool(16 * 1024 * 1024));
+    private final BufferedImage image = noise(256, 256);
+
+    @Test
+    public void encode_shouldUseMaxQualityWhenItFitsInOnePass() throws IOException {
+        int maxQualitySize = jpegSize(image, ImageEncoder.MAX_QUALITY);
+
+        EncodedImage encoded = encoder.encode(image, "jpg", maxQualitySize);
+
+        assertEquals(ImageEncoder.MAX_QUALITY, encoded.quality());
+        assertEquals(1, encoded.iterations());
+        assertEquals(maxQualitySize, encoded.size());
+        encoded.release();
+    }
+
+    @Test
+    public void encode_shouldFindHighestQualityWithinBudget() throws IOException {
+        int maxBytes = jpegSize(image, 0.5f);
+
+        EncodedImage encoded = encoder.encode(image, "jpg", maxBytes);
+
+        assertTrue(encoded.size() <= maxBytes);
+        assertTrue(encoded.quality() > 0.5f - FINAL_STEP, "quality " + encoded.quality());
+        assertEquals(ImageEncoder.MAX_ITERATIONS, encoded.iterations());
+        assertEquals(encoded.size(), jpegSize(image, encoded.quality()));
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(encoded.toByteArray()));
+        assertEquals(256, decoded.getWidth());
+        encoded.release();
+    }
+
+    @Test
+    public void encode_shouldRejectBudgetBelowLowestQuality() throws IOException {
+        int maxBytes = jpegSize(image, ImageEncoder.MIN_QUALITY) - 1;
+
+        assertThrows(UnprocessableImageException.class, () -> encoder.encode(image, "jpg", maxBytes));
+    }
+
+    @Test
+    public void encode_shouldRejectLosslessImageOverBudget() throws IOException {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+
+        assertThrows(UnprocessableImageException.class, () -> encoder.encode(image, "png", png.size() - 1));
+        EncodedImage encoded = encoder.encode(image, "png", png.size());
+        assertEquals(png.size(), encoded.size());
+        encoded.release();
+    }
+
+    /**
+     * Random pixels, whose encoded size grows steadily with the quality.
+     */
+    private static BufferedImage noise(int width, int height) {
+        Random random = new Random(42);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+        return image;
+    }
+
+    private static int jpegSize(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ImageOutputStream imageOutput = ImageIO.createImageOutputStream(output)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.setOutput(imageOutput);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return output.size();
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.omirzak.image;
+
+import com.github.omirzak.dto.PhotoSizeDTO;
+import com.github.omirzak.service.PhotoSizeRepository;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RenderPlannerTest {
+
+    @Test
+    public void plan_shouldRenderIdenticalTargetsOnce() {
+        Map<Integer, PhotoSizeDTO> targets = new LinkedHashMap<>();
+        targets.put(1, photoSize("AppleMusic", 2400, 2400, null));
+        targets.put(2, photoSize("Spotify", 2400, 2400, null));
+        targets.put(3, photoSize("Telegram", 2400, 2400, null));
+
+        List<RenderStep> steps = RenderPlanner.plan(targets, RenderPlannerTest::key);
+
+        assertEquals(1, steps.size());
+        assertEquals(List.of(1, 2, 3), steps.get(0).ids());
+        assertNull(steps.get(0).parentKey());
+    }
+
+    @Test
+    public void plan_shouldDeriveFromNearestLargerOutputWithSameAspectRatio() {
+        Map<Integer, PhotoSizeDTO> targets = new LinkedHashMap<>();
+        targets.put(1, photoSize("Facebook", 196, 196, null));
+        targets.put(2, photoSize("Deezer", 1200, 1200, null));
+        targets.put(3, photoSize("Header", 1920, 768, null));
+        targets.put(4, photoSize("VK", 2400, 2400, null));
+        targets.put(5, photoSize("YandexMusic", 1000, 1000, 400 * 1024));
+
+        Map<String, RenderStep> steps = byKey(RenderPlanner.plan(targets, RenderPlannerTest::key));
+
+        assertNull(steps.get("2400x2400").parentKey());
+        assertEquals("2400x2400", steps.get("1200x1200").parentKey());
+        assertEquals("1200x1200", steps.get("1000x1000@409600").parentKey());
+        assertEquals("1000x1000@409600", steps.get("196x196").parentKey());
+        assertNull(steps.get("1920x768").parentKey());
+    }
+
+    @Test
+    public void plan_shouldOrderParentsBeforeDerivedOutputs() {
+        Map<Integer, PhotoSizeDTO> targets = new PhotoSizeRepository().getAllPhotoSizesById();
+
+        List<RenderStep> steps = RenderPlanner.plan(targets, RenderPlannerTest::key);
+
+        Set<String> planned = new HashSet<>();
+        int ids = 0;
+        for (RenderStep step : steps) {
+            assertTrue(step.parentKey() == null || planned.contains(step.parentKey()));
+            planned.add(step.key());
+            ids += step.ids().size();
+        }
+        assertEquals(targets.size(), ids);
+        assertEquals(13, steps.size());
+    }
+
+    private static Map<String, RenderStep> byKey(List<RenderStep> steps) {
+        Map<String, RenderStep> stepsByKey = new LinkedHashMap<>();
+        steps.forEach(step -> stepsByKey.put(step.key(), step));
+        return stepsByKey;
+    }
+
+    private static String key(PhotoSizeDTO photoSizeDTO) {
+        String key = photoSizeDTO.width() + "x" + photoSizeDTO.height();
+        return photoSizeDTO.sizeInBytes() == null ? key : key + "@" + photoSizeDTO.sizeInBytes();
+    }
+
+    private static PhotoSizeDTO photoSize(String platform, int width, int height, Integer sizeInBytes) {
+        return new PhotoSizeDTO.Builder()
+                .type("Ava")
+                .platform(platform)
+                .width(width)
+                .height(height)
+                .sizeInBytes(sizeInBytes)
+                .format("jpg")
+                .build();
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.omirzak.image;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SeparableResamplerTest {
+
+    @Test
+    public void resize_shouldKeepUniformColor() {
+        BufferedImage source = filled(new BufferedImage(1000, 600, BufferedImage.TYPE_3BYTE_BGR), 0x3366CC);
+
+        for (SeparableResampler.Kernel kernel : SeparableResampler.Kernel.values()) {
+            BufferedImage result = new SeparableResampler(kernel, 4).resize(source, 196, 117);
+
+            assertEquals(196, result.getWidth());
+            assertEquals(117, result.getHeight());
+            assertEquals(0x3366CC, result.getRGB(98, 58) & 0xFFFFFF);
+            assertEquals(0x3366CC, result.getRGB(0, 0) & 0xFFFFFF);
+        }
+    }
+
+    @Test
+    public void resize_shouldAverageFineDetailWhenReducing() {
+        BufferedImage source = new BufferedImage(800, 800, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 800; y++) {
+            for (int x = 0; x < 800; x++) {
+                source.setRGB(x, y, (x + y) % 2 == 0 ? 0xFFFFFF : 0x000000);
+            }
+        }
+
+        BufferedImage result = new SeparableResampler(SeparableResampler.Kernel.LANCZOS3).resize(source, 100, 100);
+
+        int gray = result.getRGB(50, 50) & 0xFF;
+        assertTrue(Math.abs(gray - 128) <= 2, "expected mid gray but was " + gray);
+    }
+
+    @Test
+    public void resize_shouldAcceptCustomImageTypes() {
+        ColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB),
+                false, false, Transparency.OPAQUE, DataBuffer.TYPE_USHORT);
+        WritableRaster raster = colorModel.createCompatibleWritableRaster(300, 300);
+        BufferedImage custom = filled(new BufferedImage(colorModel, raster, false, new Hashtable<>()), 0x20A040);
+        assertEquals(BufferedImage.TYPE_CUSTOM, custom.getType());
+
+        BufferedImage result = new SeparableResampler(SeparableResampler.Kernel.MITCHELL).resize(custom.getSubimage(50, 50, 200, 200), 64, 64);
+
+        assertEquals(BufferedImage.TYPE_INT_RGB, result.getType());
+        assertEquals(0x20A040, result.getRGB(32, 32) & 0xFFFFFF);
+    }
+
+    @Test
+    public void rowResizer_shouldMatchResize() {
+        Random random = new Random(42);
+        BufferedImage opaque = new BufferedImage(1037, 611, BufferedImage.TYPE_3BYTE_BGR);
+        BufferedImage translucent = new BufferedImage(333, 251, BufferedImage.TYPE_INT_ARGB);
+        for (BufferedImage image : List.of(opaque, translucent)) {
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    image.setRGB(x, y, random.nextInt());
+                }
+            }
+        }
+
+        SeparableResampler resampler = new SeparableResampler(SeparableResampler.Kernel.LANCZOS3, 4);
+        int[][] sizes = {{1037, 200}, {500, 611}, {120, 70}, {2000, 1200}};
+        for (BufferedImage source : List.of(opaque, translucent)) {
+            for (int[] size : sizes) {
+                BufferedImage expected = resampler.resize(source, size[0], size[1]);
+
+                RowResizer rowResizer = resampler.rowResizer(source.getWidth(), source.getHeight(), size[0], size[1],
+                        source.getColorModel().hasAlpha());
+                for (int y = 0; y < source.getHeight(); y++) {
+                    rowResizer.pushRow(source, 0, y);
+                }
+                BufferedImage actual = rowResizer.finish();
+
+                assertArrayEquals(expected.getRGB(0, 0, size[0], size[1], null, 0, size[0]),
+                        actual.getRGB(0, 0, size[0], size[1], null, 0, size[0]));
+            }
+        }
+    }
+
+    private static BufferedImage filled(BufferedImage image, int rgb) {
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, rgb);
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,27 @@
+package com.github.omirzak.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class CounterDeltasTest {
+
+    @Test
+    public void delta_shouldReportIncreaseSinceLastReport() {
+        CounterDeltas counterDeltas = new CounterDeltas();
+
+        assertEquals(3, counterDeltas.delta("retries", 3));
+        assertEquals(0, counterDeltas.delta("retries", 3));
+        assertEquals(4, counterDeltas.delta("retries", 7));
+        assertEquals(2, counterDeltas.delta("throttles", 2));
+    }
+
+    @Test
+    public void delta_shouldNotReportTotalsOvertakenByConcurrentReport() {
+        CounterDeltas counterDeltas = new CounterDeltas();
+
+        assertEquals(5, counterDeltas.delta("retries", 5));
+        assertEquals(0, counterDeltas.delta("retries", 4));
+        assertEquals(1, counterDeltas.delta("retries", 6));
+    }
+}
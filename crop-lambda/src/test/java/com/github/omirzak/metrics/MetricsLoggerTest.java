@@ -0,0 +1,54 @@
+package com.github.omirzak.metrics;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MetricsLoggerTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void serialize_shouldWriteEmbeddedMetricFormat() throws IOException {
+        String record = new MetricsLogger("CropLambda")
+                .putDimension("Operation", "Crop")
+                .putProperty("requestId", "abc")
+                .putMetric("Latency", 12.5, MetricsLogger.Unit.MILLISECONDS)
+                .putMetric("OutputBytes", 100, MetricsLogger.Unit.BYTES)
+                .putMetric("OutputBytes", 200, MetricsLogger.Unit.BYTES)
+                .serialize();
+
+        assertFalse(record.contains("\n"));
+        JsonNode json = objectMapper.readTree(record);
+        JsonNode directive = json.get("_aws").get("CloudWatchMetrics").get(0);
+        assertEquals("CropLambda", directive.get("Namespace").asText());
+        assertEquals("Operation", directive.get("Dimensions").get(0).get(0).asText());
+        assertEquals("Latency", directive.get("Metrics").get(0).get("Name").asText());
+        assertEquals("Milliseconds", directive.get("Metrics").get(0).get("Unit").asText());
+        assertEquals("Bytes", directive.get("Metrics").get(1).get("Unit").asText());
+        assertTrue(json.get("_aws").get("Timestamp").isNumber());
+
+        assertEquals("Crop", json.get("Operation").asText());
+        assertEquals("abc", json.get("requestId").asText());
+        assertEquals(12.5, json.get("Latency").asDouble());
+        assertEquals(2, json.get("OutputBytes").size());
+        assertEquals(200, json.get("OutputBytes").get(1).asDouble());
+    }
+
+    @Test
+    public void putMetric_shouldKeepAtMostOneHundredValues() throws IOException {
+        MetricsLogger metrics = new MetricsLogger("CropLambda");
+        for (int i = 0; i < 150; i++) {
+            metrics.putMetric("TargetPixels", i, MetricsLogger.Unit.COUNT);
+        }
+
+        JsonNode values = objectMapper.readTree(metrics.serialize()).get("TargetPixels");
+        assertEquals(100, values.size());
+        assertEquals(99, values.get(99).asDouble());
+    }
+}
@@ -0,0 +1,109 @@
+package com.github.omirzak.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.omirzak.image.BufferPool;
+import com.github.omirzak.local.InMemoryS3Client;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BackfillWorkerTest {
+    private static final String BUCKET_NAME = "bucket";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final InMemoryS3Client s3Client = new InMemoryS3Client();
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final Map<String, AtomicInteger> renders = new ConcurrentHashMap<>();
+
+    @AfterEach
+    public void shutDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void process_shouldRetryOnlyFailedMessagesAndWriteManifest() throws IOException {
+        BackfillWorker worker = worker((imageUrl, photoSizes, faceDetection, metrics) -> {
+            if (renders.computeIfAbsent(imageUrl, url -> new AtomicInteger()).incrementAndGet() == 1
+                    && imageUrl.contains("throttled")) {
+                throw new ThrottledException("Face detection is throttled, retry later");
+            }
+            if (imageUrl.contains("no-faces")) {
+                throw new UnprocessableImageException("No faces detected");
+            }
+            return photoSizes.keySet().stream().collect(Collectors.toMap(id -> id, id -> "cropped/" + id + ".jpg"));
+        });
+        InMemoryQueue queue = new InMemoryQueue(3);
+        String succeeded = queue.send("{\"imageUrl\":\"https://example.com/a.jpg\",\"ids\":[4,5]}");
+        String throttled = queue.send("{\"imageUrl\":\"https://example.com/throttled.jpg\",\"all\":true}");
+        String unknownSize = queue.send("{\"imageUrl\":\"https://example.com/b.jpg\",\"ids\":[999]}");
+        String invalid = queue.send("{\"imageUrl\":\"ftp://example.com/c.jpg\",\"all\":true}");
+        String noFaces = queue.send("{\"imageUrl\":\"https://example.com/no-faces.jpg\",\"all\":true}");
+
+        queue.deliver(10, event -> worker.process("first", event.getRecords()));
+
+        assertEquals(1, queue.size());
+        JsonNode results = manifest("first").get("results");
+        assertEquals(5, results.size());
+        Map<String, JsonNode> byMessageId = new ConcurrentHashMap<>();
+        results.forEach(result -> byMessageId.put(result.get("messageId").asText(), result));
+        assertEquals("SUCCEEDED", byMessageId.get(succeeded).get("status").asText());
+        assertEquals("cropped/5.jpg", byMessageId.get(succeeded).get("outputKeys").get("5").asText());
+        assertEquals("FAILED", byMessageId.get(throttled).get("status").asText());
+        assertEquals("REJECTED", byMessageId.get(unknownSize).get("status").asText());
+        assertEquals("REJECTED", byMessageId.get(invalid).get("status").asText());
+        assertEquals("REJECTED", byMessageId.get(noFaces).get("status").asText());
+
+        queue.deliver(10, event -> worker.process("second", event.getRecords()));
+
+        assertEquals(0, queue.size());
+        assertTrue(queue.deadLetters().isEmpty());
+        JsonNode retried = manifest("second").get("results").get(0);
+        assertEquals(throttled, retried.get("messageId").asText());
+        assertEquals("SUCCEEDED", retried.get("status").asText());
+        assertEquals(2, renders.get("https://example.com/throttled.jpg").get());
+    }
+
+    @Test
+    public void process_shouldDeadLetterMessagesThatKeepFailing() {
+        BackfillWorker worker = worker((imageUrl, photoSizes, faceDetection, metrics) -> {
+            throw new IllegalStateException("Source unavailable");
+        });
+        InMemoryQueue queue = new InMemoryQueue(3);
+        String failing = queue.send("{\"imageUrl\":\"https://example.com/a.jpg\",\"all\":true}");
+        AtomicInteger batches = new AtomicInteger();
+
+        queue.drain(10, event -> worker.process("batch-" + batches.incrementAndGet(), event.getRecords()));
+
+        assertEquals(3, batches.get());
+        assertEquals(Set.of(failing), queue.deadLetters().stream()
+                .map(message -> message.getMessageId())
+                .collect(Collectors.toSet()));
+    }
+
+    private BackfillWorker worker(BackfillWorker.Renderer renderer) {
+        StorageService storageService = new StorageService(s3Client, null, BUCKET_NAME, new BufferPool(1024 * 1024),
+                S3MultipartOutputStream.MIN_PART_BYTES);
+        return new BackfillWorker(objectMapper, new PhotoSizeRepository(), renderer, storageService, executor,
+                "CropLambdaTest");
+    }
+
+    private JsonNode manifest(String batchId) throws IOException {
+        return objectMapper.readTree(s3Client.getObject(GetObjectRequest.builder()
+                .bucket(BUCKET_NAME)
+                .key(BackfillWorker.manifestKey(batchId))
+                .build()));
+    }
+}
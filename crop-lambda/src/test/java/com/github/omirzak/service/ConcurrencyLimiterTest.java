@@ -0,0 +1,94 @@
+package com.github.omirzak.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ConcurrencyLimiterTest {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    @Test
+    public void succeeded_shouldRaiseLimitByOneOverLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 1, 3, Duration.ofSeconds(1));
+
+        limiter.acquire().succeeded();
+        assertEquals(2, limiter.stats().limit());
+
+        limiter.acquire().succeeded();
+        limiter.acquire().succeeded();
+        assertEquals(2, limiter.stats().limit());
+        limiter.acquire().succeeded();
+        assertEquals(3, limiter.stats().limit());
+
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire().succeeded();
+        }
+        assertEquals(3, limiter.stats().limit());
+    }
+
+    @Test
+    public void throttled_shouldHalveLimitDownToMinimum() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 8, 1, 8, Duration.ofSeconds(1));
+
+        limiter.acquire().throttled();
+        assertEquals(4, limiter.stats().limit());
+        limiter.acquire().throttled();
+        assertEquals(2, limiter.stats().limit());
+        limiter.acquire().throttled();
+        limiter.acquire().throttled();
+
+        ConcurrencyLimiter.Stats stats = limiter.stats();
+        assertEquals(1, stats.limit());
+        assertEquals(4, stats.throttles());
+        assertEquals(0, stats.inFlight());
+    }
+
+    @Test
+    public void acquire_shouldThrowThrottledExceptionAfterMaxWait() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 1, 1, Duration.ofMillis(50));
+        ConcurrencyLimiter.Permit permit = limiter.acquire();
+
+        assertThrows(ThrottledException.class, limiter::acquire);
+        assertEquals(1, limiter.stats().timeouts());
+
+        permit.release();
+        limiter.acquire().release();
+        assertEquals(1, limiter.stats().timeouts());
+    }
+
+    @Test
+    public void acquire_shouldWaitForReleasedPermit() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 1, 1, Duration.ofSeconds(TIMEOUT_SECONDS));
+        ConcurrencyLimiter.Permit permit = limiter.acquire();
+
+        CompletableFuture<ConcurrencyLimiter.Permit> waiting = CompletableFuture.supplyAsync(limiter::acquire);
+        Thread.sleep(100);
+        assertFalse(waiting.isDone());
+
+        permit.release();
+        waiting.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).release();
+        assertEquals(0, limiter.stats().inFlight());
+    }
+
+    @Test
+    public void settle_shouldHaveNoEffectTwice() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 2, 1, 4, Duration.ofSeconds(1));
+        ConcurrencyLimiter.Permit first = limiter.acquire();
+        limiter.acquire();
+
+        first.succeeded();
+        first.throttled();
+        first.release();
+
+        ConcurrencyLimiter.Stats stats = limiter.stats();
+        assertEquals(1, stats.inFlight());
+        assertEquals(0, stats.throttles());
+        assertEquals(2, stats.limit());
+    }
+}
@@ -0,0 +1,113 @@
+package com.github.omirzak.service;
+
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * SQS stand-in that delivers messages to a handler in batches the way a Lambda event source mapping with
+ * reported batch item failures does, for tests.
+ * <p>
+ * Messages the handler reports as failed return to the back of the queue, and all messages of the batch do when it
+ * throws. A message that was received {@code maxReceiveCount} times and failed again moves to the dead-letter
+ * queue. Visibility timeouts are not modelled: a batch is settled as soon as the handler returns.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public class InMemoryQueue {
+    private static final String EVENT_SOURCE_ARN = "arn:aws:sqs:us-east-1:000000000000:in-memory";
+
+    private final int maxReceiveCount;
+    private final Deque<SQSEvent.SQSMessage> messages = new ArrayDeque<>();
+    private final List<SQSEvent.SQSMessage> deadLetters = new ArrayList<>();
+
+    public InMemoryQueue(int maxReceiveCount) {
+        this.maxReceiveCount = maxReceiveCount;
+    }
+
+    /**
+     * @return The ID of the message
+     */
+    public String send(String body) {
+        SQSEvent.SQSMessage message = new SQSEvent.SQSMessage();
+        message.setMessageId(UUID.randomUUID().toString());
+        message.setReceiptHandle(UUID.randomUUID().toString());
+        message.setBody(body);
+        message.setEventSource("aws:sqs");
+        message.setEventSourceArn(EVENT_SOURCE_ARN);
+        message.setAttributes(Map.of("ApproximateReceiveCount", "0"));
+        messages.addLast(message);
+        return message.getMessageId();
+    }
+
+    /**
+     * Delivers up to {@code batchSize} messages to the handler and settles them by its response.
+     *
+     * @return The number of messages delivered
+     */
+    public int deliver(int batchSize, Function<SQSEvent, SQSBatchResponse> handler) {
+        List<SQSEvent.SQSMessage> batch = new ArrayList<>();
+        while (batch.size() < batchSize && !messages.isEmpty()) {
+            SQSEvent.SQSMessage message = messages.removeFirst();
+            message.setAttributes(Map.of("ApproximateReceiveCount", String.valueOf(receiveCount(message) + 1)));
+            batch.add(message);
+        }
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        SQSEvent event = new SQSEvent();
+        event.setRecords(batch);
+        Set<String> failed = new HashSet<>();
+        try {
+            SQSBatchResponse response = handler.apply(event);
+            if (response != null && response.getBatchItemFailures() != null) {
+                response.getBatchItemFailures().forEach(failure -> failed.add(failure.getItemIdentifier()));
+            }
+        } catch (RuntimeException e) {
+            batch.forEach(message -> failed.add(message.getMessageId()));
+        }
+
+        for (SQSEvent.SQSMessage message : batch) {
+            if (!failed.contains(message.getMessageId())) {
+                continue;
+            }
+            if (receiveCount(message) >= maxReceiveCount) {
+                deadLetters.add(message);
+            } else {
+                messages.addLast(message);
+            }
+        }
+        return batch.size();
+    }
+
+    /**
+     * Delivers batches until the queue is empty.
+     */
+    public void drain(int batchSize, Function<SQSEvent, SQSBatchResponse> handler) {
+        while (!messages.isEmpty()) {
+            deliver(batchSize, handler);
+        }
+    }
+
+    public int size() {
+        return messages.size();
+    }
+
+    public List<SQSEvent.SQSMessage> deadLetters() {
+        return List.copyOf(deadLetters);
+    }
+
+    private static int receiveCount(SQSEvent.SQSMessage message) {
+        return Integer.parseInt(message.getAttributes().get("ApproximateReceiveCount"));
+    }
+}
@@ -0,0 +1,100 @@
+package com.github.omirzak.service;
+
+import com.github.omirzak.dto.FaceBox;
+import com.github.omirzak.image.SourceImage;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LocalFaceDetectorTest {
+    private static final Color BACKGROUND = new Color(70, 110, 160);
+    private static final Color SKIN = new Color(224, 172, 140);
+    private static final Color DARK_SKIN = new Color(141, 85, 60);
+
+    private final LocalFaceDetector detector = new LocalFaceDetector(256, new CpuPermits(1));
+
+    @Test
+    public void detect_shouldFindFaceWithoutNeck() throws IOException {
+        BufferedImage image = background(1200, 900);
+        Graphics2D graphics = image.createGraphics();
+        drawFace(graphics, SKIN, 600, 360, 120, 160);
+        graphics.fillRect(550, 520, 100, 200);
+        graphics.dispose();
+
+        List<FaceBox> faces = detector.detect(source(image));
+
+        assertEquals(1, faces.size());
+        FaceBox face = faces.get(0);
+        assertNear(480 / 1200f, face.left());
+        assertNear(200 / 900f, face.top());
+        assertNear(240 / 1200f, face.width());
+        assertTrue(face.top() + face.height() < 720 / 900f, "the neck should be cut off: " + face);
+    }
+
+    @Test
+    public void detect_shouldFindEveryFace() throws IOException {
+        BufferedImage image = background(1600, 800);
+        Graphics2D graphics = image.createGraphics();
+        drawFace(graphics, SKIN, 400, 400, 110, 150);
+        drawFace(graphics, DARK_SKIN, 1200, 380, 100, 140);
+        graphics.dispose();
+
+        List<FaceBox> faces = detector.detect(source(image)).stream()
+                .sorted(Comparator.comparingDouble(FaceBox::left))
+                .toList();
+
+        assertEquals(2, faces.size());
+        assertNear(290 / 1600f, faces.get(0).left());
+        assertNear(1100 / 1600f, faces.get(1).left());
+    }
+
+    @Test
+    public void detect_shouldIgnoreSmallAndElongatedRegions() throws IOException {
+        BufferedImage image = background(1000, 1000);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(SKIN);
+        graphics.fillRect(0, 900, 1000, 60);
+        graphics.fillOval(500, 200, 8, 8);
+        graphics.dispose();
+
+        assertTrue(detector.detect(source(image)).isEmpty());
+    }
+
+    private static BufferedImage background(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(BACKGROUND);
+        graphics.fillRect(0, 0, width, height);
+        graphics.dispose();
+        return image;
+    }
+
+    private static void drawFace(Graphics2D graphics, Color skin, int centerX, int centerY, int radiusX, int radiusY) {
+        graphics.setColor(skin);
+        graphics.fillOval(centerX - radiusX, centerY - radiusY, 2 * radiusX, 2 * radiusY);
+        graphics.setColor(Color.BLACK);
+        int eyeSize = radiusX / 5;
+        graphics.fillOval(centerX - radiusX / 2 - eyeSize / 2, centerY - radiusY / 4, eyeSize, eyeSize);
+        graphics.fillOval(centerX + radiusX / 2 - eyeSize / 2, centerY - radiusY / 4, eyeSize, eyeSize);
+    }
+
+    private static SourceImage source(BufferedImage image) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", output);
+        return SourceImage.ofBytes("https://example.com/face.jpg", output.toByteArray());
+    }
+
+    private static void assertNear(float expected, float actual) {
+        assertTrue(Math.abs(expected - actual) < 0.02, "expected %.3f but was %.3f".formatted(expected, actual));
+    }
+}
@@ -0,0 +1,66 @@
+package com.github.omirzak.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public class MemoryBudgetTest {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    @Test
+    public void reserve_shouldOvercommitOnceOwnOutputsFinish() throws Exception {
+        MemoryBudget budget = new MemoryBudget(100);
+        MemoryBudget.Account account = budget.account();
+        account.reserveBase(80);
+        MemoryBudget.Account.Reservation first = account.reserve(30);
+
+        CompletableFuture<MemoryBudget.Account.Reservation> second = CompletableFuture.supplyAsync(
+                () -> account.reserve(30));
+        Thread.sleep(100);
+        assertFalse(second.isDone());
+
+        first.close();
+        second.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(110, budget.reservedBytes());
+    }
+
+    @Test
+    public void reserve_shouldNotWaitOnOtherRequestsBases() throws Exception {
+        MemoryBudget budget = new MemoryBudget(100);
+        MemoryBudget.Account first = budget.account();
+        MemoryBudget.Account second = budget.account();
+        first.reserveBase(40);
+        second.reserveBase(40);
+        MemoryBudget.Account.Reservation firstOutput = first.reserve(30);
+        MemoryBudget.Account.Reservation secondOutput = second.reserve(30);
+
+        CompletableFuture<MemoryBudget.Account.Reservation> firstNext = CompletableFuture.supplyAsync(
+                () -> first.reserve(30));
+        CompletableFuture<MemoryBudget.Account.Reservation> secondNext = CompletableFuture.supplyAsync(
+                () -> second.reserve(30));
+        Thread.sleep(100);
+        assertFalse(firstNext.isDone());
+        assertFalse(secondNext.isDone());
+
+        firstOutput.close();
+        secondOutput.close();
+        firstNext.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).close();
+        secondNext.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).close();
+        assertEquals(80, budget.reservedBytes());
+    }
+
+    @Test
+    public void close_shouldReleaseOnlyOnce() {
+        MemoryBudget budget = new MemoryBudget(100);
+        MemoryBudget.Account.Reservation reservation = budget.account().reserve(30);
+
+        reservation.close();
+        reservation.close();
+
+        assertEquals(0, budget.reservedBytes());
+    }
+}
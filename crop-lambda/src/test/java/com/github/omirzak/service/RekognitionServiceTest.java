@@ -0,0 +1,116 @@
+package com.github.omirzak.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.omirzak.dto.FaceBox;
+import com.github.omirzak.dto.FaceDetectionMode;
+import com.github.omirzak.image.BufferPool;
+import com.github.omirzak.image.DetectionImageEncoder;
+import com.github.omirzak.image.ImageEncoder;
+import com.github.omirzak.image.SourceImage;
+import com.github.omirzak.local.InMemoryS3Client;
+import com.github.omirzak.local.StubRekognitionClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.services.rekognition.RekognitionClient;
+import software.amazon.awssdk.services.rekognition.model.Attribute;
+import software.amazon.awssdk.services.rekognition.model.DetectFacesRequest;
+import software.amazon.awssdk.services.rekognition.model.DetectFacesResponse;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class RekognitionServiceTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    public void shutDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void detectFaces_shouldRethrowThrottlingWhenFallbackFindsNoFaces() throws IOException {
+        RekognitionService rekognitionService = rekognitionService(
+                new ThrottlingRekognitionClient(), Duration.ofSeconds(10));
+
+        assertThrows(ThrottledException.class,
+                () -> rekognitionService.detectFaces(grayscaleSource(), FaceDetectionMode.AUTO));
+        assertEquals(1, rekognitionService.stats().fallbacks());
+    }
+
+    @Test
+    public void detectFaces_shouldFailAsThrottledWhenFallbackAfterTimeoutFindsNoFaces() throws IOException {
+        RekognitionService rekognitionService = rekognitionService(
+                new StubRekognitionClient(List.of(new FaceBox(0.4f, 0.3f, 0.2f, 0.3f)), Duration.ofSeconds(2)),
+                Duration.ofMillis(100));
+
+        assertThrows(ThrottledException.class,
+                () -> rekognitionService.detectFaces(grayscaleSource(), FaceDetectionMode.AUTO));
+        assertEquals(1, rekognitionService.stats().fallbacks());
+    }
+
+    @Test
+    public void detectFaces_shouldRejectImageWithoutFacesWhenRekognitionAnswers() throws IOException {
+        RekognitionService rekognitionService = rekognitionService(
+                new StubRekognitionClient(List.of()), Duration.ofSeconds(10));
+
+        assertThrows(UnprocessableImageException.class,
+                () -> rekognitionService.detectFaces(grayscaleSource(), FaceDetectionMode.AUTO));
+        assertEquals(0, rekognitionService.stats().fallbacks());
+    }
+
+    private RekognitionService rekognitionService(RekognitionClient rekognitionClient, Duration fallbackTimeout) {
+        CpuPermits cpuPermits = new CpuPermits(1);
+        RekognitionFaceDetector rekognitionDetector = new RekognitionFaceDetector(rekognitionClient,
+                new ConcurrencyLimiter("Rekognition", 1, 1, 1, Duration.ofSeconds(1)),
+                new DetectionImageEncoder(new ImageEncoder(new BufferPool(1024 * 1024)), 1600, 5_000_000),
+                Attribute.DEFAULT, cpuPermits);
+        FaceDetectionCache faceDetectionCache = new FaceDetectionCache(
+                new InMemoryS3Client(), "bucket", new ObjectMapper(), 16);
+        return new RekognitionService(rekognitionDetector, new LocalFaceDetector(256, cpuPermits), faceDetectionCache,
+                executor, fallbackTimeout, FaceDetectionMode.AUTO);
+    }
+
+    /**
+     * A portrait with the face in gray tones, which the local detector cannot tell from the background.
+     */
+    private static SourceImage grayscaleSource() throws IOException {
+        BufferedImage image = new BufferedImage(400, 300, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.DARK_GRAY);
+        graphics.fillRect(0, 0, 400, 300);
+        graphics.setColor(Color.LIGHT_GRAY);
+        graphics.fillOval(160, 80, 80, 110);
+        graphics.dispose();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", output);
+        return SourceImage.ofBytes("https://example.com/gray.jpg", output.toByteArray());
+    }
+
+    private static class ThrottlingRekognitionClient implements RekognitionClient {
+        @Override
+        public DetectFacesResponse detectFaces(DetectFacesRequest detectFacesRequest) {
+            throw AwsServiceException.builder().statusCode(429).message("Rate exceeded").build();
+        }
+
+        @Override
+        public String serviceName() {
+            return SERVICE_NAME;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
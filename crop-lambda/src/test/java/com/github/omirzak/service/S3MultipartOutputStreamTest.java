@@ -0,0 +1,185 @@
+package com.github.omirzak.service;
+
+import com.github.omirzak.image.BufferPool;
+import com.github.omirzak.local.InMemoryS3Client;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class S3MultipartOutputStreamTest {
+    private static final String BUCKET_NAME = "bucket";
+    private static final String KEY = "cropped/1.jpg";
+    private static final int PART_SIZE = S3MultipartOutputStream.MIN_PART_BYTES;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final RecordingS3Client s3Client = new RecordingS3Client();
+    private final BufferPool bufferPool = new BufferPool(64L * 1024 * 1024);
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    public void shutDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void close_shouldPutSmallObjectInOneRequest() throws Exception {
+        byte[] content = content(100_000);
+        S3MultipartOutputStream output = open(executor, 2);
+
+        output.write(content);
+        output.close();
+        output.completion().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        assertArrayEquals(content, storedObject());
+        assertEquals(0, s3Client.createdUploads.get());
+        assertEquals(1, output.partCount());
+    }
+
+    @Test
+    public void close_shouldCompleteMultipartUploadWithPartsInOrder() throws Exception {
+        byte[] content = content(2 * PART_SIZE + 123_456);
+        S3MultipartOutputStream output = open(executor, 2);
+
+        for (int offset = 0; offset < content.length; offset += 100_000) {
+            output.write(content, offset, Math.min(100_000, content.length - offset));
+        }
+        output.close();
+        output.completion().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        assertArrayEquals(content, storedObject());
+        assertEquals(1, s3Client.createdUploads.get());
+        assertEquals(3, output.partCount());
+        List<CompletedPart> parts = s3Client.completedParts;
+        assertEquals(List.of(1, 2, 3), parts.stream().map(CompletedPart::partNumber).toList());
+        parts.forEach(part -> assertEquals(s3Client.partETags.get(part.partNumber()), part.eTag()));
+        assertEquals(0, s3Client.pendingUploads());
+    }
+
+    @Test
+    public void write_shouldAbortUploadWhenPartFails() {
+        s3Client.failingPart = 1;
+        byte[] content = content(PART_SIZE + 1_000);
+        S3MultipartOutputStream output = open(Runnable::run, 1);
+
+        assertThrows(IOException.class, () -> {
+            output.write(content, 0, PART_SIZE);
+            output.write(content, PART_SIZE, 1_000);
+        });
+        output.abort();
+
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> output.completion().get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof IOException);
+        assertEquals(1, s3Client.createdUploads.get());
+        assertEquals(0, s3Client.pendingUploads());
+        assertFalse(s3Client.contains(BUCKET_NAME, KEY));
+    }
+
+    @Test
+    public void close_shouldAbortUploadWhenLastPartFails() {
+        s3Client.failingPart = 2;
+        S3MultipartOutputStream output = open(executor, 2);
+
+        assertThrows(ExecutionException.class, () -> {
+            output.write(content(PART_SIZE + 1_000));
+            output.close();
+            output.completion().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        });
+
+        assertEquals(0, s3Client.pendingUploads());
+        assertFalse(s3Client.contains(BUCKET_NAME, KEY));
+    }
+
+    @Test
+    public void abort_shouldReleasePartBufferToPool() throws IOException {
+        S3MultipartOutputStream output = open(Runnable::run, 1);
+        output.write(content(PART_SIZE + 100_000));
+        long idleBytes = bufferPool.stats().idleBytes();
+
+        output.abort();
+
+        assertEquals(idleBytes + 256 * 1024, bufferPool.stats().idleBytes());
+        assertTrue(output.completion().isCompletedExceptionally());
+        assertThrows(IOException.class, () -> output.write(1));
+        assertEquals(0, s3Client.pendingUploads());
+        assertFalse(s3Client.contains(BUCKET_NAME, KEY));
+    }
+
+    private S3MultipartOutputStream open(Executor executor, int maxPartsInFlight) {
+        return new S3MultipartOutputStream(s3Client, BUCKET_NAME, KEY, "image/jpeg", PART_SIZE, maxPartsInFlight,
+                executor, bufferPool);
+    }
+
+    private byte[] storedObject() throws IOException {
+        try (InputStream input = s3Client.getObject(GetObjectRequest.builder().bucket(BUCKET_NAME).key(KEY).build())) {
+            return input.readAllBytes();
+        }
+    }
+
+    private static byte[] content(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (i * 31 + i / 4099);
+        }
+        return content;
+    }
+
+    /**
+     * Records the multipart calls and fails the upload of one part on request.
+     */
+    private static class RecordingS3Client extends InMemoryS3Client {
+        private final AtomicInteger createdUploads = new AtomicInteger();
+        private final Map<Integer, String> partETags = new ConcurrentHashMap<>();
+        private volatile List<CompletedPart> completedParts = List.of();
+        private volatile int failingPart;
+
+        @Override
+        public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest request) {
+            createdUploads.incrementAndGet();
+            return super.createMultipartUpload(request);
+        }
+
+        @Override
+        public UploadPartResponse uploadPart(UploadPartRequest request, RequestBody requestBody) {
+            if (request.partNumber() == failingPart) {
+                throw (S3Exception) S3Exception.builder().statusCode(500).message("Internal error").build();
+            }
+            UploadPartResponse response = super.uploadPart(request, requestBody);
+            partETags.put(request.partNumber(), response.eTag());
+            return response;
+        }
+
+        @Override
+        public CompleteMultipartUploadResponse completeMultipartUpload(CompleteMultipartUploadRequest request) {
+            completedParts = request.multipartUpload().parts();
+            return super.completeMultipartUpload(request);
+        }
+    }
+}
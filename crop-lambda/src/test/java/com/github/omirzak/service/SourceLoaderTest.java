@@ -0,0 +1,161 @@
+package com.github.omirzak.service;
+
+import com.github.omirzak.dto.ImageDimension;
+import com.github.omirzak.image.SourceImage;
+import com.github.omirzak.local.InMemoryS3Client;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class SourceLoaderTest {
+    private static final String BUCKET_NAME = "bucket";
+    private static final String KEY = "sources/portrait.jpg";
+    private static final String IMAGE_URL = "s3://" + BUCKET_NAME + "/" + KEY;
+
+    private final RecordingS3Client s3Client = new RecordingS3Client();
+    private final SourceCache sourceCache = new SourceCache(16 * 1024 * 1024);
+    private final SourceLoader sourceLoader = new SourceLoader(s3Client, HttpClient.newHttpClient(), sourceCache,
+            16 * 1024 * 1024);
+
+    @Test
+    public void load_shouldProbeS3SourceWithoutDownloadingIt() throws IOException {
+        byte[] content = jpeg(640, 480);
+        String eTag = put(content);
+
+        SourceImage sourceImage = sourceLoader.load(IMAGE_URL);
+
+        assertEquals(Long.valueOf(content.length), sourceImage.contentLength());
+        assertEquals(new ImageDimension(640, 480), sourceImage.dimension());
+        assertEquals("jpeg", sourceImage.formatName());
+        sourceImage.contentHash();
+        assertEquals(1, s3Client.heads.get());
+        assertEquals(1, s3Client.gets.size());
+        assertEquals("bytes=0-65535", s3Client.gets.get(0).range());
+        assertNull(s3Client.gets.get(0).ifMatch());
+
+        assertArrayEquals(content, sourceImage.bytes());
+        assertEquals(2, s3Client.gets.size());
+        GetObjectRequest download = s3Client.gets.get(1);
+        assertNull(download.range());
+        assertEquals(eTag, download.ifMatch());
+        assertEquals(1, s3Client.heads.get());
+    }
+
+    @Test
+    public void bytes_shouldFailWhenS3SourceChangesAfterProbe() throws IOException {
+        put(jpeg(640, 480));
+        SourceImage sourceImage = sourceLoader.load(IMAGE_URL);
+        sourceImage.contentHash();
+
+        put(jpeg(320, 240));
+
+        S3Exception e = assertThrows(S3Exception.class, sourceImage::bytes);
+        assertEquals(412, e.statusCode());
+    }
+
+    @Test
+    public void load_shouldRevalidateCachedS3SourceWithoutDownloadingItAgain() throws IOException {
+        byte[] content = jpeg(640, 480);
+        String eTag = put(content);
+        sourceLoader.load(IMAGE_URL).bytes();
+        s3Client.gets.clear();
+
+        SourceImage sourceImage = sourceLoader.load(IMAGE_URL);
+
+        assertArrayEquals(content, sourceImage.bytes());
+        assertEquals(new ImageDimension(640, 480), sourceImage.dimension());
+        assertEquals(1, s3Client.gets.size());
+        assertEquals(eTag, s3Client.gets.get(0).ifNoneMatch());
+        assertEquals(1, s3Client.heads.get());
+        assertEquals(1, sourceCache.stats().notModified());
+        assertEquals(0, sourceCache.stats().modified());
+    }
+
+    @Test
+    public void load_shouldDownloadCachedS3SourceAgainWhenModified() throws IOException {
+        String staleETag = put(jpeg(640, 480));
+        sourceLoader.load(IMAGE_URL).bytes();
+        byte[] content = jpeg(320, 240);
+        String eTag = put(content);
+        s3Client.gets.clear();
+
+        SourceImage sourceImage = sourceLoader.load(IMAGE_URL);
+
+        assertArrayEquals(content, sourceImage.bytes());
+        assertEquals(new ImageDimension(320, 240), sourceImage.dimension());
+        assertEquals(1, s3Client.gets.size());
+        assertEquals(staleETag, s3Client.gets.get(0).ifNoneMatch());
+        assertEquals(eTag, sourceCache.get(IMAGE_URL).orElseThrow().eTag());
+        assertEquals(0, sourceCache.stats().notModified());
+        assertEquals(1, sourceCache.stats().modified());
+    }
+
+    @Test
+    public void load_shouldRejectOversizedS3SourceFromHead() throws IOException {
+        put(jpeg(640, 480));
+        SourceLoader limitedLoader = new SourceLoader(s3Client, HttpClient.newHttpClient(), sourceCache, 1_000);
+
+        SourceImage sourceImage = limitedLoader.load(IMAGE_URL);
+
+        assertThrows(ImageRejectedException.class, sourceImage::contentLength);
+        assertEquals(0, s3Client.gets.size());
+    }
+
+    private String put(byte[] content) {
+        return s3Client.putObject(PutObjectRequest.builder().bucket(BUCKET_NAME).key(KEY).contentType("image/jpeg").build(),
+                RequestBody.fromBytes(content)).eTag();
+    }
+
+    private static byte[] jpeg(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8);
+            }
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", output);
+        return output.toByteArray();
+    }
+
+    /**
+     * Records the HEAD and GET requests the loader sends.
+     */
+    private static class RecordingS3Client extends InMemoryS3Client {
+        private final AtomicInteger heads = new AtomicInteger();
+        private final List<GetObjectRequest> gets = new CopyOnWriteArrayList<>();
+
+        @Override
+        public HeadObjectResponse headObject(HeadObjectRequest headObjectRequest) {
+            heads.incrementAndGet();
+            return super.headObject(headObjectRequest);
+        }
+
+        @Override
+        public <ReturnT> ReturnT getObject(GetObjectRequest getObjectRequest,
+                                           ResponseTransformer<GetObjectResponse, ReturnT> responseTransformer) {
+            gets.add(getObjectRequest);
+            return super.getObject(getObjectRequest, responseTransformer);
+        }
+    }
+}